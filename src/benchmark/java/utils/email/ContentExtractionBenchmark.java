@@ -0,0 +1,55 @@
+package utils.email;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.util.SharedByteArrayInputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing a raw message and extracting its text content, as done for every message an inbox resolves,
+ * over messages of varying body size, multipart depth and attachment count.
+ * Run with "-prof gc" (as the benchmark profile does) to see the allocation rate of each shape.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContentExtractionBenchmark {
+
+    @Param({"1000", "100000"})
+    public int bodySize;
+
+    @Param({"0", "1", "3"})
+    public int multipartDepth;
+
+    @Param({"0", "4"})
+    public int attachmentCount;
+
+    private final Session session = Session.getInstance(new java.util.Properties());
+    private byte[] raw;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, MessagingException {
+        MimeMessage message = new MimeCorpus(1, bodySize, multipartDepth, attachmentCount, 64 * 1024).messages().get(0);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        message.writeTo(outputStream);
+        raw = outputStream.toByteArray();
+    }
+
+    @Benchmark
+    public String getContent() throws MessagingException {
+        return EmailUtilities.Inbox.getContent(new MimeMessage(session, new SharedByteArrayInputStream(raw)));
+    }
+
+    @Benchmark
+    public String emailMessageContent() throws MessagingException {
+        return EmailUtilities.Inbox.EmailMessage.from(new MimeMessage(session, new SharedByteArrayInputStream(raw))).getMessageContent();
+    }
+}
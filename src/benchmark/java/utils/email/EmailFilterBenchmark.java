@@ -0,0 +1,78 @@
+package utils.email;
+
+import collections.Pair;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static utils.email.EmailUtilities.Inbox.EmailField;
+import static utils.email.EmailUtilities.Inbox.EmailMessage;
+
+/**
+ * Measures the cost of matching a resolved message against filters, per message.
+ * Message content is resolved during setup, so only the matching itself is measured. The multi-value benchmarks
+ * compare a single automaton pass with one {@link String#contains} scan per value, which is what
+ * {@link EmailFilter#automatonThreshold} is tuned against.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmailFilterBenchmark {
+
+    private static final int messageCount = 1000;
+
+    @Param({"200", "20000"})
+    public int bodySize;
+
+    @Param({"4", "32", "128"})
+    public int valueCount;
+
+    private List<EmailMessage> messages;
+    private List<Pair<EmailField, String>> filterPairs;
+    private EmailFilter compiledFilter;
+    private EmailFilter containsFilter;
+    private EmailFilter automatonFilter;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        messages = new MimeCorpus(messageCount, bodySize, 1, 0, 0).messages().stream().map(EmailMessage::from).toList();
+        messages.forEach(EmailMessage::getMessageContent);
+        filterPairs = List.of(Pair.of(EmailField.SENDER, "@corpus.test"), Pair.of(EmailField.CONTENT, "Verification code: 100999"));
+        compiledFilter = EmailFilter.compile(filterPairs);
+        String[] values = new String[valueCount];
+        for (int index = 0; index < valueCount; index++) values[index] = "Reset code: " + (100000 + index);
+        values[valueCount - 1] = "Verification code: 100999";
+        List<EmailFilter.Condition> conditions = List.of(EmailFilter.Condition.contains(EmailField.CONTENT, values));
+        containsFilter = new EmailFilter(conditions, Integer.MAX_VALUE);
+        automatonFilter = new EmailFilter(conditions, 1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(messageCount)
+    public void emailMatch(Blackhole blackhole) {
+        for (EmailMessage message : messages) blackhole.consume(EmailUtilities.Inbox.emailMatch(message, filterPairs));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(messageCount)
+    public void compiledFilter(Blackhole blackhole) {
+        for (EmailMessage message : messages) blackhole.consume(compiledFilter.test(message));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(messageCount)
+    public void multiValueContains(Blackhole blackhole) {
+        for (EmailMessage message : messages) blackhole.consume(containsFilter.test(message));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(messageCount)
+    public void multiValueAutomaton(Blackhole blackhole) {
+        for (EmailMessage message : messages) blackhole.consume(automatonFilter.test(message));
+    }
+}
@@ -0,0 +1,66 @@
+package utils.email;
+
+import collections.Pair;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static utils.email.EmailUtilities.Inbox.EmailField.SUBJECT;
+
+/**
+ * Measures loading and resolving a whole mailbox, and acquiring a single email end to end, against an mbox corpus
+ * read through the in-process "local" store. Every invocation uses a new inbox, so no invocation benefits from
+ * the watermark or message store of another, while the pooled connection to the mailbox is reused as it is
+ * by repeated loads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class InboxLoadBenchmark {
+
+    @Param({"1000", "10000"})
+    public int messageCount;
+
+    @Param({"false", "true"})
+    public boolean parallelResolution;
+
+    private Path mbox;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        mbox = new MimeCorpus(messageCount, 2000, 1, 0, 0).writeMbox();
+        Files.createDirectories(Path.of("inbox"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(mbox);
+    }
+
+    @Benchmark
+    public int load() {
+        EmailUtilities.Inbox inbox = inbox();
+        inbox.load(false, false, false, List.of(Pair.of(SUBJECT, "Corpus message")));
+        return inbox.getMessages().size();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public String acquireEmail() {
+        EmailAcquisition acquisition = new EmailAcquisition(inbox());
+        return acquisition.acquireEmail(5, 1, false, true, false, List.of(Pair.of(SUBJECT, MimeCorpus.subjectOf(messageCount - 1))));
+    }
+
+    private EmailUtilities.Inbox inbox() {
+        EmailUtilities.Inbox inbox = new EmailUtilities.Inbox(mbox.toString(), "0", "benchmark", "", "none", "local");
+        inbox.setParallelResolution(parallelResolution);
+        return inbox;
+    }
+}
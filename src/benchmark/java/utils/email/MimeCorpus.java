@@ -0,0 +1,133 @@
+package utils.email;
+
+import jakarta.activation.DataHandler;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Multipart;
+import jakarta.mail.Part;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import jakarta.mail.util.ByteArrayDataSource;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic MIME messages for the benchmarks, and writes them to mbox files read through the "local" store.
+ * Corpora are generated from a fixed seed, so every run benchmarks the same bytes.
+ *
+ * @param messageCount    the number of messages in the corpus
+ * @param bodySize        the size of the text body of each message, in characters
+ * @param multipartDepth  the number of multiparts the text body is nested in, 0 for a single part message
+ * @param attachmentCount the number of attachments of each message
+ * @param attachmentSize  the size of each attachment, in bytes
+ */
+public record MimeCorpus(int messageCount, int bodySize, int multipartDepth, int attachmentCount, int attachmentSize) {
+
+    private static final String[] words = {
+            "account", "verification", "code", "password", "reset", "welcome", "invoice", "order", "shipment",
+            "delivery", "meeting", "schedule", "report", "update", "security", "alert", "login", "confirm"
+    };
+
+    /**
+     * Returns the subject of the message at the given index, unique within the corpus.
+     *
+     * @param index the index of the message
+     * @return the subject
+     */
+    public static String subjectOf(int index) {
+        return "Corpus message #" + index + ";";
+    }
+
+    /**
+     * Generates the messages of the corpus.
+     *
+     * @return the messages, in corpus order
+     */
+    public List<MimeMessage> messages() {
+        Random random = new Random(42);
+        List<MimeMessage> messages = new ArrayList<>(messageCount);
+        for (int index = 0; index < messageCount; index++) messages.add(message(index, random));
+        return messages;
+    }
+
+    /**
+     * Writes the corpus to an mbox file in a new temporary directory.
+     *
+     * @return the path of the mbox file
+     * @throws IOException if the file could not be written
+     */
+    public Path writeMbox() throws IOException {
+        Path mbox = Files.createTempDirectory("corpus").resolve("inbox.mbox");
+        Random random = new Random(42);
+        try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(mbox))) {
+            for (int index = 0; index < messageCount; index++) {
+                outputStream.write("From sender@corpus.test Thu Jan  1 00:00:00 2026\n".getBytes(StandardCharsets.US_ASCII));
+                message(index, random).writeTo(outputStream);
+                outputStream.write("\n\n".getBytes(StandardCharsets.US_ASCII));
+            }
+        } catch (MessagingException exception) {
+            throw new IOException(exception);
+        }
+        return mbox;
+    }
+
+    private MimeMessage message(int index, Random random) {
+        try {
+            MimeMessage message = new MimeMessage((Session) null);
+            message.setFrom(new InternetAddress("sender" + index % 100 + "@corpus.test"));
+            message.setSubject(subjectOf(index));
+            message.setSentDate(new Date(1767225600000L + index * 60000L));
+            String body = text(random, index);
+            if (multipartDepth == 0 && attachmentCount == 0) message.setText(body);
+            else message.setContent(multipart(body, random, Math.max(1, multipartDepth)));
+            message.saveChanges();
+            return message;
+        } catch (MessagingException exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    /**
+     * Nests the text body in the given number of multiparts, with the attachments in the outermost one.
+     */
+    private Multipart multipart(String body, Random random, int depth) throws MessagingException {
+        MimeBodyPart text = new MimeBodyPart();
+        text.setText(body);
+        Multipart multipart = new MimeMultipart("alternative");
+        multipart.addBodyPart(text);
+        for (int level = 1; level < depth; level++) {
+            MimeBodyPart nested = new MimeBodyPart();
+            nested.setContent(multipart);
+            multipart = new MimeMultipart("mixed");
+            multipart.addBodyPart(nested);
+        }
+        for (int index = 0; index < attachmentCount; index++) {
+            byte[] bytes = new byte[attachmentSize];
+            random.nextBytes(bytes);
+            MimeBodyPart attachment = new MimeBodyPart();
+            attachment.setDataHandler(new DataHandler(new ByteArrayDataSource(bytes, "application/octet-stream")));
+            attachment.setFileName("attachment-" + index + ".bin");
+            attachment.setDisposition(Part.ATTACHMENT);
+            multipart.addBodyPart(attachment);
+        }
+        return multipart;
+    }
+
+    private String text(Random random, int index) {
+        StringBuilder text = new StringBuilder(bodySize + 32);
+        while (text.length() < bodySize) text.append(words[random.nextInt(words.length)]).append(' ');
+        text.setLength(bodySize);
+        return text.append("\nVerification code: ").append(100000 + index).toString();
+    }
+}
@@ -0,0 +1,110 @@
+package utils.reflection;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Measures the cost of reading and writing a field by name through {@link ReflectionUtilities#getField} and
+ * {@link ReflectionUtilities#setField}, against the {@link Accessor}s generated for it: field handles, and lambdas
+ * spun over the public getter and setter. The direct benchmarks call the getter and setter themselves, as a baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccessorBenchmark {
+
+    public static class Pet {
+        private String name = "Doggie";
+        private int age = 3;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getAge() {
+            return age;
+        }
+
+        public void setAge(int age) {
+            this.age = age;
+        }
+    }
+
+    private Pet pet;
+    private Accessor<Pet, String> nameField;
+    private Accessor<Pet, Integer> ageField;
+    private Function<Pet, String> nameGetter;
+    private BiConsumer<Pet, Integer> ageSetter;
+    private Function<Pet, Integer> ageGetter;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pet = new Pet();
+        nameField = ReflectionUtilities.getAccessor(Pet.class, "name");
+        ageField = ReflectionUtilities.getAccessor(Pet.class, "age");
+        nameGetter = ReflectionUtilities.<Pet, String>getPropertyAccessor(Pet.class, "name").getter();
+        Accessor<Pet, Integer> ageProperty = ReflectionUtilities.getPropertyAccessor(Pet.class, "age");
+        ageGetter = ageProperty.getter();
+        ageSetter = ageProperty.setter();
+    }
+
+    @Benchmark
+    public Object getField() {
+        return ReflectionUtilities.getField("name", pet);
+    }
+
+    @Benchmark
+    public String fieldAccessorGet() {
+        return nameField.get(pet);
+    }
+
+    @Benchmark
+    public String propertyAccessorGet() {
+        return nameGetter.apply(pet);
+    }
+
+    @Benchmark
+    public String directGet() {
+        return pet.getName();
+    }
+
+    @Benchmark
+    public void setField(Blackhole blackhole) {
+        ReflectionUtilities.setField(pet, "age", 4);
+        blackhole.consume(pet);
+    }
+
+    @Benchmark
+    public void fieldAccessorSet(Blackhole blackhole) {
+        ageField.set(pet, 4);
+        blackhole.consume(pet);
+    }
+
+    @Benchmark
+    public void propertyAccessorSet(Blackhole blackhole) {
+        ageSetter.accept(pet, 4);
+        blackhole.consume(pet);
+    }
+
+    @Benchmark
+    public void directSet(Blackhole blackhole) {
+        pet.setAge(4);
+        blackhole.consume(pet);
+    }
+
+    @Benchmark
+    public int propertyAccessorGetPrimitive() {
+        return ageGetter.apply(pet);
+    }
+}
@@ -0,0 +1,23 @@
+package utils.email;
+
+import java.nio.file.Path;
+
+/**
+ * Describes an attachment handled by an {@link AttachmentStore}.
+ *
+ * @param fileName    the file name the attachment was sent with
+ * @param contentType the MIME type of the attachment
+ * @param path        the file holding the attachment, or null if it was skipped
+ * @param size        the size of the attachment in bytes, or the bytes read before it was skipped
+ * @param sha256      the hex encoded SHA-256 hash of the attachment, or null if it was skipped
+ * @param status      whether the attachment was saved, found to be a duplicate of a saved one, or skipped
+ */
+public record AttachmentDescriptor(String fileName, String contentType, Path path, long size, String sha256, Status status) {
+
+    public enum Status {SAVED, DUPLICATE, SKIPPED}
+
+    @Override
+    public String toString() {
+        return fileName;
+    }
+}
@@ -0,0 +1,248 @@
+package utils.email;
+
+import context.ContextStore;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Multipart;
+import jakarta.mail.Part;
+import utils.Printer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persists the attachments of email messages to a directory.
+ * <p>
+ * Attachments are streamed from the MIME decoder straight to disk through a file channel, so no attachment is
+ * ever held in memory as a whole. Attachments larger than "email-attachment-max-bytes" (25 MiB by default) are
+ * skipped, as are the attachments of a message once "email-message-attachments-max-bytes" (100 MiB by default)
+ * have been written for it. Attachments are deduplicated by their SHA-256 hash, so an attachment received
+ * again is not written twice. Persistence can run on a background thread with {@link #persistAsync(Message)}.
+ * <p>
+ * Attachments are streamed through direct buffers of "email-attachment-buffer-size" bytes (1 MiB by default),
+ * taken from a pool of at most "email-attachment-buffers" buffers (4 by default) shared by every thread persisting
+ * with this store. Once they are all in use, further attachments wait for a buffer to be returned, so the off-heap
+ * memory a store holds stays bounded however many threads persist with it.
+ */
+@SuppressWarnings("unused")
+public class AttachmentStore {
+
+    private static final Printer log = new Printer(AttachmentStore.class);
+
+    /**
+     * The executor shared by every store for asynchronous persistence, running on daemon threads.
+     */
+    private static final ExecutorService writers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "email-attachment-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path directory;
+    private final long maxAttachmentBytes;
+    private final long maxMessageBytes;
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final LinkedBlockingQueue<ByteBuffer> buffers = new LinkedBlockingQueue<>();
+    private final AtomicInteger allocatedBuffers = new AtomicInteger();
+    private final Map<String, Path> pathsByHash = new ConcurrentHashMap<>();
+    private final Map<Path, String> hashesByPath = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a store saving to the "email-attachment-directory" (inbox/attachments by default),
+     * with the limits and buffer size configured in the context.
+     */
+    public AttachmentStore() {
+        this(
+                Paths.get(ContextStore.get("email-attachment-directory", "inbox/attachments")),
+                Long.parseLong(ContextStore.get("email-attachment-max-bytes", String.valueOf(25L << 20))),
+                Long.parseLong(ContextStore.get("email-message-attachments-max-bytes", String.valueOf(100L << 20))),
+                Integer.parseInt(ContextStore.get("email-attachment-buffer-size", String.valueOf(1 << 20))),
+                Integer.parseInt(ContextStore.get("email-attachment-buffers", "4"))
+        );
+    }
+
+    /**
+     * Constructs a store saving to the given directory, with a pool of 4 buffers.
+     *
+     * @param directory          the directory to save attachments to
+     * @param maxAttachmentBytes the maximum size of a single attachment, in bytes
+     * @param maxMessageBytes    the maximum size of all attachments saved for one message, in bytes
+     * @param bufferSize         the size of the buffer used to stream each attachment to disk, in bytes
+     */
+    public AttachmentStore(Path directory, long maxAttachmentBytes, long maxMessageBytes, int bufferSize) {
+        this(directory, maxAttachmentBytes, maxMessageBytes, bufferSize, 4);
+    }
+
+    /**
+     * Constructs a store saving to the given directory.
+     *
+     * @param directory          the directory to save attachments to
+     * @param maxAttachmentBytes the maximum size of a single attachment, in bytes
+     * @param maxMessageBytes    the maximum size of all attachments saved for one message, in bytes
+     * @param bufferSize         the size of the buffer used to stream each attachment to disk, in bytes
+     * @param maxBuffers         the maximum number of buffers, and so of attachments streamed at the same time
+     */
+    public AttachmentStore(Path directory, long maxAttachmentBytes, long maxMessageBytes, int bufferSize, int maxBuffers) {
+        this.directory = directory;
+        this.maxAttachmentBytes = maxAttachmentBytes;
+        this.maxMessageBytes = maxMessageBytes;
+        this.bufferSize = bufferSize;
+        this.maxBuffers = Math.max(1, maxBuffers);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Persists the attachments of the given message.
+     *
+     * @param message the message whose attachments to persist
+     * @return the descriptors of the message's attachments, in the order they appear in the message
+     * @throws MessagingException if the message could not be read
+     * @throws IOException        if an attachment could not be written
+     */
+    public List<AttachmentDescriptor> persist(Message message) throws MessagingException, IOException {
+        List<AttachmentDescriptor> descriptors = new ArrayList<>();
+        if (!message.isMimeType("multipart/*")) return descriptors;
+        Multipart multipart = (Multipart) message.getContent();
+        long budget = maxMessageBytes;
+        for (int index = 0; index < multipart.getCount(); index++) {
+            Part part = multipart.getBodyPart(index);
+            if (!Part.ATTACHMENT.equalsIgnoreCase(part.getDisposition())) continue;
+            AttachmentDescriptor descriptor = persist(part, budget);
+            if (descriptor.status() == AttachmentDescriptor.Status.SAVED) budget -= descriptor.size();
+            descriptors.add(descriptor);
+        }
+        return descriptors;
+    }
+
+    /**
+     * Persists the attachments of the given message on a background thread.
+     * The message has to stay readable until the returned future completes.
+     *
+     * @param message the message whose attachments to persist
+     * @return a future completing with the descriptors of the message's attachments
+     */
+    public CompletableFuture<List<AttachmentDescriptor>> persistAsync(Message message) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return persist(message);
+            } catch (MessagingException | IOException exception) {
+                log.error(exception.getLocalizedMessage(), exception);
+                throw new CompletionException(exception);
+            }
+        }, writers);
+    }
+
+    /**
+     * Streams a single attachment to disk, within the given byte budget.
+     */
+    private AttachmentDescriptor persist(Part part, long budget) throws MessagingException, IOException {
+        String fileName = part.getFileName();
+        String contentType = part.getContentType();
+        long limit = Math.min(maxAttachmentBytes, budget);
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, ".attachment", ".part");
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = acquireBuffer();
+        long size = 0;
+        try (ReadableByteChannel source = Channels.newChannel(part.getInputStream());
+             FileChannel target = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.clear();
+            while (source.read(buffer) != -1) {
+                buffer.flip();
+                size += buffer.remaining();
+                if (size > limit) break;
+                digest.update(buffer.duplicate());
+                while (buffer.hasRemaining()) target.write(buffer);
+                buffer.clear();
+            }
+        } catch (IOException | MessagingException | RuntimeException exception) {
+            Files.deleteIfExists(temporary);
+            throw exception;
+        } finally {
+            buffers.offer(buffer);
+        }
+
+        if (size > limit) {
+            Files.deleteIfExists(temporary);
+            log.warning("Skipped attachment \"" + fileName + "\" as it exceeds the limit of " + limit + " bytes");
+            return new AttachmentDescriptor(fileName, contentType, null, size, null, AttachmentDescriptor.Status.SKIPPED);
+        }
+
+        String hash = HexFormat.of().formatHex(digest.digest());
+        Path existing = pathsByHash.get(hash);
+        if (existing != null && Files.exists(existing)) {
+            Files.deleteIfExists(temporary);
+            return new AttachmentDescriptor(fileName, contentType, existing, size, hash, AttachmentDescriptor.Status.DUPLICATE);
+        }
+        Path target = targetOf(fileName, hash);
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        pathsByHash.put(hash, target);
+        return new AttachmentDescriptor(fileName, contentType, target, size, hash, AttachmentDescriptor.Status.SAVED);
+    }
+
+    /**
+     * Takes a buffer from the pool, allocating one while the pool holds fewer than its maximum,
+     * or waiting for one to be returned otherwise.
+     */
+    private ByteBuffer acquireBuffer() throws IOException {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer != null) return buffer;
+        if (allocatedBuffers.getAndUpdate(count -> count < maxBuffers ? count + 1 : count) < maxBuffers)
+            return ByteBuffer.allocateDirect(bufferSize);
+        try {
+            return buffers.take();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an attachment buffer");
+        }
+    }
+
+    /**
+     * Returns the file an attachment is saved as: its own file name within the directory, prefixed with its hash
+     * if another attachment saved by this store already took that name.
+     */
+    private Path targetOf(String fileName, String hash) {
+        String name = fileName == null ? null : String.valueOf(Paths.get(fileName).getFileName());
+        if (name == null || name.isBlank()) name = "attachment";
+        Path target = directory.resolve(name);
+        String owner = hashesByPath.putIfAbsent(target, hash);
+        if (owner == null || owner.equals(hash)) return target;
+        target = directory.resolve(hash.substring(0, 12) + "-" + name);
+        hashesByPath.put(target, hash);
+        return target;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+}
@@ -3,11 +3,9 @@ package utils.email;
 import collections.Pair;
 import context.ContextStore;
 import utils.Printer;
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
-import java.util.Objects;
+import java.util.function.Consumer;
 
 import static utils.StringUtilities.Color.BLUE;
 import static utils.StringUtilities.*;
@@ -43,6 +41,35 @@ public class EmailAcquisition {
         this.inbox = emailInbox;
     }
 
+    /**
+     * Constructs an EmailAcquisition object with the provided email inbox, waiting for emails through the given
+     * watcher service instead of polling the inbox on its own.
+     *
+     * @param emailInbox The inbox from which emails will be acquired.
+     * @param watcher    The watcher watching the folder of the inbox.
+     */
+    public EmailAcquisition(EmailUtilities.Inbox emailInbox, MailboxWatcher watcher) {
+        this(emailInbox);
+        watcher.watch(emailInbox);
+    }
+
+    /**
+     * Streams the emails matching the specified filters as they arrive in the folder of the inbox,
+     * saving them (and their attachments, if requested) as they are acquired.
+     *
+     * @param saveAttachments boolean flag indicating whether to save email attachments
+     * @param filterPairs     a list of pairs consisting of email fields and corresponding filter strings
+     * @param consumer        the consumer of the acquired emails
+     * @return the subscription, to be cancelled once no more emails are expected
+     */
+    public MessageSubscription streamEmails(
+            boolean saveAttachments,
+            List<Pair<EmailUtilities.Inbox.EmailField, String>> filterPairs,
+            Consumer<EmailUtilities.Inbox.EmailMessage> consumer) {
+        log.info("Streaming email(s) from " + markup(BLUE, inbox.getFolderName()));
+        return inbox.subscribe(true, saveAttachments, filterPairs, consumer);
+    }
+
     /**
      * Acquires an email based on the specified filter type and key,
      * using default timeout and other options.
@@ -172,20 +199,8 @@ public class EmailAcquisition {
                 saveAttachments,
                 filterPairs
         );
-        File dir = new File("inbox");
-        String absolutePath = null;
-        for (File email : Objects.requireNonNull(dir.listFiles()))
-            try {
-                boolean nullCheck = Files.probeContentType(email.toPath()) != null;
-                boolean isHTML = Files.probeContentType(email.toPath()).equals("text/html");
-                boolean emailNameMatch = email.getName().equals(message.getFileName());
-                if (nullCheck && isHTML && emailNameMatch) {
-                    absolutePath = "file://" + email.getAbsolutePath().replaceAll("#", "%23");
-                    break;
-                }
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-        return absolutePath;
+        // The saved file is looked up in the index of the inbox directory, rather than by listing the directory
+        Path path = message == null ? null : inbox.getSavedPath(message);
+        return path == null ? null : "file://" + path.toAbsolutePath().toString().replaceAll("#", "%23");
     }
 }
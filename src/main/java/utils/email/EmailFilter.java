@@ -0,0 +1,388 @@
+package utils.email;
+
+import collections.Pair;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import static utils.email.EmailUtilities.Inbox.EmailField;
+import static utils.email.EmailUtilities.Inbox.EmailMessage;
+
+/**
+ * A set of conditions on email fields, compiled once and reusable for matching any number of messages.
+ * A message matches the filter if it satisfies every condition.
+ * <p>
+ * Conditions are evaluated from the cheapest field to the most expensive one (subject, sender, date,
+ * attachments and finally content), so a message failing an envelope condition never has its body decoded.
+ * Literal content conditions are checked with {@link String#contains}, unless they look for at least
+ * {@value #automatonThreshold} values between them, in which case they are all checked in a single pass over the body
+ * with an Aho-Corasick automaton. Regular expressions on the content are only evaluated after that.
+ * Missing field values are treated as empty strings.
+ */
+@SuppressWarnings("unused")
+public class EmailFilter implements Predicate<EmailMessage> {
+
+    private static final List<EmailField> fieldCosts = List.of(
+            EmailField.SUBJECT,
+            EmailField.SENDER,
+            EmailField.DATE,
+            EmailField.ATTACHMENTS,
+            EmailField.CONTENT
+    );
+
+    /**
+     * The default number of literal content values from which they are matched with a single automaton pass
+     * rather than one {@link String#contains} scan per value. This is a tunable starting point, not a measured
+     * crossover, and can be overridden per filter through the package-private constructor.
+     */
+    static final int automatonThreshold = 32;
+
+    private final List<Condition> conditions;
+    private final List<Condition> fieldConditions = new ArrayList<>();
+    private final List<Condition> contentPatterns = new ArrayList<>();
+    private final ContentMatcher contentMatcher;
+
+    /**
+     * Compiles filter pairs into a filter, where each pair is satisfied by a field containing the filter value
+     * or equal to it ignoring case.
+     *
+     * @param filterPairs a list of pairs consisting of email fields and corresponding filter strings
+     * @return the compiled filter
+     */
+    public static EmailFilter compile(List<Pair<EmailField, String>> filterPairs) {
+        List<Condition> conditions = new ArrayList<>(filterPairs.size());
+        for (Pair<EmailField, String> filterPair : filterPairs)
+            if (filterPair.alpha() != null) conditions.add(Condition.of(filterPair.alpha(), filterPair.beta()));
+        return new EmailFilter(conditions);
+    }
+
+    /**
+     * Compiles the given conditions into a filter.
+     *
+     * @param conditions the conditions every matching message satisfies
+     * @return the compiled filter
+     */
+    public static EmailFilter of(Condition... conditions) {
+        return new EmailFilter(List.of(conditions));
+    }
+
+    /**
+     * Constructs a filter from the given conditions.
+     *
+     * @param conditions the conditions every matching message satisfies
+     */
+    public EmailFilter(List<Condition> conditions) {
+        this(conditions, automatonThreshold);
+    }
+
+    /**
+     * Constructs a filter from the given conditions, matching literal content conditions with an automaton
+     * once they look for the given number of values.
+     */
+    EmailFilter(List<Condition> conditions, int automatonThreshold) {
+        this.conditions = List.copyOf(conditions);
+        List<Condition> contentLiterals = new ArrayList<>();
+        for (Condition condition : this.conditions) {
+            if (condition.field() != EmailField.CONTENT) fieldConditions.add(condition);
+            else if (condition.kind() == Kind.REGEX) contentPatterns.add(condition);
+            else contentLiterals.add(condition);
+        }
+        fieldConditions.sort(Comparator.comparingInt(condition -> fieldCosts.indexOf(condition.field())));
+        int contentValues = contentLiterals.stream().mapToInt(condition -> condition.values().size()).sum();
+        if (contentValues >= automatonThreshold) contentMatcher = new ContentMatcher(contentLiterals);
+        else {
+            contentMatcher = null;
+            contentPatterns.addAll(0, contentLiterals);
+        }
+    }
+
+    public List<Condition> getConditions() {
+        return conditions;
+    }
+
+    /**
+     * Checks whether the given message satisfies every condition of this filter.
+     *
+     * @param emailMessage the message to check
+     * @return true if the message matches
+     */
+    @Override
+    public boolean test(EmailMessage emailMessage) {
+        if (!testFields(emailMessage)) return false;
+        return !hasContentConditions() || testContent(valueOf(emailMessage, EmailField.CONTENT));
+    }
+
+    /**
+     * Checks whether the given message satisfies every condition of this filter on fields other than the content,
+     * which never requires the message body to be downloaded.
+     *
+     * @param emailMessage the message to check
+     * @return true if the message matches the conditions on its other fields
+     */
+    public boolean testFields(EmailMessage emailMessage) {
+        for (Condition condition : fieldConditions)
+            if (!condition.test(valueOf(emailMessage, condition.field()))) return false;
+        return true;
+    }
+
+    /**
+     * Checks whether the given content, such as a preview of a message body, satisfies every content condition.
+     *
+     * @param content the content to check
+     * @return true if the content matches the content conditions
+     */
+    public boolean testContent(String content) {
+        if (content == null) content = "";
+        if (contentMatcher != null && !contentMatcher.test(content)) return false;
+        for (Condition condition : contentPatterns)
+            if (!condition.test(content)) return false;
+        return true;
+    }
+
+    /**
+     * Returns whether this filter has conditions on the message content.
+     *
+     * @return true if matching a message may require its body
+     */
+    public boolean hasContentConditions() {
+        return contentMatcher != null || !contentPatterns.isEmpty();
+    }
+
+    private static String valueOf(EmailMessage emailMessage, EmailField field) {
+        String value = switch (field) {
+            case SUBJECT -> emailMessage.getSubject();
+            case SENDER -> emailMessage.getFrom();
+            case CONTENT -> emailMessage.getMessageContent();
+            case DATE -> emailMessage.getSentDate();
+            case ATTACHMENTS -> emailMessage.getAttachments();
+            default -> throw new IllegalArgumentException("Messages cannot be filtered by " + field);
+        };
+        return value == null ? "" : value;
+    }
+
+    /**
+     * The ways a condition can match a field.
+     */
+    public enum Kind {
+        /**
+         * The field contains the value, or equals it ignoring case.
+         */
+        CONTAINS_OR_EQUALS,
+        /**
+         * The field contains any of the values.
+         */
+        CONTAINS,
+        /**
+         * The field contains any of the values, ignoring case.
+         */
+        CONTAINS_IGNORE_CASE,
+        /**
+         * The field contains a match of the regular expression.
+         */
+        REGEX
+    }
+
+    /**
+     * A condition on a single email field.
+     *
+     * @param field   the field the condition applies to
+     * @param kind    the way the condition matches the field
+     * @param values  the values looked for, any of which satisfies the condition
+     * @param pattern the compiled regular expression, for {@link Kind#REGEX} conditions
+     */
+    public record Condition(EmailField field, Kind kind, List<String> values, Pattern pattern) {
+
+        public Condition {
+            if (!fieldCosts.contains(field)) throw new IllegalArgumentException("Messages cannot be filtered by " + field);
+            values = values.stream().map(value -> value == null ? "" : value).toList();
+        }
+
+        /**
+         * Creates a condition satisfied by a field containing the value, or equal to it ignoring case.
+         */
+        public static Condition of(EmailField field, String value) {
+            return new Condition(field, Kind.CONTAINS_OR_EQUALS, Arrays.asList(value), null);
+        }
+
+        /**
+         * Creates a condition satisfied by a field containing any of the values.
+         */
+        public static Condition contains(EmailField field, String... values) {
+            return new Condition(field, Kind.CONTAINS, List.of(values), null);
+        }
+
+        /**
+         * Creates a condition satisfied by a field containing any of the values, ignoring case.
+         */
+        public static Condition containsIgnoreCase(EmailField field, String... values) {
+            return new Condition(field, Kind.CONTAINS_IGNORE_CASE, List.of(values), null);
+        }
+
+        /**
+         * Creates a condition satisfied by a field containing a match of the regular expression.
+         */
+        public static Condition matches(EmailField field, String regex) {
+            return new Condition(field, Kind.REGEX, List.of(regex), Pattern.compile(regex));
+        }
+
+        /**
+         * Checks whether the given field value satisfies this condition.
+         *
+         * @param value the field value
+         * @return true if the condition is satisfied
+         */
+        public boolean test(String value) {
+            return switch (kind) {
+                case CONTAINS_OR_EQUALS -> value.contains(values.get(0)) || value.equalsIgnoreCase(values.get(0));
+                case CONTAINS -> values.stream().anyMatch(value::contains);
+                case CONTAINS_IGNORE_CASE -> {
+                    String lowerCaseValue = value.toLowerCase(Locale.ROOT);
+                    yield values.stream().anyMatch(candidate -> lowerCaseValue.contains(candidate.toLowerCase(Locale.ROOT)));
+                }
+                case REGEX -> pattern.matcher(value).find();
+            };
+        }
+    }
+
+    /**
+     * Checks every literal content condition in one pass over the content per automaton: one for the
+     * case-sensitive values, and one folding the case of the content and the case-insensitive values.
+     */
+    private static final class ContentMatcher {
+
+        private final List<Condition> conditions;
+        private final BitSet presatisfied = new BitSet();
+        private final Automaton caseSensitive = new Automaton(false);
+        private final Automaton caseInsensitive = new Automaton(true);
+
+        ContentMatcher(List<Condition> conditions) {
+            this.conditions = conditions;
+            for (int index = 0; index < conditions.size(); index++) {
+                Condition condition = conditions.get(index);
+                for (String value : condition.values()) {
+                    if (value.isEmpty()) presatisfied.set(index);
+                    else if (condition.kind() == Kind.CONTAINS_IGNORE_CASE) caseInsensitive.add(value, index);
+                    else caseSensitive.add(value, index);
+                }
+            }
+            caseSensitive.build();
+            caseInsensitive.build();
+        }
+
+        boolean test(String content) {
+            BitSet satisfied = (BitSet) presatisfied.clone();
+            int count = conditions.size();
+            if (satisfied.cardinality() < count) caseSensitive.scan(content, satisfied, count);
+            if (satisfied.cardinality() < count) caseInsensitive.scan(content, satisfied, count);
+            for (int index = satisfied.nextClearBit(0); index < count; index = satisfied.nextClearBit(index + 1)) {
+                Condition condition = conditions.get(index);
+                if (condition.kind() != Kind.CONTAINS_OR_EQUALS || !content.equalsIgnoreCase(condition.values().get(0)))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * An Aho-Corasick automaton marking which conditions have a value occurring in a text.
+     * Once built, the automaton is a table driven DFA over the characters of its values,
+     * so scanning costs two array lookups per character of the text.
+     */
+    private static final class Automaton {
+
+        private final boolean ignoreCase;
+
+        private final List<Map<Character, Integer>> trie = new ArrayList<>(List.of(new HashMap<>()));
+        private final List<BitSet> trieOutputs = new ArrayList<>(List.of(new BitSet()));
+        private final int[] asciiClasses = new int[128];
+        private char[] alphabet = new char[0];
+        private int stride;
+        private int[] transitions = new int[0];
+        private BitSet[] outputs = new BitSet[0];
+
+        Automaton(boolean ignoreCase) {
+            this.ignoreCase = ignoreCase;
+        }
+
+        void add(String value, int condition) {
+            int state = 0;
+            for (char character : value.toCharArray()) {
+                if (ignoreCase) character = Character.toLowerCase(character);
+                Integer next = trie.get(state).get(character);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new HashMap<>());
+                    trieOutputs.add(new BitSet());
+                    trie.get(state).put(character, next);
+                }
+                state = next;
+            }
+            trieOutputs.get(state).set(condition);
+        }
+
+        /**
+         * Resolves the failure links of the trie into a full transition table. Character class 0 stands for
+         * every character that occurs in none of the values.
+         */
+        void build() {
+            SortedSet<Character> characters = new TreeSet<>();
+            trie.forEach(children -> characters.addAll(children.keySet()));
+            alphabet = new char[characters.size()];
+            int index = 0;
+            for (char character : characters) {
+                alphabet[index] = character;
+                if (character < 128) asciiClasses[character] = index + 1;
+                index++;
+            }
+            int states = trie.size();
+            stride = alphabet.length + 1;
+            transitions = new int[states * stride];
+            outputs = new BitSet[states];
+            int[] failures = new int[states];
+            Queue<Integer> queue = new ArrayDeque<>(List.of(0));
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                BitSet output = trieOutputs.get(state);
+                if (state != 0) output.or(trieOutputs.get(failures[state]));
+                outputs[state] = output.isEmpty() ? null : output;
+                for (int characterClass = 1; characterClass <= alphabet.length; characterClass++) {
+                    Integer child = trie.get(state).get(alphabet[characterClass - 1]);
+                    int fallback = state == 0 ? 0 : transitions[failures[state] * stride + characterClass];
+                    if (child == null) transitions[state * stride + characterClass] = fallback;
+                    else {
+                        transitions[state * stride + characterClass] = child;
+                        failures[child] = fallback;
+                        queue.add(child);
+                    }
+                }
+            }
+        }
+
+        void scan(String text, BitSet satisfied, int conditionCount) {
+            if (alphabet.length == 0) return;
+            int state = 0;
+            for (int index = 0; index < text.length(); index++) {
+                char character = ignoreCase ? Character.toLowerCase(text.charAt(index)) : text.charAt(index);
+                int characterClass = character < 128 ? asciiClasses[character] : Arrays.binarySearch(alphabet, character) + 1;
+                state = transitions[state * stride + Math.max(characterClass, 0)];
+                BitSet output = outputs[state];
+                if (output != null) {
+                    satisfied.or(output);
+                    if (satisfied.cardinality() == conditionCount) return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package utils.email;
+
+import collections.Pair;
+import jakarta.mail.search.*;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static utils.email.EmailUtilities.Inbox.EmailField;
+
+/**
+ * Translates email filter pairs into {@link SearchTerm}s, so that stores supporting server side search
+ * (such as IMAP) can select the matching messages without downloading the mailbox.
+ */
+public class EmailSearch {
+
+    /**
+     * Compiles the given filter pairs into a single search term.
+     * <p>
+     * SUBJECT, SENDER and CONTENT filters map to {@link SubjectTerm}, {@link FromStringTerm} and {@link BodyTerm},
+     * DATE filters given as ISO dates (e.g. "2025-06-20") map to a {@link SentDateTerm} matching that day.
+     * Filters that cannot be expressed as a search term are returned as residual filters,
+     * to be evaluated client side with {@link EmailUtilities.Inbox#emailMatch}.
+     * <p>
+     * Servers match SUBJECT, SENDER and CONTENT terms as substrings regardless of case, while the client side match
+     * is case-sensitive, so the messages found with these terms have to be checked again (see {@link #ignoresCase}).
+     *
+     * @param filterPairs a list of pairs consisting of email fields and corresponding filter strings
+     * @return a pair of the compiled search term (null if no filter could be compiled) and the residual filters
+     */
+    public static Pair<SearchTerm, List<Pair<EmailField, String>>> compile(List<Pair<EmailField, String>> filterPairs) {
+        List<SearchTerm> terms = new ArrayList<>();
+        List<Pair<EmailField, String>> residualFilters = new ArrayList<>();
+        for (Pair<EmailField, String> filterPair : filterPairs) {
+            if (filterPair.alpha() == null) continue;
+            SearchTerm term = getTerm(filterPair.alpha(), filterPair.beta());
+            if (term != null) terms.add(term);
+            else residualFilters.add(filterPair);
+        }
+        SearchTerm searchTerm = switch (terms.size()) {
+            case 0 -> null;
+            case 1 -> terms.get(0);
+            default -> new AndTerm(terms.toArray(new SearchTerm[0]));
+        };
+        return Pair.of(searchTerm, residualFilters);
+    }
+
+    /**
+     * Returns whether the search term of a filter on the given field matches regardless of case, so that its hits
+     * are a superset of the client side matches and have to be checked again.
+     *
+     * @param filterType the email field to filter by
+     * @return true if the search term of the field ignores case
+     */
+    public static boolean ignoresCase(EmailField filterType) {
+        return filterType == EmailField.SUBJECT || filterType == EmailField.SENDER || filterType == EmailField.CONTENT;
+    }
+
+    /**
+     * Returns the search term for a single filter, or null if the filter cannot be evaluated by the server.
+     *
+     * @param filterType  the email field to filter by
+     * @param filterValue the value to filter by
+     * @return the corresponding search term, or null
+     */
+    private static SearchTerm getTerm(EmailField filterType, String filterValue) {
+        if (filterValue == null) return null;
+        return switch (filterType) {
+            case SUBJECT -> new SubjectTerm(filterValue);
+            case SENDER -> new FromStringTerm(filterValue);
+            case CONTENT -> new BodyTerm(filterValue);
+            case DATE -> getSentDateTerm(filterValue);
+            default -> null;
+        };
+    }
+
+    /**
+     * Returns a term matching messages sent on the given ISO date, or null if the value is not an ISO date.
+     *
+     * @param filterValue the date filter value
+     * @return the sent date term, or null
+     */
+    private static SearchTerm getSentDateTerm(String filterValue) {
+        try {
+            LocalDate date = LocalDate.parse(filterValue.trim());
+            // A day range rather than EQ, which would compare exact timestamps when a store searches client side
+            return new AndTerm(
+                    new SentDateTerm(ComparisonTerm.GE, Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant())),
+                    new SentDateTerm(ComparisonTerm.LT, Date.from(date.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant()))
+            );
+        } catch (DateTimeParseException exception) {
+            return null;
+        }
+    }
+}
@@ -1,19 +1,27 @@
 package utils.email;
 
 import collections.Pair;
+import com.sun.mail.imap.IMAPFolder;
 import context.ContextStore;
 import jakarta.mail.*;
 import jakarta.mail.internet.*;
+import jakarta.mail.search.SearchTerm;
 import utils.DateUtilities;
 import utils.Printer;
 import utils.StringUtilities;
 import utils.email.mapping.EmailFlag;
 import utils.reflection.ReflectionUtilities;
 
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.File;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import static utils.StringUtilities.markup;
 import static utils.arrays.lambda.Collectors.toSingleton;
@@ -22,17 +30,32 @@ import static utils.arrays.lambda.Collectors.toSingleton;
 public class EmailUtilities {
 
     /**
-     * Creates a new instance of EmailUtilities with the specified host.
+     * Creates a new instance of EmailUtilities with the specified host, sending over SMTP on port 587.
      *
      * @param host the hostname of the SMTP server for sending emails
      */
     public EmailUtilities(String host) {
+        this(host, "587", "smtp");
+    }
+
+    /**
+     * Creates a new instance of EmailUtilities with the specified host, port and transport protocol.
+     *
+     * @param host     the hostname of the server for sending emails
+     * @param port     the port of the server for sending emails
+     * @param protocol the transport protocol to send with (e.g. "smtp", "smtps")
+     */
+    public EmailUtilities(String host, String port, String protocol) {
         setHost(host);
+        this.port = port;
+        this.protocol = protocol;
     }
 
     private static final Printer log = new Printer(EmailUtilities.class);
     private final boolean keepLogs = Boolean.parseBoolean(ContextStore.get("keep-email-logs", "true"));
     private String host;
+    private final String port;
+    private final String protocol;
 
     /**
      * Sends an email message with an optional attachment to the specified recipient.
@@ -59,6 +82,7 @@ public class EmailUtilities {
 
     /**
      * Sends an email message with an optional attachment to the specified recipient.
+     * The message is sent over a connection kept open for the sender account (see {@link MailSender}).
      *
      * @param subject    the subject of the email
      * @param content    the content of the email
@@ -69,53 +93,169 @@ public class EmailUtilities {
      * @return true if the email was sent successfully, false otherwise
      */
     public Boolean sendEmail(String subject, String content, String contentType, String receiver, String ID, String password, Multipart attachment) {
+        try {
+            MailSender sender = getSender(ID, password);
+            MimeMessage message = createEmail(sender, subject, content, contentType, receiver, ID, attachment);
+            if (keepLogs) log.info("Sending...");
+            sender.send(message);
+            if (keepLogs) log.success("Sent message successfully!");
+            return true;
+        } catch (MessagingException mex) {
+            log.error(mex.getMessage(), mex);
+        }
+        return false;
+    }
 
-        // Get system properties
-        Properties properties = new Properties();
-        properties.putAll(System.getProperties());
-
-        // Setup mail server
-        properties.put("mail.smtp.host", host);
-        properties.put("mail.smtp.port", "587");
-        properties.put("mail.smtp.auth", "true");
-        properties.put("mail.smtp.starttls.enable", "true");
+    /**
+     * Sends an email message with an optional attachment to the specified recipient on a background thread.
+     *
+     * @param subject     the subject of the email
+     * @param content     the content of the email
+     * @param contentType the content type of the email
+     * @param receiver    the email address of the recipient
+     * @param ID          the username for authenticating with the SMTP server
+     * @param password    the password for authenticating with the SMTP server
+     * @param attachment  the optional multipart attachment to include in the email
+     * @return a future completing with true if the email was sent successfully, false otherwise
+     */
+    public CompletableFuture<Boolean> sendEmailAsync(String subject, String content, String contentType, String receiver, String ID, String password, Multipart attachment) {
+        try {
+            MailSender sender = getSender(ID, password);
+            MimeMessage message = createEmail(sender, subject, content, contentType, receiver, ID, attachment);
+            return sender.sendAsync(message).handle((result, exception) -> {
+                if (exception == null) return true;
+                Throwable cause = exception instanceof CompletionException && exception.getCause() != null ?
+                        exception.getCause() :
+                        exception;
+                log.warning("Could not send email: " + cause.getLocalizedMessage());
+                return false;
+            });
+        } catch (MessagingException mex) {
+            log.error(mex.getMessage(), mex);
+            return CompletableFuture.completedFuture(false);
+        }
+    }
 
-        // Get the Session object.// and pass username and password
-        Session session = Session.getInstance(properties, new Authenticator() {
-            protected PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(ID, password);
+    /**
+     * Sends the same email to each of the given recipients, as one message per recipient,
+     * in one batch per connection kept open for the sender account (see {@link MailSender#sendInBatches(List)}).
+     *
+     * @param subject     the subject of the emails
+     * @param content     the content of the emails
+     * @param contentType the content type of the emails
+     * @param receivers   the email addresses of the recipients
+     * @param ID          the username for authenticating with the SMTP server
+     * @param password    the password for authenticating with the SMTP server
+     * @return the number of emails sent successfully
+     */
+    public int sendEmails(String subject, String content, String contentType, List<String> receivers, String ID, String password) {
+        MailSender sender = getSender(ID, password);
+        long startTime = System.nanoTime();
+        List<MimeMessage> messages = new ArrayList<>(receivers.size());
+        for (String receiver : receivers) {
+            try {
+                messages.add(createEmail(sender, subject, content, contentType, receiver, ID, null));
+            } catch (MessagingException mex) {
+                log.error(mex.getMessage(), mex);
             }
-        });
+        }
+        int sentCount = 0;
+        try {
+            sentCount = sender.sendInBatches(messages).join();
+        } catch (CompletionException exception) {
+            Throwable cause = exception.getCause() != null ? exception.getCause() : exception;
+            log.warning("Could not send emails: " + cause.getLocalizedMessage());
+        }
+        if (keepLogs) log.info(String.format(
+                "Sent %d of %d emails (%.0f emails/s)",
+                sentCount,
+                receivers.size(),
+                sentCount / Math.max((System.nanoTime() - startTime) / 1e9, 1e-3)
+        ));
+        return sentCount;
+    }
 
-        // Used to debug SMTP issues
-        session.setDebug(keepLogs);
+    /**
+     * Creates an email message with an optional attachment, ready to be sent from the given account.
+     *
+     * @param subject     the subject of the email
+     * @param content     the content of the email
+     * @param contentType the content type of the email
+     * @param receiver    the email address of the recipient
+     * @param ID          the username for authenticating with the SMTP server
+     * @param password    the password for authenticating with the SMTP server
+     * @param attachment  the optional multipart attachment to include in the email
+     * @return the created message
+     * @throws MessagingException if the message could not be created
+     */
+    public MimeMessage createEmail(String subject, String content, String contentType, String receiver, String ID, String password, Multipart attachment) throws MessagingException {
+        return createEmail(getSender(ID, password), subject, content, contentType, receiver, ID, attachment);
+    }
 
-        try {
-            // Create a default MimeMessage object.
-            MimeMessage message = new MimeMessage(session);
+    /**
+     * Creates an email message with an optional attachment, ready to be sent by the given sender.
+     *
+     * @param sender      the sender of the account the email is sent from
+     * @param subject     the subject of the email
+     * @param content     the content of the email
+     * @param contentType the content type of the email
+     * @param receiver    the email address of the recipient
+     * @param ID          the username of the sender account
+     * @param attachment  the optional multipart attachment to include in the email
+     * @return the created message
+     * @throws MessagingException if the message could not be created
+     */
+    private MimeMessage createEmail(MailSender sender, String subject, String content, String contentType, String receiver, String ID, Multipart attachment) throws MessagingException {
+        // Create a default MimeMessage object.
+        MimeMessage message = new MimeMessage(sender.getSession());
 
-            // Set From: header field of the header.
-            message.setFrom(new InternetAddress(ID));
+        // Set From: header field of the header.
+        message.setFrom(new InternetAddress(ID));
 
-            // Set To: header field of the header.
-            message.addRecipient(Message.RecipientType.TO, new InternetAddress(receiver));
+        // Set To: header field of the header.
+        message.addRecipient(Message.RecipientType.TO, new InternetAddress(receiver));
 
-            // Set Subject: header field
-            message.setSubject(subject);
+        // Set Subject: header field
+        message.setSubject(subject);
 
-            // Now set the actual message
-            message.setContent(content, contentType);
-            if (attachment != null)
-                message.setContent(attachment);
+        // Now set the actual message
+        message.setContent(content, contentType);
+        if (attachment != null)
+            message.setContent(attachment);
+        return message;
+    }
 
-            if (keepLogs) log.info("Sending...");
-            Transport.send(message);// Send message
-            if (keepLogs) log.success("Sent message successfully!");
-            return true;
-        } catch (MessagingException mex) {
-            log.error(mex.getMessage(), mex);
-        }
-        return false;
+    /**
+     * Returns the sender keeping connections open for the given account.
+     * The session properties are only built when the sender of the account is created.
+     *
+     * @param ID       the username for authenticating with the SMTP server
+     * @param password the password for authenticating with the SMTP server
+     * @return the sender of the account
+     */
+    public MailSender getSender(String ID, String password) {
+        return MailSender.of(new MailboxPool.Key(protocol, host, port, ID), this::getSessionProperties, password);
+    }
+
+    /**
+     * Returns the session properties of the mail server, on top of the system properties.
+     *
+     * @return the session properties
+     */
+    private Properties getSessionProperties() {
+        // Get system properties, so that "-Dmail.smtp.*" settings apply to the session
+        Properties properties = new Properties();
+        properties.putAll(System.getProperties());
+
+        // Setup mail server
+        properties.put("mail." + protocol + ".host", host);
+        properties.put("mail." + protocol + ".port", port);
+        properties.put("mail." + protocol + ".auth", "true");
+        properties.put("mail." + protocol + ".starttls.enable", "true");
+
+        // Used to debug SMTP issues
+        properties.put("mail.debug", String.valueOf(keepLogs));
+        return properties;
     }
 
     /**
@@ -134,17 +274,147 @@ public class EmailUtilities {
         private final String userName;
         private final String password;
         private final String secureCon;
+        private final String protocol;
+
+        /**
+         * Whether {@link #load(Inbox, int, int, boolean, boolean, boolean, List)} should wait for new messages
+         * over an IDLE connection instead of polling the mailbox.
+         */
+        private boolean idle;
+
+        /**
+         * The listener holding this inbox's IDLE connection, started on first use.
+         */
+
+        /**
+         * Whether {@link #load(Inbox, int, int, boolean, boolean, boolean, List)} should wait through the poller
+         * shared per account and folder, rather than by every caller polling the mailbox on its own.
+         */
+        private final boolean sharedPolling = Boolean.parseBoolean(ContextStore.get("email-shared-poller", "false"));
+
+        /**
+         * Whether loads should resolve the matching messages concurrently (see {@link MessageResolver}).
+         */
+        private boolean parallelResolution = Boolean.parseBoolean(ContextStore.get("email-parallel-resolution", "false"));
+
+        /**
+         * The number of messages flagged per command by bulk operations such as {@link #clearInbox()}.
+         */
+        private final int flagBatchSize = Integer.parseInt(ContextStore.get("email-flag-batch-size", "500"));
+
+        /**
+         * The number of body bytes CONTENT filters are matched against when they are evaluated client side,
+         * or 0 to match them against the full body (see {@link MessagePreview}).
+         */
+        private int contentPreviewBytes = Integer.parseInt(ContextStore.get("email-content-preview-bytes", "0"));
+
+        /**
+         * The store the attachments of resolved messages are saved to.
+         */
+        private AttachmentStore attachmentStore = new AttachmentStore();
+
+        /**
+         * Whether attachments should be saved on a background thread, instead of before a message is published.
+         */
+        private boolean asyncAttachments = Boolean.parseBoolean(ContextStore.get("email-attachment-async", "false"));
+
+        /**
+         * The directory the bodies of resolved messages are saved to.
+         */
+        private InboxDirectory inboxDirectory = InboxDirectory.getDefault();
+
+        /**
+         * The folder this inbox reads, "email-folder" (INBOX by default).
+         */
+        private String folderName = ContextStore.get("email-folder", "INBOX");
+
+        /**
+         * The watcher service this inbox's folder is watched by, or null if it is watched by its own poller.
+         */
+        private MailboxWatcher watcher;
+
+        /**
+         * Sync watermarks per folder and filter list, so that repeated loads only resolve newly arrived messages.
+         */
+        private final Map<Pair<String, List<Pair<EmailField, String>>>, MailboxWatermark> watermarks = new ConcurrentHashMap<>();
+
+        /**
+         * Pool of authenticated mail connections shared by every inbox, keyed by account.
+         */
+        static final MailboxPool pool = new MailboxPool();
+
+        /**
+         * The message items fetched in bulk before messages are filtered: the envelope and the content type.
+         */
+        static final FetchProfile envelopeProfile = new FetchProfile();
+
+        static {
+            envelopeProfile.add(FetchProfile.Item.ENVELOPE);
+            envelopeProfile.add(FetchProfile.Item.CONTENT_INFO);
+        }
 
         /**
-         * List of email messages represented as a list of maps where each map contains email fields as keys
-         * and their corresponding values as values.
+         * The messages resolved by this inbox, safe to read while acquisitions are running on other threads.
          */
-        public static List<EmailMessage> messages = new ArrayList<>();
+        private final MessageStore messages = new MessageStore();
 
+        /**
+         * The messages this inbox has already resolved, so that messages seen again are skipped.
+         */
+        private MessageDeduplicator deduplicator = new MessageDeduplicator();
+
+        /**
+         * Returns a snapshot of the messages resolved by this inbox, oldest first.
+         *
+         * @return the resolved messages
+         */
         public List<EmailMessage> getMessages() {
+            return messages.snapshot();
+        }
+
+        public MessageStore getMessageStore() {
             return messages;
         }
 
+        public int getContentPreviewBytes() {
+            return contentPreviewBytes;
+        }
+
+        /**
+         * Sets the number of body bytes CONTENT filters are matched against when the store cannot evaluate them.
+         * Only the bodies of the messages matching their preview are then downloaded in full, at the cost of
+         * missing values that first appear past the previewed bytes of a longer body.
+         *
+         * @param contentPreviewBytes the preview size in bytes, or 0 to match CONTENT filters against the full body
+         */
+        public void setContentPreviewBytes(int contentPreviewBytes) {
+            this.contentPreviewBytes = contentPreviewBytes;
+        }
+
+        public MessageDeduplicator getDeduplicator() {
+            return deduplicator;
+        }
+
+        /**
+         * Sets the deduplicator of this inbox. Inboxes of different accounts sharing a deduplicator
+         * resolve a message delivered to several of them only once.
+         *
+         * @param deduplicator the deduplicator to record resolved messages in
+         */
+        public void setDeduplicator(MessageDeduplicator deduplicator) {
+            this.deduplicator = deduplicator;
+        }
+
+        /**
+         * Checks whether an email message was already resolved by this inbox, or by an inbox sharing its deduplicator.
+         *
+         * @param emailMessage the email message to check
+         * @return true if the message is a duplicate
+         */
+        boolean isDuplicate(EmailMessage emailMessage) {
+            return deduplicator.contains(emailMessage);
+        }
+
         /**
          * Enumeration of email fields used as keys in the map representation of email messages.
          */
@@ -152,6 +422,12 @@ public class EmailUtilities {
 
         /**
          * This class represents an email message.
+         * <p>
+         * The envelope fields (sender, subject and sent date) are read when the message is constructed,
+         * while the content is only downloaded and decoded the first time it is requested.
+         * Filtering by envelope fields therefore never transfers message bodies.
+         * The content and size are kept once read, and resolving a message reads both while the folder
+         * it comes from is still open, since a resolved message outlives the lease of its connection.
          */
         public static class EmailMessage {
             String from;
@@ -172,10 +448,27 @@ public class EmailUtilities {
                 this.subject = subject;
             }
 
-            public String getMessageContent() {
+            public synchronized String getMessageContent() {
+                if (messageContent == null && source != null) messageContent = getContent(source);
                 return messageContent;
             }
 
+            /**
+             * Returns the size of the message in bytes, as reported by the server.
+             *
+             * @return the size of the message, or -1 if it is unknown
+             */
+            synchronized int getSize() {
+                if (size != null) return size;
+                if (source == null) return -1;
+                try {
+                    size = source.getSize();
+                    return size;
+                } catch (MessagingException exception) {
+                    return -1;
+                }
+            }
+
             public void setMessageContent(String messageContent) {
                 this.messageContent = messageContent;
             }
@@ -188,6 +481,24 @@ public class EmailUtilities {
                 this.attachments = attachments;
             }
 
+            /**
+             * Returns the descriptors of the attachments saved for this message,
+             * waiting for them to be written if they are being saved asynchronously.
+             *
+             * @return the attachment descriptors
+             */
+            public List<AttachmentDescriptor> getAttachmentDescriptors() {
+                return attachmentDescriptors.join();
+            }
+
+            public CompletableFuture<List<AttachmentDescriptor>> getAttachmentDescriptorsAsync() {
+                return attachmentDescriptors;
+            }
+
+            public void setAttachmentDescriptors(CompletableFuture<List<AttachmentDescriptor>> attachmentDescriptors) {
+                this.attachmentDescriptors = attachmentDescriptors;
+            }
+
             public String getFileName() {
                 return fileName;
             }
@@ -196,6 +507,15 @@ public class EmailUtilities {
                 return from;
             }
 
+            /**
+             * Returns the Message-ID header of this email, identifying it across polls and accounts.
+             *
+             * @return the Message-ID, or null if the message has none
+             */
+            public String getMessageId() {
+                return messageId;
+            }
+
             public void setFrom(String from) {
                 this.from = from;
             }
@@ -205,23 +525,43 @@ public class EmailUtilities {
             String messageContent;
             String attachments;
             String fileName;
+            String messageId;
+            private Integer size;
+            volatile CompletableFuture<List<AttachmentDescriptor>> attachmentDescriptors = CompletableFuture.completedFuture(List.of());
+
+            /**
+             * The message this email was read from, used to decode its content on demand.
+             */
+            private final Message source;
 
             /**
-             * Constructs an EmailMessage object from a javax.mail.Message.
+             * Constructs an EmailMessage object from a javax.mail.Message, reading its envelope fields only.
              *
              * @param message The javax.mail.Message object to construct from.
              */
             public EmailMessage(Message message) {
                 try {
+                    this.source = message;
                     this.from = message.getFrom()[0].toString();
                     this.subject = message.getSubject();
-                    this.messageContent = getContent(message);
                     this.sentDate = String.valueOf(message.getSentDate());
+                    this.messageId = message instanceof MimeMessage mimeMessage ?
+                            mimeMessage.getMessageID() :
+                            Optional.ofNullable(message.getHeader("Message-ID")).map(ids -> ids[0]).orElse(null);
                 } catch (MessagingException e) {
                     throw new RuntimeException(e);
                 }
             }
 
+            /**
+             * Returns the message this email was read from.
+             *
+             * @return the source message
+             */
+            Message getSource() {
+                return source;
+            }
+
             /**
              * Creates an EmailMessage object from a javax.mail.Message.
              *
@@ -238,15 +578,13 @@ public class EmailUtilities {
         }
 
         /**
-         * Retrieves an email message based on the provided filter pairs.
+         * Retrieves an email message based on the provided filter pairs, looking it up in the index of the resolved messages.
          *
          * @param filterPairs a list of pairs consisting of email fields and corresponding filter strings
          * @return the email message matching the filter criteria
          */
         public EmailMessage getMessageBy(List<Pair<EmailField, String>> filterPairs) {
-            return messages.stream()
-                    .filter(message -> emailMatch(message, filterPairs))
-                    .collect(toSingleton());
+            return messages.find(filterPairs).stream().collect(toSingleton());
         }
 
         /**
@@ -261,7 +599,17 @@ public class EmailUtilities {
         }
 
         /**
-         * Constructs a new Inbox object with the specified configuration settings.
+         * Retrieves an email message matching the provided compiled filter among the resolved messages.
+         *
+         * @param filter the filter to match the messages against
+         * @return the email message matching the filter
+         */
+        public EmailMessage getMessageBy(EmailFilter filter) {
+            return messages.find(filter).stream().collect(toSingleton());
+        }
+
+        /**
+         * Constructs a new Inbox object with the specified configuration settings, connecting over POP3.
          *
          * @param host      the hostname of the email server
          * @param port      the port number of the email server
@@ -274,13 +622,120 @@ public class EmailUtilities {
                      String userName,
                      String password,
                      String secureCon
+        ) {
+            this(host, port, userName, password, secureCon, "pop3");
+        }
+
+        /**
+         * Constructs a new Inbox object with the specified configuration settings and store protocol.
+         * IMAP inboxes wait for new messages over an IDLE connection by default,
+         * which can be turned off with the "email-imap-idle" property or {@link #setIdle(boolean)}.
+         *
+         * @param host      the hostname of the email server
+         * @param port      the port number of the email server
+         * @param userName  the username for authenticating with the email server
+         * @param password  the password for authenticating with the email server
+         * @param secureCon the type of secure connection to use (e.g. "ssl", "tls", "starttls")
+         * @param protocol  the store protocol to connect with (e.g. "pop3", "imap")
+         */
+        public Inbox(String host,
+                     String port,
+                     String userName,
+                     String password,
+                     String secureCon,
+                     String protocol
         ) {
             this.host = host;
             this.port = port;
             this.userName = userName;
             this.password = password;
             this.secureCon = secureCon;
-            messages = new ArrayList<>();
+            this.protocol = protocol;
+            this.idle = protocol.startsWith("imap") && Boolean.parseBoolean(ContextStore.get("email-imap-idle", "true"));
+        }
+
+        public String getProtocol() {
+            return protocol;
+        }
+
+        public String getFolderName() {
+            return folderName;
+        }
+
+        /**
+         * Sets the folder this inbox reads, such as a spam or label folder. Loads and waits started afterwards
+         * read the new folder, which has its own sync watermarks.
+         *
+         * @param folderName the full name of the folder
+         */
+        public void setFolderName(String folderName) {
+            this.folderName = folderName;
+        }
+
+        public MailboxWatcher getWatcher() {
+            return watcher;
+        }
+
+        /**
+         * Sets the watcher service that watches this inbox's folder for new messages, instead of a poller of its own.
+         * Prefer {@link MailboxWatcher#watch(Inbox)}, which sets it.
+         *
+         * @param watcher the watcher, or null to go back to polling on its own
+         */
+        public void setWatcher(MailboxWatcher watcher) {
+            this.watcher = watcher;
+        }
+
+        public boolean isIdle() {
+            return idle;
+        }
+
+        /**
+         * Sets whether this inbox should wait for new messages over an IDLE connection instead of polling.
+         * The store has to announce new messages through {@link jakarta.mail.event.MessageCountEvent}s for this to work.
+         *
+         * @param idle true to wait over an IDLE connection, false to poll
+         */
+        public void setIdle(boolean idle) {
+            this.idle = idle;
+        }
+
+        public InboxDirectory getInboxDirectory() {
+            return inboxDirectory;
+        }
+
+        public void setInboxDirectory(InboxDirectory inboxDirectory) {
+            this.inboxDirectory = inboxDirectory;
+        }
+
+        public AttachmentStore getAttachmentStore() {
+            return attachmentStore;
+        }
+
+        public void setAttachmentStore(AttachmentStore attachmentStore) {
+            this.attachmentStore = attachmentStore;
+        }
+
+        public boolean isAsyncAttachments() {
+            return asyncAttachments;
+        }
+
+        public void setAsyncAttachments(boolean asyncAttachments) {
+            this.asyncAttachments = asyncAttachments;
+        }
+
+        public boolean isParallelResolution() {
+            return parallelResolution;
+        }
+
+        /**
+         * Sets whether loads should download, decode and save the matching messages concurrently,
+         * each worker on its own connection, instead of one after another.
+         *
+         * @param parallelResolution true to resolve messages concurrently
+         */
+        public void setParallelResolution(boolean parallelResolution) {
+            this.parallelResolution = parallelResolution;
         }
 
         public static EmailMessage getEmail(
@@ -305,22 +760,48 @@ public class EmailUtilities {
         }
 
         /**
-         * Saves an email message body to a file with the given filename in the 'inbox' directory.
+         * Saves an email message body to a file with the given filename in the inbox directory.
          *
          * @param filename       the name of the file to be created and saved as.
          * @param messageContent the content of the email message body to be saved.
+         * @return the path of the saved file, which is suffixed if another saved message already took the filename.
          * @throws RuntimeException if there is an IOException during the file write operation.
          */
-        public void saveMessage(String filename, String messageContent) {
+        public Path saveMessage(String filename, String messageContent) {
             log.info("Saving email body...");
-            try (FileWriter file = new FileWriter("inbox/" + filename)) {
-                file.write(String.valueOf(messageContent));
-                log.info("Saved as \"" + filename);
+            try {
+                Path path = inboxDirectory.save(filename, messageContent);
+                log.info("Saved as \"" + path.getFileName() + "\"");
+                return path;
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
 
+        /**
+         * Saves the body of an email message in the inbox directory, under the message's file name.
+         * The file name of the message is updated if it had to be suffixed to keep it unique.
+         *
+         * @param emailMessage the email message to save.
+         * @return the path of the saved file.
+         * @throws RuntimeException if there is an IOException during the file write operation.
+         */
+        public Path saveMessage(EmailMessage emailMessage) {
+            Path path = saveMessage(emailMessage.getFileName(), emailMessage.getMessageContent());
+            emailMessage.fileName = String.valueOf(path.getFileName());
+            return path;
+        }
+
+        /**
+         * Returns the file the body of an email message was saved to.
+         *
+         * @param emailMessage the email message.
+         * @return the path of the saved file, or null if the message was not saved or its file was rotated out.
+         */
+        public Path getSavedPath(EmailMessage emailMessage) {
+            return inboxDirectory.pathOf(emailMessage.getFileName());
+        }
+
         /**
          * Loads emails from the specified inbox with the given settings and filters, waiting until the expected message count is reached or the timeout is reached.
          *
@@ -337,6 +818,8 @@ public class EmailUtilities {
 
         /**
          * Loads emails from the specified inbox with the given settings and filters, waiting until the expected message count is reached or the timeout is reached.
+         * The inbox reloads the mailbox itself until then, unless it waits over IDLE, through a {@link MailboxWatcher},
+         * or through the poller shared per account once "email-shared-poller" is enabled (see {@link #awaitMessages}).
          *
          * @param inbox                the inbox from which to load emails
          * @param timeout              the maximum time to wait for the expected message count to be reached, in seconds
@@ -347,13 +830,119 @@ public class EmailUtilities {
          * @param filterPairs          a list of pairs consisting of email fields and corresponding filter strings
          */
         public static void load(Inbox inbox, int timeout, int expectedMessageCount, boolean print, boolean save, boolean saveAttachments, List<Pair<EmailField, String>> filterPairs) {
-            ReflectionUtilities.iterativeConditionalInvocation(
-                    timeout,
-                    () -> {
-                        inbox.load(print, save, saveAttachments, filterPairs);
-                        return messages.size() >= expectedMessageCount;
-                    }
-            );
+            if (!inbox.isIdle() && !inbox.sharedPolling && inbox.watcher == null) {
+                ReflectionUtilities.iterativeConditionalInvocation(
+                        timeout,
+                        () -> {
+                            inbox.load(print, save, saveAttachments, filterPairs);
+                            return inbox.messages.find(filterPairs).size() >= expectedMessageCount;
+                        }
+                );
+                return;
+            }
+            try {
+                inbox.awaitMessages(timeout, expectedMessageCount, print, save, saveAttachments, filterPairs).get();
+            } catch (ExecutionException exception) {
+                if (!(exception.getCause() instanceof TimeoutException)) throw new RuntimeException(exception.getCause());
+                inbox.log.warning("Timed out waiting for " + expectedMessageCount + " message(s) after " + timeout + " seconds!");
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Waits for the expected number of messages matching the given filters to arrive.
+         * <p>
+         * The waiter is registered with the IDLE listener or the poller shared by every inbox of the same account
+         * and folder, before the mailbox is scanned once for the messages that are already there, so that
+         * no arrival in between is missed. After that, only newly arrived messages are resolved,
+         * and no matter how many callers wait on the same account, the server is watched only once.
+         * Matching messages this inbox had already resolved before the wait started do not count towards it.
+         *
+         * @param timeout              the maximum time to wait for the expected message count to be reached, in seconds
+         * @param expectedMessageCount the expected number of messages to be loaded
+         * @param print                boolean flag indicating whether to print the emails
+         * @param save                 boolean flag indicating whether to save the emails
+         * @param saveAttachments      boolean flag indicating whether to save email attachments
+         * @param filterPairs          a list of pairs consisting of email fields and corresponding filter strings
+         * @return a future completing with the matching messages resolved since the wait started, found by the scan
+         * or newly arrived, once the expected count is reached, or exceptionally with a {@link TimeoutException} once the timeout elapses
+         */
+        public CompletableFuture<List<EmailMessage>> awaitMessages(
+                int timeout,
+                int expectedMessageCount,
+                boolean print,
+                boolean save,
+                boolean saveAttachments,
+                List<Pair<EmailField, String>> filterPairs) {
+            MessageWaiter waiter = new MessageWaiter(this, timeout, expectedMessageCount, print, save, saveAttachments, filterPairs);
+            // Messages an earlier acquisition already counted are not counted again
+            Set<EmailMessage> earlier = Collections.newSetFromMap(new IdentityHashMap<>());
+            earlier.addAll(messages.find(filterPairs));
+            getDispatcher().register(waiter);
+            load(print, save, saveAttachments, filterPairs);
+            waiter.credit(messages.find(filterPairs).stream().filter(emailMessage -> !earlier.contains(emailMessage)).toList());
+            return waiter.getFuture();
+        }
+
+        /**
+         * Subscribes to the messages matching the given filters that arrive in this inbox's folder from now on.
+         * Every matching message is resolved into this inbox and handed to the consumer, on the thread that
+         * watches the folder, until the subscription is cancelled.
+         *
+         * @param save            boolean flag indicating whether to save the emails
+         * @param saveAttachments boolean flag indicating whether to save email attachments
+         * @param filterPairs     a list of pairs consisting of email fields and corresponding filter strings
+         * @param consumer        the consumer of the newly arrived messages
+         * @return the subscription, cancelled with {@link MessageSubscription#cancel()}
+         */
+        public MessageSubscription subscribe(
+                boolean save,
+                boolean saveAttachments,
+                List<Pair<EmailField, String>> filterPairs,
+                Consumer<EmailMessage> consumer) {
+            MessageSubscription subscription = new MessageSubscription(this, save, saveAttachments, filterPairs, consumer);
+            getDispatcher().register(subscription);
+            return subscription;
+        }
+
+        /**
+         * Returns the dispatcher that watches this inbox's folder for new messages: the folder of its watcher service
+         * if it has one, the IDLE listener shared by every inbox of the same account and folder if IDLE is enabled
+         * and can be established, and the poller shared by those inboxes otherwise.
+         *
+         * @return the message dispatcher of this inbox
+         */
+        MessageDispatcher getDispatcher() {
+            if (watcher != null) return watcher.watch(this);
+            if (idle) {
+                try {
+                    return getIdleListener();
+                } catch (MessagingException exception) {
+                    log.warning("Could not establish an IDLE connection, falling back to polling: " + exception.getLocalizedMessage());
+                }
+            }
+            return MailboxPoller.of(getPoolKey(), folderName, getConnectionProperties(), password);
+        }
+
+        /**
+         * Returns the IDLE listener shared by every inbox of the same account and folder, starting it if it is not
+         * already running. The listener stops by itself once its last waiter completes.
+         *
+         * @return the running IDLE listener
+         * @throws MessagingException if the IDLE connection could not be established
+         */
+        IdleListener getIdleListener() throws MessagingException {
+            return IdleListener.of(getPoolKey(), folderName, getConnectionProperties(), password);
+        }
+
+        /**
+         * Cancels the waits and subscriptions this inbox has pending over IDLE. The IDLE listener of the folder
+         * stops, and returns its connection to the pool, once no other inbox is waiting on it.
+         */
+        public void stopIdling() {
+            IdleListener idleListener = IdleListener.get(getPoolKey(), folderName);
+            if (idleListener != null) idleListener.cancel(this);
         }
 
         /**
@@ -378,53 +967,210 @@ public class EmailUtilities {
          * @param filterPairs     a list of pairs consisting of email fields and corresponding filter strings
          */
         public void load(boolean print, boolean save, boolean saveAttachments, List<Pair<EmailField, String>> filterPairs) {
-            Properties properties = getConnectionProperties();
-            Session session = Session.getInstance(properties);
-
+            MailboxPool.Connection connection = null;
+            boolean completed = false;
             try {
-                log.info("Connecting please wait....");
-                Store store = session.getStore("pop3");
-                store.connect(userName, password);
-                Folder folderInbox = store.getFolder("INBOX"); // TODO: Dynamically acquire folder
-                folderInbox.open(Folder.READ_ONLY);
-                log.info("Connected to mail via " + host);
-                // opens the inbox folder
+                connection = openFolder(Folder.READ_ONLY);
+                Folder folderInbox = connection.getFolder();
                 log.info("Getting inbox..");
 
-                // fetches new messages from server
-                List<Message> messages = new ArrayList<>(List.of(folderInbox.getMessages()));
+                // fetches the messages that arrived since the last load with these filters, the watermark only moves
+                // past them once they are resolved, so that a failed load is retried by the next one
+                MailboxWatermark watermark = getWatermark(folderInbox, filterPairs);
+                MailboxWatermark.Pending pending = watermark.peek(folderInbox);
+                List<EmailMessage> messages = getMatchingMessages(folderInbox, pending.messages(), filterPairs);
+                // Messages already resolved by an earlier load, filter list or account are only resolved again
+                // to be saved or printed as requested, and are not counted twice
+                if (!print && !save && !saveAttachments) messages.removeIf(this::isDuplicate);
 
                 // Reverse the order of the list
                 Collections.reverse(messages);
 
-                for (Message message : messages) {
-                    if (emailMatch(EmailMessage.from(message), filterPairs))
-                        resolveMessage(message, messages.indexOf(message), print, save, saveAttachments);
+                if (parallelResolution && messages.size() > 1) {
+                    List<EmailMessage> resolved = new MessageResolver(this).resolve(folderInbox, messages, save, saveAttachments);
+                    for (int index = 0; index < resolved.size(); index++)
+                        publishMessage(resolved.get(index), index, print);
+                } else {
+                    for (int index = 0; index < messages.size(); index++)
+                        resolveMessage(messages.get(index), index, print, save, saveAttachments);
+                    awaitAttachments(messages); // The writers read the attachments from this connection
                 }
-                log.info("You have " + Inbox.messages.size() + " new mails in your inbox");
-                // disconnect
-                folderInbox.close(false);
-                store.close();
+                watermark.commit(pending);
+                log.info("You have " + this.messages.size() + " new mails in your inbox");
+                completed = true;
             } catch (MessagingException exception) {
                 log.error(exception.getLocalizedMessage(), exception);
+            } finally {
+                closeLease(connection, completed);
             }
         }
 
+        /**
+         * Ends the lease of a pooled connection, returning it to the pool if the work it was leased for completed,
+         * and closing it otherwise, whichever exception interrupted the work.
+         *
+         * @param connection the leased connection, or null if it could not be leased
+         * @param completed  true if the work completed
+         */
+        private static void closeLease(MailboxPool.Connection connection, boolean completed) {
+            if (connection == null) return;
+            if (completed) connection.release();
+            else connection.invalidate();
+        }
+
+        /**
+         * Returns the sync watermark of the given folder for the given filters.
+         *
+         * @param folder      the folder being synchronized
+         * @param filterPairs the filters the folder is loaded with
+         * @return the watermark, created on first use
+         */
+        MailboxWatermark getWatermark(Folder folder, List<Pair<EmailField, String>> filterPairs) {
+            return watermarks.computeIfAbsent(
+                    Pair.of(folder.getFullName(), List.copyOf(filterPairs)),
+                    key -> new MailboxWatermark()
+            );
+        }
+
+        /**
+         * Forgets every sync watermark, so that the next load walks the whole mailbox again.
+         */
+        public void resetWatermarks() {
+            watermarks.clear();
+        }
+
+        /**
+         * Returns the messages of the given folder that match all filters, in mailbox order.
+         *
+         * @param folder      the open folder to search
+         * @param filterPairs a list of pairs consisting of email fields and corresponding filter strings
+         * @return the matching messages
+         * @throws MessagingException if the messages could not be retrieved
+         */
+        List<EmailMessage> getMatchingMessages(Folder folder, List<Pair<EmailField, String>> filterPairs) throws MessagingException {
+            return getMatchingMessages(folder, null, filterPairs);
+        }
+
+        /**
+         * Returns the candidate messages that match all filters, in mailbox order.
+         * <p>
+         * Stores other than POP3 evaluate the filters they can express as {@link jakarta.mail.search.SearchTerm}s
+         * on the server (see {@link EmailSearch#compile(List)}), so only the matching messages are transferred.
+         * Server side text search ignores case, so the server hits are only a prefilter: SUBJECT, SENDER and CONTENT
+         * filters are checked again on the candidates, keeping the results the same as on POP3.
+         * POP3 has no search capability, so its messages are matched client side with an {@link EmailFilter}.
+         * The envelopes of the candidates are fetched in bulk, and their content is only downloaded if a residual
+         * CONTENT filter requires it. With a content preview size set, CONTENT filters that the server cannot evaluate
+         * are matched against a preview of each body instead (see {@link MessagePreview}), so only the matching
+         * messages are downloaded in full.
+         *
+         * @param folder      the open folder to search
+         * @param candidates  the messages to search among, or null to search the whole folder
+         * @param filterPairs a list of pairs consisting of email fields and corresponding filter strings
+         * @return the matching messages
+         * @throws MessagingException if the messages could not be retrieved
+         */
+        List<EmailMessage> getMatchingMessages(Folder folder, Message[] candidates, List<Pair<EmailField, String>> filterPairs) throws MessagingException {
+            List<Pair<EmailField, String>> residualFilters = filterPairs;
+            if (candidates != null && candidates.length == 0) return new ArrayList<>();
+            // Stores other than IMAP search by downloading every body, so previewed CONTENT filters are kept client side
+            boolean previewContent = contentPreviewBytes > 0 && !(folder instanceof IMAPFolder);
+            if (protocol.startsWith("pop3")) {
+                if (candidates == null) candidates = folder.getMessages();
+            } else {
+                List<Pair<EmailField, String>> searchFilters = filterPairs.stream()
+                        .filter(filterPair -> !previewContent || filterPair.alpha() != EmailField.CONTENT)
+                        .toList();
+                Pair<SearchTerm, List<Pair<EmailField, String>>> query = EmailSearch.compile(searchFilters);
+                if (query.alpha() != null)
+                    candidates = candidates == null ? folder.search(query.alpha()) : folder.search(query.alpha(), candidates);
+                else if (candidates == null) candidates = folder.getMessages();
+                residualFilters = new ArrayList<>(query.beta());
+                // The server matches text filters regardless of case, so its hits are re-checked like POP3 messages are
+                searchFilters.stream().filter(filterPair -> EmailSearch.ignoresCase(filterPair.alpha())).forEach(residualFilters::add);
+                if (previewContent)
+                    filterPairs.stream().filter(filterPair -> filterPair.alpha() == EmailField.CONTENT).forEach(residualFilters::add);
+            }
+            folder.fetch(candidates, envelopeProfile);
+            EmailFilter residualFilter = EmailFilter.compile(residualFilters);
+            boolean preview = previewContent && residualFilter.hasContentConditions();
+            List<EmailMessage> messages = new ArrayList<>(candidates.length);
+            for (Message message : candidates) {
+                EmailMessage emailMessage = EmailMessage.from(message);
+                if (residualFilters.isEmpty() || (preview ? previewMatch(residualFilter, emailMessage) : residualFilter.test(emailMessage)))
+                    messages.add(emailMessage);
+            }
+            return messages;
+        }
+
+        /**
+         * Checks whether an email message matches a filter, using a preview of the body to reject messages early.
+         * A preview satisfying the content conditions does not prove the full body does, since a cut body may equal
+         * a value the full body does not, so the messages passing the preview are matched again against their full body.
+         *
+         * @param filter       the filter to match the message against
+         * @param emailMessage the email message to match
+         * @return true if the message matches the filter
+         */
+        private boolean previewMatch(EmailFilter filter, EmailMessage emailMessage) {
+            if (!filter.testFields(emailMessage)) return false;
+            String preview = MessagePreview.of(emailMessage.getSource(), contentPreviewBytes);
+            if (preview != null && !filter.testContent(preview)) return false;
+            return filter.testContent(emailMessage.getMessageContent());
+        }
+
+        /**
+         * Leases a pooled connection with the inbox folder opened in the given mode.
+         * The connection has to be released (or invalidated, if it failed) once the caller is done with it.
+         *
+         * @param mode the folder open mode, {@link Folder#READ_ONLY} or {@link Folder#READ_WRITE}
+         * @return a pooled connection to the inbox folder
+         * @throws MessagingException if the connection could not be established
+         */
+        MailboxPool.Connection openFolder(int mode) throws MessagingException {
+            return openFolder(folderName, mode);
+        }
+
+        /**
+         * Leases a pooled connection to this inbox's account with the given folder opened in the given mode.
+         *
+         * @param folderName the full name of the folder to open
+         * @param mode       the folder open mode, {@link Folder#READ_ONLY} or {@link Folder#READ_WRITE}
+         * @return a pooled connection to the folder
+         * @throws MessagingException if the connection could not be established
+         */
+        MailboxPool.Connection openFolder(String folderName, int mode) throws MessagingException {
+            return pool.lease(getPoolKey(), getConnectionProperties(), password, folderName, mode);
+        }
+
+        /**
+         * Returns the key this inbox's connections are pooled under.
+         *
+         * @return the pool key of this inbox
+         */
+        MailboxPool.Key getPoolKey() {
+            return new MailboxPool.Key(protocol, host, port, userName);
+        }
+
+        String getPassword() {
+            return password;
+        }
+
         Properties getConnectionProperties() {
             Properties properties = new Properties();
 
             //---------- Server Setting---------------
-            properties.put("mail.pop3.host", host);
-            properties.put("mail.pop3.port", port);
+            properties.put("mail." + protocol + ".host", host);
+            properties.put("mail." + protocol + ".port", port);
             if (secureCon.equalsIgnoreCase("ssl")) {
-                properties.put("mail.smtp.ssl.enable", "true");
+                properties.put("mail." + protocol + ".ssl.enable", "true");
+                //---------- SSL setting------------------
+                properties.setProperty("mail." + protocol + ".socketFactory.class", "javax.net.ssl.SSLSocketFactory");
+                properties.setProperty("mail." + protocol + ".socketFactory.fallback", "false");
+                properties.setProperty("mail." + protocol + ".socketFactory.port", String.valueOf(port));
             } else {
-                properties.put("mail.smtp.ssl.enable", "false");
+                properties.put("mail." + protocol + ".ssl.enable", "false");
             }
-            //---------- SSL setting------------------
-            properties.setProperty("mail.pop3.socketFactory.class", "javax.net.ssl.SSLSocketFactory");
-            properties.setProperty("mail.pop3.socketFactory.fallback", "false");
-            properties.setProperty("mail.pop3.socketFactory.port", String.valueOf(port));
             return properties;
         }
 
@@ -436,25 +1182,7 @@ public class EmailUtilities {
          * @return True if the email message matches all filters, false otherwise.
          */
         public static boolean emailMatch(EmailMessage emailMessage, List<Pair<EmailField, String>> filterPairs) {
-            for (Pair<EmailField, String> filterPair : filterPairs) {
-                String selector;
-
-                EmailField filterType = filterPair.alpha();
-                String filterValue = filterPair.beta();
-
-                if (filterType != null) {
-                    selector = switch (filterType) {
-                        case SUBJECT -> emailMessage.getSubject();
-                        case SENDER -> emailMessage.getFrom();
-                        case CONTENT -> emailMessage.getMessageContent();
-                        case DATE -> emailMessage.getSentDate();
-                        default -> throw new EnumConstantNotPresentException(EmailField.class, filterValue);
-                    };
-                    if (!(selector.contains(filterValue) || selector.equalsIgnoreCase(filterValue)))
-                        return false;
-                }
-            }
-            return true;
+            return EmailFilter.compile(filterPairs).test(emailMessage);
         }
 
         /**
@@ -465,35 +1193,103 @@ public class EmailUtilities {
          * @param print           whether or not to print the resolved message content and attachments.
          * @param save            whether or not to save the resolved message content.
          * @param saveAttachments whether or not to save the resolved message attachments.
+         * @return the resolved email message, or null if it could not be resolved.
          * @throws Error if there is a MessagingException during the process.
          */
-        private void resolveMessage(Message message, Integer index, Boolean print, Boolean save, Boolean saveAttachments) {
-            EmailMessage emailMessage;
-            try {
-                String from = message.getFrom()[0].toString();
-                String sentDate = String.valueOf(message.getSentDate());
-                String subject = message.getSubject();
-                String messageContent = getContent(message);
-                String attachments = getAttachments(message, saveAttachments);
-
-                emailMessage = EmailMessage.from(message);
-                emailMessage.setFileName(String.format("message#%s", DateUtilities.getDate().getTimeInMillis()));
-
-                messages.add(emailMessage);
-
-                if (print) {
-                    log.info("Message #" + index);
-                    log.info("From: " + from);
-                    log.info("Subject: " + subject);
-                    log.info("Sent Date: " + sentDate);
-                    log.info("Message: " + messageContent);
-                    if (!attachments.isEmpty()) log.info("Attachments: " + attachments);
-                }
+        EmailMessage resolveMessage(Message message, Integer index, Boolean print, Boolean save, Boolean saveAttachments) {
+            return resolveMessage(EmailMessage.from(message), index, print, save, saveAttachments);
+        }
 
-                if (save) saveMessage(emailMessage.getFileName(), messageContent);
-            } catch (MessagingException exception) {
-                log.error("Could not connect to the message store", exception);
+        /**
+         * Resolves the content and attachments of an email message that was already read while filtering,
+         * and adds it to the instance's messages list. The content is decoded once, here, since resolved messages
+         * outlive the connection they were read from; attachments are only walked when they are to be saved.
+         *
+         * @param emailMessage    the email message to resolve.
+         * @param index           the index of the email message in the mailbox.
+         * @param print           whether or not to print the resolved message content and attachments.
+         * @param save            whether or not to save the resolved message content.
+         * @param saveAttachments whether or not to save the resolved message attachments.
+         * @return the resolved email message, or null if it is a duplicate.
+         */
+        EmailMessage resolveMessage(EmailMessage emailMessage, Integer index, Boolean print, Boolean save, Boolean saveAttachments) {
+            return publishMessage(downloadMessage(emailMessage, save, saveAttachments), index, print);
+        }
+
+        /**
+         * Downloads and decodes the content of an email message, and saves it and its attachments if requested.
+         * This is the part of resolving a message that talks to the server, and it is safe to run concurrently.
+         *
+         * @param emailMessage    the email message to download.
+         * @param save            whether or not to save the message content.
+         * @param saveAttachments whether or not to save the message attachments.
+         * @return the downloaded email message.
+         */
+        EmailMessage downloadMessage(EmailMessage emailMessage, boolean save, boolean saveAttachments) {
+            // Reads the content and size while the folder they are read from is open, as they are kept past the lease
+            emailMessage.getMessageContent();
+            emailMessage.getSize();
+            CompletableFuture<List<AttachmentDescriptor>> attachments = getAttachments(emailMessage.getSource(), saveAttachments);
+            emailMessage.setAttachmentDescriptors(attachments);
+            emailMessage.setAttachments("");
+            attachments.thenAccept(descriptors -> emailMessage.setAttachments(
+                    descriptors.stream().map(AttachmentDescriptor::fileName).collect(Collectors.joining(", "))
+            ));
+            emailMessage.setFileName(String.format("message#%s", DateUtilities.getDate().getTimeInMillis()));
+            if (save) saveMessage(emailMessage);
+            return emailMessage;
+        }
+
+        /**
+         * Waits for the attachments of the given downloaded messages to be written, since asynchronous writers
+         * stream them from the connection the messages were read from, which must not be released before.
+         *
+         * @param emailMessages the downloaded email messages
+         * @throws CompletionException if an attachment could not be written
+         */
+        static void awaitAttachments(Collection<EmailMessage> emailMessages) {
+            for (EmailMessage emailMessage : emailMessages) emailMessage.getAttachmentDescriptorsAsync().join();
+        }
+
+        /**
+         * Adds a downloaded email message to the instance's messages, and prints it if requested.
+         * Messages that were already resolved (see {@link MessageDeduplicator}) are printed but not added again;
+         * if a duplicate was saved, the stored copy of the message is pointed at the saved file instead.
+         *
+         * @param emailMessage the downloaded email message.
+         * @param index        the index of the email message in the mailbox.
+         * @param print        whether or not to print the message content and attachments.
+         * @return the email message, or null if it is a duplicate.
+         */
+        EmailMessage publishMessage(EmailMessage emailMessage, Integer index, boolean print) {
+            boolean distinct = deduplicator.add(emailMessage);
+            if (distinct) messages.add(emailMessage);
+            else adoptSavedFile(emailMessage);
+
+            if (print) {
+                log.info("Message #" + index);
+                log.info("From: " + emailMessage.getFrom());
+                log.info("Subject: " + emailMessage.getSubject());
+                log.info("Sent Date: " + emailMessage.getSentDate());
+                log.info("Message: " + emailMessage.getMessageContent());
+                if (!emailMessage.getAttachments().isEmpty()) log.info("Attachments: " + emailMessage.getAttachments());
             }
+            return distinct ? emailMessage : null;
+        }
+
+        /**
+         * Points the stored copies of a duplicate message that were never saved at the file the duplicate was saved to,
+         * so that looking the message up finds its saved body.
+         *
+         * @param duplicate the duplicate email message
+         */
+        private void adoptSavedFile(EmailMessage duplicate) {
+            if (getSavedPath(duplicate) == null) return;
+            long fingerprint = MessageDeduplicator.fingerprintOf(duplicate);
+            messages.stream()
+                    .filter(emailMessage -> getSavedPath(emailMessage) == null)
+                    .filter(emailMessage -> MessageDeduplicator.fingerprintOf(emailMessage) == fingerprint)
+                    .forEach(emailMessage -> emailMessage.fileName = duplicate.fileName);
         }
 
         /**
@@ -501,33 +1297,19 @@ public class EmailUtilities {
          *
          * @return A string indicating the status of the connection.
          * Possible values are:
-         * - "connected_to_pop3" if the connection to the POP3 server was successful.
+         * - "connected_to_" followed by the store protocol (e.g. "connected_to_pop3") if the connection was successful.
          * - An error message if there was a problem connecting to the server.
          */
         public String getConnectionStatus() {
-            Properties properties = new Properties();
-
-            //---------- Server Setting---------------
-            properties.put("mail.pop3.host", host);
-            properties.put("mail.pop3.port", port);
-            properties.put("mail.smtp.ssl.enable", "true");
-            //---------- SSL setting------------------
-            properties.setProperty("mail.pop3.socketFactory.class", "javax.net.ssl.SSLSocketFactory");
-            properties.setProperty("mail.pop3.socketFactory.fallback", "false");
-            properties.setProperty("mail.pop3.socketFactory.port", String.valueOf(port));
-            Session session = Session.getDefaultInstance(properties);
-            //----------------------------------------
             String isconnected = "";
             try {
-                // connects to the message store
-                log.info("Connecting please wait....");
-                Store store = session.getStore("pop3");
-                store.connect(userName, password);
-                isconnected = "connected_to_pop3";
+                // leases (or revalidates) a pooled connection to the message store
+                MailboxPool.Connection connection = openFolder(Folder.READ_ONLY);
+                isconnected = "connected_to_" + protocol;
                 log.info("Is Connected: " + isconnected);
-                log.info("Connected to mail via " + host);
+                connection.release();
             } catch (NoSuchProviderException ex) {
-                String ex1 = "No provider for pop3.";
+                String ex1 = "No provider for " + protocol + ".";
                 log.warning(ex1);
                 return ex1;
             } catch (MessagingException ex) {
@@ -567,35 +1349,19 @@ public class EmailUtilities {
         }
 
         /**
-         * Retrieves the attachments from the given email message and optionally saves them to the "inbox/attachments" directory.
+         * Saves the attachments of the given email message through this inbox's {@link AttachmentStore},
+         * on a background thread if asynchronous attachment persistence is enabled.
          *
          * @param message         the email message from which to retrieve attachments
          * @param saveAttachments true if attachments should be saved, false otherwise
-         * @return a comma-separated string of attachment filenames
+         * @return the descriptors of the saved attachments, completed once they are written
          * @throws RuntimeException if there is a problem retrieving or saving attachments
          */
-        private String getAttachments(Message message, Boolean saveAttachments) {
-            StringBuilder attachments = new StringBuilder();
+        private CompletableFuture<List<AttachmentDescriptor>> getAttachments(Message message, Boolean saveAttachments) {
+            if (!saveAttachments) return CompletableFuture.completedFuture(List.of());
+            if (asyncAttachments) return attachmentStore.persistAsync(message);
             try {
-                String contentType = message.getContentType();
-                if (contentType.contains("multipart")) {
-                    // content may contain attachments
-                    Multipart multiPart = (Multipart) message.getContent();
-                    int numberOfParts = multiPart.getCount();
-                    for (int partCount = 0; partCount < numberOfParts; partCount++) {
-                        MimeBodyPart part = (MimeBodyPart) multiPart.getBodyPart(partCount);
-                        if (Part.ATTACHMENT.equalsIgnoreCase(part.getDisposition())) {
-                            if (saveAttachments) { // Attachment
-                                String fileName = part.getFileName();
-                                attachments.append(fileName).append(", ");
-                                part.saveFile("inbox/attachments" + File.separator + fileName);
-                            }
-                        }
-                    }
-                    if (attachments.length() > 1)
-                        attachments = new StringBuilder(attachments.substring(0, attachments.length() - 2));
-                }
-                return attachments.toString();
+                return CompletableFuture.completedFuture(attachmentStore.persist(message));
             } catch (MessagingException | IOException e) {
                 log.error(e.fillInStackTrace().getLocalizedMessage(), e);
                 throw new RuntimeException(e);
@@ -666,23 +1432,6 @@ public class EmailUtilities {
             );
         }
 
-        /**
-         * IMAP connection to get the inbox
-         */
-        private Store getImapStore() {
-            Properties properties = getConnectionProperties();
-            Session session = Session.getInstance(properties);
-            Store store = null;
-            try {
-                log.info("Connecting please wait...");
-                store = session.getStore("pop3");
-                store.connect(userName, password);
-            } catch (MessagingException exception) {
-                log.error(exception.getLocalizedMessage(), exception);
-            }
-            return store;
-        }
-
         /**
          * Clears the email inbox by deleting messages that match the specified filters
          * using the configured email credentials and server settings.
@@ -697,27 +1446,28 @@ public class EmailUtilities {
          *                            or performing mailbox operations
          */
         public void clearInbox(List<Pair<EmailField, String>> filterPairs) {
+            MailboxPool.Connection connection = null;
+            boolean completed = false;
             try {
-                Store store = getImapStore();
-                Folder folderInbox = store.getFolder("INBOX");
-                folderInbox.open(Folder.READ_WRITE);
+                connection = openFolder(Folder.READ_WRITE);
+                Folder folderInbox = connection.getFolder();
 
                 // fetches new messages from server
                 log.info("Getting inbox..");
-                List<Message> messages = List.of(folderInbox.getMessages());
+                List<EmailMessage> messages = getMatchingMessages(folderInbox, filterPairs);
 
                 log.info("Deleting messages..");
-                for (Message message : messages)
-                    if (emailMatch(EmailMessage.from(message), filterPairs))
-                        message.setFlag(Flags.Flag.DELETED, true);
+                flagMessages(connection, sourcesOf(messages), Flags.Flag.DELETED);
 
-                // Delete messages and close connection
-                folderInbox.close(true);
-                store.close();
+                // Commit the changes, the connection is returned to the pool once the lease is closed
+                connection.commit();
+                completed = true;
                 log.info(messages.size() + " messages have been successfully deleted!");
 
             } catch (MessagingException exception) {
                 log.error(exception.getLocalizedMessage(), exception);
+            } finally {
+                closeLease(connection, completed);
             }
         }
 
@@ -736,30 +1486,28 @@ public class EmailUtilities {
          */
         @SafeVarargs
         public final void clearInbox(EmailFlag flag, Pair<EmailField, String>... filterPairs) {
+            MailboxPool.Connection connection = null;
+            boolean completed = false;
             try {
-                Store store = getImapStore();
-                Folder folderInbox = store.getFolder("INBOX");
-                folderInbox.open(Folder.READ_WRITE);
+                connection = openFolder(Folder.READ_WRITE);
+                Folder folderInbox = connection.getFolder();
 
                 // fetches new messages from server
                 log.info("Getting inbox..");
-                List<Message> messages = List.of(folderInbox.getMessages());
+                List<EmailMessage> messages = getMatchingMessages(folderInbox, List.of(filterPairs));
 
                 log.info("Marking messages as " + markup(StringUtilities.Color.BLUE, flag.name()) + "...");
-                int markedMessageCounter = 0;
-                for (Message message : messages)
-                    if (emailMatch(EmailMessage.from(message), List.of(filterPairs))) {
-                        message.setFlag(flag.getFlag(), true);
-                        markedMessageCounter+=1;
-                    }
+                int markedMessageCounter = flagMessages(connection, sourcesOf(messages), flag.getFlag());
 
-                // Delete messages and close connection
-                folderInbox.close(true);
-                store.close();
+                // Commit the changes, the connection is returned to the pool once the lease is closed
+                connection.commit();
+                completed = true;
                 log.info(markedMessageCounter + " messages have been marked as " + flag.name() + "!");
 
             } catch (MessagingException exception) {
                 log.error(exception.getLocalizedMessage(), exception);
+            } finally {
+                closeLease(connection, completed);
             }
         }
 
@@ -768,61 +1516,87 @@ public class EmailUtilities {
          * email credentials and server settings.
          *
          * <p>This method does not apply any filters and will delete every message in the inbox.
+         * Messages are deleted in batches of "email-flag-batch-size" messages (see {@link #clearInboxInBatches(int)}).
          *
          */
         public void clearInbox() {
+            clearInboxInBatches(flagBatchSize);
+        }
+
+        /**
+         * Clear inbox in batches - use it on the large inboxes to optimize the process.
+         * <p>
+         * Every batch is flagged with a single command for a range of message numbers, and deletions are expunged
+         * after each batch where the store allows it, so the whole mailbox is walked without loading its messages
+         * and an interrupted clear keeps the batches deleted so far. Progress and throughput are logged per batch.
+         *
+         * @param batchSize the number of messages to delete per batch
+         */
+        public void clearInboxInBatches(int batchSize) {
+            MailboxPool.Connection connection = null;
+            boolean completed = false;
             try {
-                Store store = getImapStore();
-                Folder folderInbox = store.getFolder("INBOX");
-                folderInbox.open(Folder.READ_WRITE);
+                connection = openFolder(Folder.READ_WRITE);
+                Folder folderInbox = connection.getFolder();
 
-                // fetches new messages from server
                 log.info("Getting inbox..");
-                List<Message> messages = List.of(folderInbox.getMessages());
+                int total = folderInbox.getMessageCount();
+                int batch = Math.max(1, batchSize);
+                Flags flags = new Flags(Flags.Flag.DELETED);
+                long startTime = System.nanoTime();
 
                 log.info("Deleting messages..");
-                // Delete all the messages
-                for (Message message : messages) {
-                    message.setFlag(Flags.Flag.DELETED, true);
+                int deleted = 0;
+                int start = 1;
+                while (deleted < total) {
+                    int count = Math.min(Math.min(batch, total - deleted), folderInbox.getMessageCount() - start + 1);
+                    if (count <= 0) break;
+                    folderInbox.setFlags(start, start + count - 1, flags, true);
+                    deleted += count;
+                    // Expunged messages renumber the rest, so the next batch starts at the top again
+                    if (!connection.checkpoint()) start += count;
+                    log.info(String.format(
+                            "Deleted %d of %d messages (%.0f messages/s)",
+                            deleted,
+                            total,
+                            deleted / Math.max((System.nanoTime() - startTime) / 1e9, 1e-3)
+                    ));
                 }
 
-                // Delete messages and close connection
-                folderInbox.close(true);
-                store.close();
-                log.info(messages.size() + " messages have been successfully deleted!");
+                // Commit the changes, the connection is returned to the pool once the lease is closed
+                connection.commit();
+                completed = true;
+                log.info(deleted + " messages out of " + total + " have been successfully deleted!");
 
             } catch (MessagingException exception) {
                 log.error(exception.getLocalizedMessage(), exception);
+            } finally {
+                closeLease(connection, completed);
             }
         }
 
         /**
-         * Clear inbox in batches - use it on the large inboxes to optimize the process
+         * Sets a flag on the given messages in batches of "email-flag-batch-size" messages, each sent to the server
+         * as a single command. Deletions are expunged after every batch where the store allows it.
+         *
+         * @param connection the connection the messages were read from
+         * @param messages   the messages to flag
+         * @param flag       the flag to set
+         * @return the number of flagged messages
+         * @throws MessagingException if the flags could not be set
          */
-        public void clearInboxInBatches(int batchSize) {
-            try {
-                Store store = getImapStore();
-                Folder folderInbox = store.getFolder("INBOX");
-                folderInbox.open(Folder.READ_WRITE);
-
-                // fetches new messages from server
-                log.info("Getting inbox..");
-                List<Message> messages = List.of(folderInbox.getMessages());
-                List<Message> batchToDelete = messages.subList(0, batchSize);
-                log.info("Deleting messages..");
-                // Delete all the messages
-                for (Message message : batchToDelete) {
-                    message.setFlag(Flags.Flag.DELETED, true);
-                }
-
-                // Delete messages and close connection
-                folderInbox.close(true);
-                store.close();
-                log.info(batchToDelete.size() + " messages out of " + messages.size() + " have been successfully deleted!");
-
-            } catch (MessagingException exception) {
-                log.error(exception.getLocalizedMessage(), exception);
+        private int flagMessages(MailboxPool.Connection connection, Message[] messages, Flags.Flag flag) throws MessagingException {
+            Flags flags = new Flags(flag);
+            for (int start = 0; start < messages.length; start += flagBatchSize) {
+                Message[] batch = Arrays.copyOfRange(messages, start, Math.min(start + flagBatchSize, messages.length));
+                connection.getFolder().setFlags(batch, flags, true);
+                if (flag == Flags.Flag.DELETED) connection.checkpoint();
             }
+            return messages.length;
+        }
+
+        private static Message[] sourcesOf(List<EmailMessage> messages) {
+            return messages.stream().map(EmailMessage::getSource).toArray(Message[]::new);
         }
     }
 }
@@ -0,0 +1,286 @@
+package utils.email;
+
+import collections.Pair;
+import com.sun.mail.imap.IMAPFolder;
+import context.ContextStore;
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.event.MessageCountEvent;
+import jakarta.mail.event.MessageCountListener;
+import utils.Printer;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds a dedicated connection to an inbox folder in IMAP IDLE and resolves messages the moment the server
+ * announces them, handing them to the registered {@link MessageWaiter}s.
+ * <p>
+ * Folders that are not IMAP folders, or servers that do not support IDLE, are kept alive by checking the
+ * message count at the "email-idle-fallback-interval" (in milliseconds) instead, which still lets the store
+ * announce new messages through {@link MessageCountEvent}s.
+ * <p>
+ * Listeners are shared per account and folder (see {@link #of}), so any number of inboxes waiting on the same
+ * folder hold a single IDLE connection and thread. A listener stops once its last waiter completes, and its
+ * connection is returned to the pool by the listening thread once it has left IDLE.
+ */
+@SuppressWarnings("unused")
+public class IdleListener extends MessageDispatcher implements MessageCountListener, Runnable {
+
+    private static final Printer log = new Printer(IdleListener.class);
+
+    /**
+     * The running listeners, shared by every inbox of the same account and folder.
+     */
+    private static final Map<Pair<MailboxPool.Key, String>, IdleListener> listeners = new ConcurrentHashMap<>();
+
+    private final long fallbackInterval = Long.parseLong(ContextStore.get("email-idle-fallback-interval", "1000"));
+    private final MailboxPool.Key account;
+    private final String folderName;
+    private volatile Properties properties;
+    private volatile String password;
+    private volatile MailboxPool.Connection connection;
+    private volatile boolean running;
+    private volatile boolean retired;
+    private Thread thread;
+    private boolean idleSupported = true;
+
+    /**
+     * Returns the running listener of the given folder of an account, starting one if there is none.
+     * A running listener connects with the given credentials from now on.
+     *
+     * @param account    the account to listen on
+     * @param folderName the full name of the folder to listen on
+     * @param properties the session properties of the account
+     * @param password   the password of the account
+     * @return the shared, running listener of the folder
+     * @throws MessagingException if the IDLE connection could not be established
+     */
+    public static IdleListener of(MailboxPool.Key account, String folderName, Properties properties, String password)
+            throws MessagingException {
+        while (true) {
+            IdleListener listener = listeners.compute(Pair.of(account, folderName), (key, existing) -> {
+                if (existing == null || existing.retired) return new IdleListener(account, folderName, properties, password);
+                existing.setCredentials(properties, password);
+                return existing;
+            });
+            if (listener.start()) return listener;
+        }
+    }
+
+    /**
+     * Returns the running listener of the given folder of an account, without starting one.
+     *
+     * @param account    the account listened on
+     * @param folderName the full name of the folder listened on
+     * @return the running listener, or null if there is none
+     */
+    static IdleListener get(MailboxPool.Key account, String folderName) {
+        return listeners.get(Pair.of(account, folderName));
+    }
+
+    /**
+     * Constructs an IDLE listener for the given folder of an account.
+     *
+     * @param account    the account to listen on
+     * @param folderName the full name of the folder to listen on
+     * @param properties the session properties of the account
+     * @param password   the password of the account
+     */
+    public IdleListener(MailboxPool.Key account, String folderName, Properties properties, String password) {
+        this.account = account;
+        this.folderName = folderName;
+        this.properties = properties;
+        this.password = password;
+    }
+
+    /**
+     * Sets the credentials new connections of this listener are authenticated with.
+     *
+     * @param properties the session properties of the account
+     * @param password   the password of the account
+     */
+    public void setCredentials(Properties properties, String password) {
+        this.properties = properties;
+        this.password = password;
+    }
+
+    /**
+     * Opens the IDLE connection and starts listening on a daemon thread, unless the listener is already running.
+     * The connection is established before this method returns, so no message arriving afterwards is missed.
+     *
+     * @return true if the listener is running, false if it was retired and has to be replaced
+     * @throws MessagingException if the connection could not be established
+     */
+    public synchronized boolean start() throws MessagingException {
+        if (retired) return false;
+        if (thread != null) return true;
+        try {
+            connect();
+        } catch (MessagingException | RuntimeException exception) {
+            retired = true;
+            listeners.remove(Pair.of(account, folderName), this);
+            throw exception;
+        }
+        running = true;
+        thread = new Thread(this, "email-idle-" + account.userName());
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Registers a waiter to be handed the matching messages that arrive from now on. The listener stops once
+     * its last waiter completes. A waiter registering with a stopped listener is handed to the one replacing it,
+     * or to the poller of the folder if no IDLE connection can be established anymore.
+     *
+     * @param waiter the waiter to register
+     */
+    @Override
+    public void register(MessageWaiter waiter) {
+        synchronized (this) {
+            if (!retired) {
+                super.register(waiter);
+                waiter.getFuture().whenComplete((messages, exception) -> {
+                    waiters.remove(waiter);
+                    stopIfUnused();
+                });
+                return;
+            }
+        }
+        try {
+            of(account, folderName, properties, password).register(waiter);
+        } catch (MessagingException exception) {
+            log.warning("Could not establish an IDLE connection, falling back to polling: " + exception.getLocalizedMessage());
+            MailboxPoller.of(account, folderName, properties, password).register(waiter);
+        }
+    }
+
+    /**
+     * Cancels the pending waits and subscriptions registered through the given inbox.
+     * The listener stops if no other inbox is waiting on it.
+     *
+     * @param inbox the inbox whose waiters to cancel
+     */
+    public void cancel(EmailUtilities.Inbox inbox) {
+        waiters.stream().filter(waiter -> waiter.getInbox() == inbox).forEach(waiter -> waiter.getFuture().cancel(false));
+    }
+
+    /**
+     * Stops listening. The listening thread leaves IDLE and returns the connection to the pool.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            retired = true;
+            running = false;
+            thread = this.thread;
+        }
+        listeners.remove(Pair.of(account, folderName), this);
+        if (thread == null || thread == Thread.currentThread()) return;
+        MailboxPool.Connection connection = this.connection;
+        try {
+            // Any command on the folder ends the IDLE the listening thread is blocked in
+            if (connection != null) connection.getFolder().getMessageCount();
+        } catch (MessagingException | RuntimeException ignored) {
+            // The listening thread is leaving anyway
+        }
+        thread.interrupt();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Idles on the folder until stopped, reconnecting after every failure of the connection.
+     * The connection is returned to the pool once the thread ends, however it ends.
+     */
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                try {
+                    if (connection == null) connect();
+                    Folder folder = connection.getFolder();
+                    if (idleSupported && folder instanceof IMAPFolder imapFolder) imapFolder.idle();
+                    else {
+                        folder.getMessageCount();
+                        TimeUnit.MILLISECONDS.sleep(fallbackInterval);
+                    }
+                } catch (MessagingException exception) {
+                    if (!running) break;
+                    if (idleSupported && exception.getMessage() != null && exception.getMessage().contains("IDLE not supported")) {
+                        log.warning("The server does not support IDLE, checking for new messages periodically instead.");
+                        idleSupported = false;
+                        continue;
+                    }
+                    log.warning("IDLE connection was lost, reconnecting: " + exception.getLocalizedMessage());
+                    reset();
+                } catch (RuntimeException exception) {
+                    // Such as an IllegalStateException of a folder closed underneath the listener
+                    if (!running) break;
+                    log.warning("IDLE connection failed, reconnecting: " + exception.getLocalizedMessage());
+                    reset();
+                } catch (InterruptedException exception) {
+                    break;
+                }
+            }
+        } finally {
+            stop();
+            MailboxPool.Connection connection = this.connection;
+            this.connection = null;
+            if (connection != null) {
+                connection.getFolder().removeMessageCountListener(this);
+                connection.release();
+            }
+        }
+    }
+
+    @Override
+    public void messagesAdded(MessageCountEvent event) {
+        for (Message message : event.getMessages()) dispatch(message);
+    }
+
+    @Override
+    public void messagesRemoved(MessageCountEvent event) {}
+
+    /**
+     * Stops the listener if no waiter is left.
+     */
+    private void stopIfUnused() {
+        synchronized (this) {
+            if (retired || hasWaiters()) return;
+            retired = true; // Waiters registering from now on go to the listener replacing this one
+        }
+        stop();
+    }
+
+    private void connect() throws MessagingException {
+        MailboxPool.Connection connection = EmailUtilities.Inbox.pool.lease(account, properties, password, folderName, Folder.READ_ONLY);
+        connection.getFolder().addMessageCountListener(this);
+        this.connection = connection;
+    }
+
+    private void reset() {
+        MailboxPool.Connection connection = this.connection;
+        this.connection = null;
+        if (connection != null) {
+            connection.getFolder().removeMessageCountListener(this);
+            connection.invalidate();
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(fallbackInterval);
+        } catch (InterruptedException exception) {
+            running = false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return account.userName() + "@" + account.host() + "/" + folderName;
+    }
+}
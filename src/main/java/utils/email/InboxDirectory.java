@@ -0,0 +1,252 @@
+package utils.email;
+
+import context.ContextStore;
+import utils.Printer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The directory email message bodies are saved to, keeping an index of the saved files by file name
+ * so that a saved message is found without listing or probing the directory.
+ * <p>
+ * With the "email-save-mode" set to "archive", message bodies are appended to a {@link MessageArchive} in the
+ * "archive" sub-directory instead of being written to a file each, and a message is only exported to its file
+ * once its path is requested with {@link #pathOf(String)}.
+ * <p>
+ * The directory can be bounded to "email-inbox-max-files" files and "email-inbox-max-bytes" bytes
+ * (both unbounded by default), in which case the oldest messages saved (or exported) through this process are
+ * deleted once a bound is exceeded. Archived messages are never deleted, so they can be exported again.
+ * Files saved by earlier runs are neither indexed nor rotated.
+ */
+@SuppressWarnings("unused")
+public class InboxDirectory {
+
+    private static final Printer log = new Printer(InboxDirectory.class);
+
+    private static final Map<Path, InboxDirectory> directories = new ConcurrentHashMap<>();
+
+    private final Path directory;
+    private final int maxFiles;
+    private final long maxBytes;
+    private final Map<String, Path> paths = new ConcurrentHashMap<>();
+    private final Deque<SavedFile> savedFiles = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger fileCount = new AtomicInteger(); // ConcurrentLinkedDeque.size() walks the whole deque
+    private final AtomicLong bytes = new AtomicLong();
+    private final MessageArchive archive;
+
+    /**
+     * The ways message bodies are saved.
+     */
+    public enum SaveMode {
+        /**
+         * Every message body is written to its own file.
+         */
+        FILES,
+        /**
+         * Message bodies are appended to an archive, and exported to their own file on demand.
+         */
+        ARCHIVE
+    }
+
+    /**
+     * Returns the inbox directory configured with "email-inbox-directory" (inbox by default).
+     *
+     * @return the shared inbox directory
+     */
+    public static InboxDirectory getDefault() {
+        return of(Paths.get(ContextStore.get("email-inbox-directory", "inbox")));
+    }
+
+    /**
+     * Returns the inbox directory at the given path, shared by every inbox saving to it.
+     *
+     * @param directory the path of the directory
+     * @return the shared inbox directory
+     */
+    public static InboxDirectory of(Path directory) {
+        return directories.computeIfAbsent(directory.toAbsolutePath().normalize(), path -> new InboxDirectory(
+                path,
+                Integer.parseInt(ContextStore.get("email-inbox-max-files", "0")),
+                Long.parseLong(ContextStore.get("email-inbox-max-bytes", "0")),
+                SaveMode.valueOf(ContextStore.get("email-save-mode", "files").toUpperCase())
+        ));
+    }
+
+    /**
+     * Constructs an inbox directory.
+     *
+     * @param directory the path of the directory
+     * @param maxFiles  the maximum number of saved files kept, or 0 for no bound
+     * @param maxBytes  the maximum total size of the saved files kept, or 0 for no bound
+     */
+    public InboxDirectory(Path directory, int maxFiles, long maxBytes) {
+        this(directory, maxFiles, maxBytes, SaveMode.FILES);
+    }
+
+    /**
+     * Constructs an inbox directory saving message bodies in the given mode. Archives are opened with a segment size
+     * of "email-archive-segment-bytes" (64 MiB by default), and synced after every message if "email-archive-sync" is enabled.
+     *
+     * @param directory the path of the directory
+     * @param maxFiles  the maximum number of saved files kept, or 0 for no bound
+     * @param maxBytes  the maximum total size of the saved files kept, or 0 for no bound
+     * @param saveMode  the way message bodies are saved
+     */
+    public InboxDirectory(Path directory, int maxFiles, long maxBytes, SaveMode saveMode) {
+        this.directory = directory;
+        this.maxFiles = maxFiles;
+        this.maxBytes = maxBytes;
+        if (saveMode == SaveMode.ARCHIVE) {
+            try {
+                this.archive = new MessageArchive(
+                        directory.resolve("archive"),
+                        Integer.parseInt(ContextStore.get("email-archive-segment-bytes", String.valueOf(64 << 20))),
+                        Boolean.parseBoolean(ContextStore.get("email-archive-sync", "false"))
+                );
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        }
+        else this.archive = null;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public SaveMode getSaveMode() {
+        return archive == null ? SaveMode.FILES : SaveMode.ARCHIVE;
+    }
+
+    /**
+     * Returns the archive message bodies are appended to.
+     *
+     * @return the archive, or null if message bodies are saved as files
+     */
+    public MessageArchive getArchive() {
+        return archive;
+    }
+
+    /**
+     * Saves a message body under the given file name, suffixing the name if another saved message already took it.
+     * In archive mode, the message is appended to the archive and the returned path only exists once the message is
+     * exported by {@link #pathOf(String)}.
+     *
+     * @param fileName       the file name to save the message body as
+     * @param messageContent the message body
+     * @return the path of the saved file
+     * @throws IOException if the file could not be written
+     */
+    public Path save(String fileName, String messageContent) throws IOException {
+        String name = fileName;
+        if (archive != null) {
+            for (int suffix = 1; !archive.append(name, messageContent); suffix++) name = suffixed(fileName, suffix);
+            return directory.resolve(name);
+        }
+        for (int suffix = 1; paths.putIfAbsent(name, directory.resolve(name)) != null; suffix++)
+            name = suffixed(fileName, suffix);
+        try {
+            return write(name, messageContent);
+        } catch (IOException exception) {
+            paths.remove(name);
+            throw exception;
+        }
+    }
+
+    /**
+     * Returns the path a message body was saved to, exporting it from the archive first in archive mode.
+     *
+     * @param fileName the file name the message was saved as
+     * @return the path of the saved file, or null if no message was saved under that name or it was rotated out
+     */
+    public Path pathOf(String fileName) {
+        if (fileName == null) return null;
+        Path path = paths.get(fileName);
+        if (archive == null || path != null || !archive.contains(fileName)) return path;
+        synchronized (archive) {
+            path = paths.get(fileName);
+            if (path != null) return path;
+            try {
+                paths.put(fileName, directory.resolve(fileName));
+                return write(fileName, archive.read(fileName));
+            } catch (IOException exception) {
+                paths.remove(fileName);
+                throw new UncheckedIOException(exception);
+            }
+        }
+    }
+
+    /**
+     * Reads a saved message body, from the archive in archive mode.
+     *
+     * @param fileName the file name the message was saved as
+     * @return the message body, or null if no message was saved under that name or it was rotated out
+     * @throws IOException if the saved file could not be read
+     */
+    public String read(String fileName) throws IOException {
+        if (archive != null) return archive.read(fileName);
+        Path path = pathOf(fileName);
+        return path == null ? null : Files.readString(path);
+    }
+
+    /**
+     * Returns the number of saved files currently kept.
+     *
+     * @return the saved file count
+     */
+    public int size() {
+        return paths.size();
+    }
+
+    /**
+     * Writes a message body to a file registered under the given name, and rotates the directory.
+     */
+    private Path write(String name, String messageContent) throws IOException {
+        Files.createDirectories(directory);
+        Path path = directory.resolve(name);
+        Files.writeString(path, String.valueOf(messageContent));
+        long size = Files.size(path);
+        savedFiles.offerLast(new SavedFile(name, path, size));
+        fileCount.incrementAndGet();
+        bytes.addAndGet(size);
+        rotate();
+        return path;
+    }
+
+    /**
+     * Deletes the oldest saved files until the directory is within its bounds.
+     */
+    private void rotate() {
+        while ((maxFiles > 0 && fileCount.get() > maxFiles) || (maxBytes > 0 && bytes.get() > maxBytes && fileCount.get() > 1)) {
+            SavedFile oldest = savedFiles.pollFirst();
+            if (oldest == null) return;
+            fileCount.decrementAndGet();
+            paths.remove(oldest.name(), oldest.path());
+            bytes.addAndGet(-oldest.size());
+            try {
+                Files.deleteIfExists(oldest.path());
+            } catch (IOException exception) {
+                log.warning("Could not delete " + oldest.path() + ": " + exception.getLocalizedMessage());
+            }
+        }
+    }
+
+    private static String suffixed(String fileName, int suffix) {
+        int extension = fileName.lastIndexOf('.');
+        return extension > 0 ?
+                fileName.substring(0, extension) + "-" + suffix + fileName.substring(extension) :
+                fileName + "-" + suffix;
+    }
+
+    private record SavedFile(String name, Path path, long size) {}
+}
@@ -0,0 +1,488 @@
+package utils.email;
+
+import jakarta.mail.*;
+import jakarta.mail.event.ConnectionEvent;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.util.SharedByteArrayInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+/**
+ * A read only mail store over local mailboxes, registered in META-INF/javamail.providers under the "local" protocol.
+ * <p>
+ * The host of the store is the path of the mailbox, so an inbox reads a local corpus with
+ * {@code new Inbox("corpus/inbox.mbox", "0", userName, password, "none", "local")}. The format of a folder is
+ * detected from its path:
+ * <ul>
+ *     <li>a file is read as an mbox file, memory-mapped with its message boundaries indexed (see {@link MboxFile})</li>
+ *     <li>a directory holding "cur" or "new" directories is read as a Maildir, its "new" and "cur" messages together</li>
+ *     <li>any other directory is read as a directory of .eml files</li>
+ * </ul>
+ * The "INBOX" folder is the mailbox itself, and other folders are resolved within its directory, including
+ * Maildir++ sub-folders (".Name"). Messages are numbered in file name order and keep their number as UID,
+ * so a corpus is always replayed in the same order. Maildir files are ordered by their unique name, without the
+ * flags suffix, so a message keeps its number when a client moves it from "new" to "cur". Flags, including
+ * deletions, are only kept in memory: expunging removes messages from the open folder but never from disk.
+ * A folder shows the mailbox as it was when the folder was opened; reopening it picks up newly arrived messages,
+ * and keeps its UIDVALIDITY as long as messages were only added to the mailbox since.
+ */
+@SuppressWarnings("unused")
+public class LocalMailStore extends Store {
+
+    private Path root;
+
+    public LocalMailStore(Session session, URLName urlName) {
+        super(session, urlName);
+    }
+
+    @Override
+    protected boolean protocolConnect(String host, int port, String user, String password) throws MessagingException {
+        if (host == null) throw new MessagingException("No mailbox path was given as the host of the local store");
+        root = Paths.get(host);
+        if (!Files.exists(root)) throw new MessagingException("Mailbox " + root + " does not exist");
+        return true;
+    }
+
+    @Override
+    public Folder getDefaultFolder() {
+        return new LocalFolder(this, "", root);
+    }
+
+    @Override
+    public Folder getFolder(String name) {
+        if (name.isEmpty() || name.equalsIgnoreCase("INBOX")) return new LocalFolder(this, name, root);
+        Path folder = root.resolve(name);
+        if (!Files.exists(folder) && Files.isDirectory(root.resolve("cur"))) folder = root.resolve("." + name);
+        return new LocalFolder(this, name, folder);
+    }
+
+    @Override
+    public Folder getFolder(URLName url) {
+        return getFolder(url.getFile());
+    }
+
+    /**
+     * The messages of a local mailbox, in the order they are numbered.
+     */
+    private interface Source {
+
+        int size();
+
+        long version();
+
+        /**
+         * Checks whether this source holds the messages of a previous source of the same mailbox at the same indexes,
+         * followed by the messages that arrived since.
+         */
+        boolean extendsSource(Source previous);
+
+        InputStream newStream(int index) throws IOException;
+
+        Flags flags(int index);
+    }
+
+    /**
+     * The messages of an mbox file.
+     */
+    private record MboxSource(MboxFile file) implements Source {
+
+        @Override
+        public int size() {
+            return file.size();
+        }
+
+        @Override
+        public long version() {
+            return file.getVersion();
+        }
+
+        @Override
+        public boolean extendsSource(Source previous) {
+            return previous instanceof MboxSource mboxSource && file.extendsFile(mboxSource.file());
+        }
+
+        @Override
+        public InputStream newStream(int index) {
+            return file.newStream(index);
+        }
+
+        @Override
+        public Flags flags(int index) {
+            return new Flags();
+        }
+    }
+
+    /**
+     * The messages of a Maildir or a directory of .eml files, one file per message.
+     */
+    private record FileSource(List<Path> files, long version) implements Source {
+
+        static FileSource of(Path directory) throws IOException {
+            List<Path> files = new ArrayList<>();
+            if (Files.isDirectory(directory.resolve("cur")) || Files.isDirectory(directory.resolve("new"))) {
+                files.addAll(list(directory.resolve("new"), false));
+                files.addAll(list(directory.resolve("cur"), false));
+                files.sort(Comparator.comparing(FileSource::uniqueName));
+            }
+            else files.addAll(list(directory, true));
+            List<String> names = files.stream().map(FileSource::uniqueName).toList();
+            return new FileSource(files, Math.abs(31L * directory.toAbsolutePath().hashCode() + names.hashCode()));
+        }
+
+        /**
+         * Returns the name identifying a message file, without the info suffix a Maildir file name carries its flags in.
+         */
+        private static String uniqueName(Path file) {
+            String name = file.getFileName().toString();
+            int info = name.indexOf(':');
+            return info < 0 ? name : name.substring(0, info);
+        }
+
+        private static List<Path> list(Path directory, boolean emlOnly) throws IOException {
+            if (!Files.isDirectory(directory)) return List.of();
+            try (Stream<Path> paths = Files.list(directory)) {
+                return paths.filter(Files::isRegularFile)
+                        .filter(path -> !path.getFileName().toString().startsWith("."))
+                        .filter(path -> !emlOnly || path.getFileName().toString().toLowerCase().endsWith(".eml"))
+                        .sorted()
+                        .toList();
+            }
+        }
+
+        @Override
+        public int size() {
+            return files.size();
+        }
+
+        @Override
+        public boolean extendsSource(Source previous) {
+            if (!(previous instanceof FileSource fileSource) || files.size() < fileSource.files().size()) return false;
+            for (int index = 0; index < fileSource.files().size(); index++)
+                if (!uniqueName(files.get(index)).equals(uniqueName(fileSource.files().get(index)))) return false;
+            return true;
+        }
+
+        @Override
+        public InputStream newStream(int index) throws IOException {
+            return new SharedByteArrayInputStream(Files.readAllBytes(files.get(index)));
+        }
+
+        /**
+         * Reads the flags from the info suffix of a Maildir file name, as in "1700000000.M1P1.host:2,FRS".
+         */
+        @Override
+        public Flags flags(int index) {
+            Flags flags = new Flags();
+            String name = files.get(index).getFileName().toString();
+            int info = name.lastIndexOf(":2,");
+            if (info < 0) return flags;
+            for (char flag : name.substring(info + 3).toCharArray()) {
+                switch (flag) {
+                    case 'D' -> flags.add(Flags.Flag.DRAFT);
+                    case 'F' -> flags.add(Flags.Flag.FLAGGED);
+                    case 'R' -> flags.add(Flags.Flag.ANSWERED);
+                    case 'S' -> flags.add(Flags.Flag.SEEN);
+                    case 'T' -> flags.add(Flags.Flag.DELETED);
+                }
+            }
+            return flags;
+        }
+    }
+
+    /**
+     * A local mailbox. Messages are parsed when first requested and only softly cached,
+     * while their flags are kept by the folder so that they survive the messages being reclaimed.
+     */
+    public static class LocalFolder extends Folder implements UIDFolder {
+
+        private final String name;
+        private final Path path;
+        private Source source;
+        private Source previousSource;
+        private long uidValidity;
+        private int[] live = new int[0];
+        private List<SoftReference<LocalMessage>> cache;
+        private final Map<Integer, Flags> flags = new HashMap<>();
+        private boolean open;
+
+        LocalFolder(Store store, String name, Path path) {
+            super(store);
+            this.name = name;
+            this.path = path;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getFullName() {
+            return name;
+        }
+
+        @Override
+        public Folder getParent() {
+            return null;
+        }
+
+        @Override
+        public boolean exists() {
+            return Files.exists(path);
+        }
+
+        @Override
+        public Folder[] list(String pattern) {
+            return new Folder[0];
+        }
+
+        @Override
+        public char getSeparator() {
+            return '/';
+        }
+
+        @Override
+        public int getType() {
+            return HOLDS_MESSAGES;
+        }
+
+        @Override
+        public boolean create(int type) {
+            return false;
+        }
+
+        @Override
+        public boolean hasNewMessages() {
+            return false;
+        }
+
+        @Override
+        public Folder getFolder(String name) {
+            return store instanceof LocalMailStore localStore ? localStore.getFolder(name) : null;
+        }
+
+        @Override
+        public boolean delete(boolean recurse) throws MessagingException {
+            throw new MethodNotSupportedException("Local mailboxes are read only");
+        }
+
+        @Override
+        public boolean renameTo(Folder folder) throws MessagingException {
+            throw new MethodNotSupportedException("Local mailboxes are read only");
+        }
+
+        @Override
+        public synchronized void open(int mode) throws MessagingException {
+            if (open) throw new IllegalStateException("Folder is already open");
+            if (!exists()) throw new FolderNotFoundException(this, "Mailbox " + path + " does not exist");
+            try {
+                source = Files.isDirectory(path) ? FileSource.of(path) : new MboxSource(MboxFile.open(path));
+            } catch (IOException exception) {
+                throw new MessagingException("Could not read mailbox " + path, exception);
+            }
+            // Messages keep their UIDs across reopening as long as the mailbox only grew in between
+            if (previousSource == null || !source.extendsSource(previousSource)) uidValidity = source.version();
+            previousSource = source;
+            live = new int[source.size()];
+            for (int index = 0; index < live.length; index++) live[index] = index;
+            cache = new ArrayList<>(Collections.nCopies(source.size(), null));
+            flags.clear();
+            this.mode = mode;
+            open = true;
+            notifyConnectionListeners(ConnectionEvent.OPENED);
+        }
+
+        @Override
+        public synchronized void close(boolean expunge) throws MessagingException {
+            if (!open) throw new IllegalStateException("Folder is not open");
+            if (expunge) expunge();
+            open = false;
+            source = null;
+            cache = null;
+            notifyConnectionListeners(ConnectionEvent.CLOSED);
+        }
+
+        @Override
+        public synchronized boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public Flags getPermanentFlags() {
+            return new Flags();
+        }
+
+        @Override
+        public synchronized int getMessageCount() throws MessagingException {
+            checkOpen();
+            return live.length;
+        }
+
+        @Override
+        public synchronized Message getMessage(int number) throws MessagingException {
+            checkOpen();
+            if (number < 1 || number > live.length) throw new IndexOutOfBoundsException("Message " + number + " does not exist");
+            int index = live[number - 1];
+            LocalMessage message = cached(index);
+            if (message == null) {
+                try (InputStream stream = source.newStream(index)) {
+                    message = new LocalMessage(this, stream, number, index);
+                } catch (IOException exception) {
+                    throw new MessagingException("Could not read message " + number + " of " + path, exception);
+                }
+                cache.set(index, new SoftReference<>(message));
+            }
+            return message;
+        }
+
+        /**
+         * Returns the parsed message at the given index of the source, or null if it was not parsed or was reclaimed.
+         */
+        private LocalMessage cached(int index) {
+            SoftReference<LocalMessage> reference = cache.get(index);
+            return reference == null ? null : reference.get();
+        }
+
+        @Override
+        public void appendMessages(Message[] messages) throws MessagingException {
+            throw new MethodNotSupportedException("Local mailboxes are read only");
+        }
+
+        /**
+         * Removes the deleted messages from the open folder, leaving the mailbox on disk untouched.
+         */
+        @Override
+        public synchronized Message[] expunge() throws MessagingException {
+            checkOpen();
+            List<Message> expunged = new ArrayList<>();
+            int[] remaining = new int[live.length];
+            int count = 0;
+            for (int index : live) {
+                if (flagsOf(index).contains(Flags.Flag.DELETED)) {
+                    LocalMessage message = cached(index);
+                    if (message != null) {
+                        message.expunge();
+                        expunged.add(message);
+                    }
+                }
+                else {
+                    LocalMessage message = cached(index);
+                    if (message != null) message.renumber(count + 1);
+                    remaining[count++] = index;
+                }
+            }
+            live = Arrays.copyOf(remaining, count);
+            if (!expunged.isEmpty()) notifyMessageRemovedListeners(true, expunged.toArray(new Message[0]));
+            return expunged.toArray(new Message[0]);
+        }
+
+        @Override
+        public synchronized long getUIDValidity() throws MessagingException {
+            checkOpen();
+            return uidValidity;
+        }
+
+        @Override
+        public synchronized Message getMessageByUID(long uid) throws MessagingException {
+            checkOpen();
+            int number = Arrays.binarySearch(live, (int) (uid - 1));
+            return number < 0 ? null : getMessage(number + 1);
+        }
+
+        @Override
+        public synchronized Message[] getMessagesByUID(long start, long end) throws MessagingException {
+            checkOpen();
+            long last = end == UIDFolder.LASTUID ? Long.MAX_VALUE : end;
+            List<Message> messages = new ArrayList<>();
+            for (int number = 0; number < live.length; number++)
+                if (live[number] + 1L >= start && live[number] + 1L <= last) messages.add(getMessage(number + 1));
+            return messages.toArray(new Message[0]);
+        }
+
+        @Override
+        public synchronized Message[] getMessagesByUID(long[] uids) throws MessagingException {
+            Message[] messages = new Message[uids.length];
+            for (int index = 0; index < uids.length; index++) messages[index] = getMessageByUID(uids[index]);
+            return messages;
+        }
+
+        @Override
+        public long getUID(Message message) throws MessagingException {
+            if (!(message instanceof LocalMessage localMessage) || message.getFolder() != this)
+                throw new NoSuchElementException("Message does not belong to this folder");
+            return localMessage.index + 1L;
+        }
+
+        @Override
+        public synchronized long getUIDNext() throws MessagingException {
+            checkOpen();
+            return source.size() + 1L;
+        }
+
+        private synchronized Flags flagsOf(int index) {
+            return flags.computeIfAbsent(index, source::flags);
+        }
+
+        private void checkOpen() throws MessagingException {
+            if (!open) throw new FolderClosedException(this, "Folder is not open");
+        }
+    }
+
+    /**
+     * A message of a local mailbox, keeping its flags in its folder.
+     */
+    public static class LocalMessage extends MimeMessage {
+
+        private final int index;
+
+        LocalMessage(LocalFolder folder, InputStream stream, int number, int index) throws MessagingException {
+            super(folder, stream, number);
+            this.index = index;
+        }
+
+        void renumber(int number) {
+            setMessageNumber(number);
+        }
+
+        void expunge() {
+            setExpunged(true);
+        }
+
+        @Override
+        public Flags getFlags() {
+            synchronized (folder) {
+                return new Flags(((LocalFolder) folder).flagsOf(index));
+            }
+        }
+
+        @Override
+        public boolean isSet(Flags.Flag flag) {
+            synchronized (folder) {
+                return ((LocalFolder) folder).flagsOf(index).contains(flag);
+            }
+        }
+
+        @Override
+        public void setFlags(Flags flag, boolean set) {
+            synchronized (folder) {
+                Flags flags = ((LocalFolder) folder).flagsOf(index);
+                if (set) flags.add(flag);
+                else flags.remove(flag);
+            }
+        }
+    }
+}
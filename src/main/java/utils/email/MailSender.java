@@ -0,0 +1,320 @@
+package utils.email;
+
+import context.ContextStore;
+import jakarta.mail.*;
+import jakarta.mail.internet.MimeMessage;
+import utils.Printer;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Sends email messages over connected {@link Transport}s kept open per sender account.
+ * <p>
+ * Every account (protocol, host, port and user name) gets one sender, holding up to "email-smtp-connections"
+ * (4 by default) authenticated transports, so that consecutive messages skip the TCP, TLS and AUTH handshakes.
+ * The same number also bounds how many messages of the account are being sent at once.
+ * A transport that fails to send a message is reconnected and the message is retried once; messages rejected
+ * by the server for their recipients ({@link SendFailedException}) are not retried.
+ * <p>
+ * Messages are sent synchronously with {@link #send(MimeMessage)}, in batches over a single transport with
+ * {@link #sendAll(List)}, in one batch per transport on background threads with {@link #sendInBatches(List)},
+ * or on a background thread with {@link #sendAsync(MimeMessage)}.
+ */
+@SuppressWarnings({"unused", "UnusedReturnValue"})
+public class MailSender {
+
+    private static final Printer log = new Printer(MailSender.class);
+
+    private static final Map<MailboxPool.Key, MailSender> senders = new ConcurrentHashMap<>();
+
+    /**
+     * The executor shared by every sender for asynchronous sends, running "email-sender-threads" daemon threads.
+     * Concurrency is additionally bounded per account by the sender's permits.
+     */
+    private static final ExecutorService executor = Executors.newFixedThreadPool(
+            Integer.parseInt(ContextStore.get("email-sender-threads", "8")),
+            runnable -> {
+                Thread thread = new Thread(runnable, "email-sender");
+                thread.setDaemon(true);
+                return thread;
+            }
+    );
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> senders.values().forEach(MailSender::close)));
+    }
+
+    private final MailboxPool.Key key;
+    private final String password;
+    private final Session session;
+    private final int connections;
+    private final Semaphore permits;
+    private final Deque<Transport> transports = new ConcurrentLinkedDeque<>();
+    private volatile boolean closed;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong sendNanos = new AtomicLong();
+
+    /**
+     * Returns the sender of the given account, creating it on first use. The account key holds no credentials,
+     * so a sender created with another password is closed and replaced, rather than sending with stale credentials.
+     *
+     * @param key        the account to send from
+     * @param properties the session properties of the account
+     * @param password   the password of the account
+     * @return the shared sender of the account
+     */
+    public static MailSender of(MailboxPool.Key key, Properties properties, String password) {
+        return of(key, () -> properties, password);
+    }
+
+    /**
+     * Returns the sender of the given account, creating it on first use with the supplied session properties,
+     * so that the properties are only built when a sender is created.
+     *
+     * @param key        the account to send from
+     * @param properties the supplier of the session properties of the account
+     * @param password   the password of the account
+     * @return the shared sender of the account
+     */
+    public static MailSender of(MailboxPool.Key key, Supplier<Properties> properties, String password) {
+        MailSender sender = senders.get(key);
+        if (sender != null && Objects.equals(sender.password, password)) return sender;
+        return senders.compute(key, (k, current) -> {
+            if (current != null && Objects.equals(current.password, password)) return current;
+            if (current != null) current.close();
+            return new MailSender(k, properties.get(), password);
+        });
+    }
+
+    /**
+     * Constructs a sender for the given account.
+     *
+     * @param key        the account to send from
+     * @param properties the session properties of the account
+     * @param password   the password of the account
+     */
+    public MailSender(MailboxPool.Key key, Properties properties, String password) {
+        this.key = key;
+        this.password = password;
+        this.session = Session.getInstance(properties);
+        this.connections = Math.max(1, Integer.parseInt(ContextStore.get("email-smtp-connections", "4")));
+        this.permits = new Semaphore(connections);
+    }
+
+    /**
+     * Returns the session of this sender, which messages sent through it should be created with.
+     *
+     * @return the session
+     */
+    public Session getSession() {
+        return session;
+    }
+
+    /**
+     * Sends a message over a pooled transport.
+     *
+     * @param message the message to send
+     * @throws MessagingException if the message could not be sent
+     */
+    public void send(MimeMessage message) throws MessagingException {
+        sendAll(List.of(message));
+    }
+
+    /**
+     * Sends the given messages one after another over a single pooled transport.
+     *
+     * @param messages the messages to send
+     * @throws MessagingException if a message could not be sent, in which case the following ones are not sent
+     */
+    public void sendAll(List<MimeMessage> messages) throws MessagingException {
+        transmit(messages, true);
+    }
+
+    /**
+     * Splits the given messages into one batch per transport, and sends every batch with a single pooled transport
+     * on a background thread. A message that could not be sent is logged and skipped, rather than failing the rest
+     * of its batch.
+     *
+     * @param messages the messages to send
+     * @return a future completing with the number of messages sent
+     */
+    public CompletableFuture<Integer> sendInBatches(List<MimeMessage> messages) {
+        int batchSize = Math.max(1, (messages.size() + connections - 1) / connections);
+        List<CompletableFuture<Integer>> batches = new ArrayList<>(connections);
+        for (int start = 0; start < messages.size(); start += batchSize) {
+            List<MimeMessage> batch = messages.subList(start, Math.min(start + batchSize, messages.size()));
+            batches.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return transmit(batch, false);
+                } catch (MessagingException exception) {
+                    throw new CompletionException(exception);
+                }
+            }, executor));
+        }
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0]))
+                .thenApply(done -> batches.stream().mapToInt(CompletableFuture::join).sum());
+    }
+
+    /**
+     * Sends the given messages one after another over a single pooled transport.
+     *
+     * @param messages      the messages to send
+     * @param stopOnFailure true to stop at the first message that could not be sent, false to skip it
+     * @return the number of messages sent
+     * @throws MessagingException if a message could not be sent and the batch stops on failures
+     */
+    private int transmit(List<MimeMessage> messages, boolean stopOnFailure) throws MessagingException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for a transport", exception);
+        }
+        Transport transport = null;
+        int sentCount = 0;
+        try {
+            for (MimeMessage message : messages) {
+                long start = System.nanoTime();
+                try {
+                    if (transport == null) transport = lease();
+                    try {
+                        transport.sendMessage(message, message.getAllRecipients());
+                    } catch (SendFailedException exception) {
+                        throw exception;
+                    } catch (MessagingException exception) {
+                        // A broken transport may still pass as connected, so the retry always reconnects
+                        log.warning("Sending failed, reconnecting: " + exception.getLocalizedMessage());
+                        close(transport);
+                        transport = null;
+                        transport = connect();
+                        reconnects.incrementAndGet();
+                        transport.sendMessage(message, message.getAllRecipients());
+                    }
+                    sent.incrementAndGet();
+                    sentCount++;
+                } catch (MessagingException exception) {
+                    failed.incrementAndGet();
+                    if (stopOnFailure) throw exception;
+                    log.warning("Could not send email: " + exception.getLocalizedMessage());
+                } finally {
+                    sendNanos.addAndGet(System.nanoTime() - start);
+                }
+            }
+            return sentCount;
+        } finally {
+            if (transport != null) transports.offerFirst(transport);
+            if (closed) close(); // Replaced while sending, the transport is not reused
+            permits.release();
+        }
+    }
+
+    /**
+     * Sends a message over a pooled transport on a background thread.
+     *
+     * @param message the message to send
+     * @return a future completing once the message is sent, or exceptionally if it could not be sent
+     */
+    public CompletableFuture<Void> sendAsync(MimeMessage message) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                send(message);
+            } catch (MessagingException exception) {
+                throw new CompletionException(exception);
+            }
+        }, executor);
+    }
+
+    /**
+     * Sends every given message on a background thread, spread over the pooled transports.
+     *
+     * @param messages the messages to send
+     * @return a future per message, in the order of the messages
+     */
+    public List<CompletableFuture<Void>> sendAllAsync(List<MimeMessage> messages) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(messages.size());
+        for (MimeMessage message : messages) futures.add(sendAsync(message));
+        return futures;
+    }
+
+    /**
+     * Returns the send metrics of this sender.
+     *
+     * @return the metrics
+     */
+    public Metrics getMetrics() {
+        return new Metrics(sent.get(), failed.get(), connects.get(), reconnects.get(), sendNanos.get());
+    }
+
+    /**
+     * Closes every pooled transport of this sender, and the transports still sending once they are done.
+     */
+    public void close() {
+        closed = true;
+        Transport transport;
+        while ((transport = transports.pollFirst()) != null) {
+            try {
+                transport.close();
+            } catch (MessagingException exception) {
+                log.warning("Could not close transport: " + exception.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * A snapshot of the metrics of a sender.
+     *
+     * @param sent       the number of messages sent
+     * @param failed     the number of messages that could not be sent
+     * @param connects   the number of transport connections opened
+     * @param reconnects the number of transports reconnected after a failure
+     * @param sendNanos  the total time spent sending messages, in nanoseconds
+     */
+    public record Metrics(long sent, long failed, long connects, long reconnects, long sendNanos) {
+
+        /**
+         * Returns the number of messages sent per second a transport spent sending, i.e. the throughput of a single
+         * transport. The throughput of the sender is this rate times the number of transports sending concurrently.
+         *
+         * @return the throughput of a transport in messages per second
+         */
+        public double messagesPerSecond() {
+            return sendNanos == 0 ? 0 : sent / (sendNanos / 1e9);
+        }
+    }
+
+    private Transport lease() throws MessagingException {
+        Transport transport = transports.pollFirst();
+        return transport != null ? transport : connect();
+    }
+
+    private Transport connect() throws MessagingException {
+        Transport transport = session.getTransport(key.protocol());
+        transport.connect(key.host(), Integer.parseInt(key.port()), key.userName(), password);
+        connects.incrementAndGet();
+        return transport;
+    }
+
+    private static void close(Transport transport) {
+        try {
+            transport.close();
+        } catch (MessagingException ignored) {}
+    }
+}
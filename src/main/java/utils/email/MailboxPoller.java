@@ -0,0 +1,240 @@
+package utils.email;
+
+import collections.Pair;
+import context.ContextStore;
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import utils.Printer;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls a mailbox folder on behalf of every waiter of an account, so that any number of concurrent acquisitions
+ * cost a single sync loop against the server.
+ * <p>
+ * Each poll leases one pooled connection, fetches only the messages that arrived since the previous poll
+ * (see {@link MailboxWatermark}) and dispatches them to the registered waiters. The poller only polls while
+ * it has waiters; when the first waiter registers, the watermark is moved to the current head of the mailbox,
+ * so that messages arriving while nobody was waiting are not mistaken for new ones.
+ * <p>
+ * Pollers are shared per account and folder (see {@link #of}), and connect with the credentials of the inbox that
+ * asked for them last, rather than holding on to any inbox. A poller is retired and forgotten once its last waiter
+ * is gone; a waiter registering with a poller that was retired in the meantime is handed to the poller replacing it,
+ * so that an account and folder are never polled twice.
+ */
+@SuppressWarnings("unused")
+public class MailboxPoller extends MessageDispatcher {
+
+    private static final Printer log = new Printer(MailboxPoller.class);
+
+    /**
+     * The scheduler shared by every poller, running on daemon threads.
+     */
+    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+            Integer.parseInt(ContextStore.get("email-poller-threads", "2")),
+            runnable -> {
+                Thread thread = new Thread(runnable, "email-poller");
+                thread.setDaemon(true);
+                return thread;
+            }
+    );
+
+    /**
+     * The pollers that have waiters, shared by every inbox of the same account and folder.
+     */
+    private static final Map<Pair<MailboxPool.Key, String>, MailboxPoller> pollers = new ConcurrentHashMap<>();
+
+    private final long pollInterval = Long.parseLong(ContextStore.get("email-poll-interval", "1000"));
+    private final MailboxPool.Key account;
+    private final String folderName;
+    private final MailboxWatermark watermark = new MailboxWatermark();
+    private volatile Properties properties;
+    private volatile String password;
+    private volatile boolean retired;
+    private ScheduledFuture<?> schedule;
+    private CompletableFuture<Void> primed = new CompletableFuture<>();
+
+    /**
+     * Returns the poller of the given folder of an account, creating it on first use or once the previous one retired.
+     * An existing poller connects with the given credentials from now on.
+     *
+     * @param account    the account to poll
+     * @param folderName the full name of the folder to poll
+     * @param properties the session properties of the account
+     * @param password   the password of the account
+     * @return the shared poller of the folder
+     */
+    public static MailboxPoller of(MailboxPool.Key account, String folderName, Properties properties, String password) {
+        return pollers.compute(Pair.of(account, folderName), (key, poller) -> {
+            if (poller == null || poller.retired) return new MailboxPoller(account, folderName, properties, password);
+            poller.setCredentials(properties, password);
+            return poller;
+        });
+    }
+
+    /**
+     * Constructs a poller for the given folder of an account.
+     *
+     * @param account    the account to poll
+     * @param folderName the full name of the folder to poll
+     * @param properties the session properties of the account
+     * @param password   the password of the account
+     */
+    public MailboxPoller(MailboxPool.Key account, String folderName, Properties properties, String password) {
+        this.account = account;
+        this.folderName = folderName;
+        this.properties = properties;
+        this.password = password;
+    }
+
+    /**
+     * Sets the credentials new connections of this poller are authenticated with.
+     *
+     * @param properties the session properties of the account
+     * @param password   the password of the account
+     */
+    public void setCredentials(Properties properties, String password) {
+        this.properties = properties;
+        this.password = password;
+    }
+
+    public MailboxPool.Key getAccount() {
+        return account;
+    }
+
+    public String getFolderName() {
+        return folderName;
+    }
+
+    /**
+     * Registers a waiter, starting the poll loop if it is the first one. The first registrant primes the watermark
+     * outside the poller's lock, and later registrants wait for that prime to complete, so that no message arriving
+     * after this method returns is missed. A waiter registering with a retired poller is handed to its replacement.
+     *
+     * @param waiter the waiter to register
+     */
+    @Override
+    public void register(MessageWaiter waiter) {
+        boolean first = false;
+        CompletableFuture<Void> priming;
+        synchronized (this) {
+            if (retired) priming = null;
+            else {
+                first = !isPolling();
+                if (first) {
+                    primed = new CompletableFuture<>();
+                    start();
+                }
+                super.register(waiter);
+                priming = primed;
+            }
+        }
+        if (priming == null) {
+            of(account, folderName, properties, password).register(waiter);
+            return;
+        }
+        if (first) {
+            try {
+                prime();
+            } finally {
+                priming.complete(null);
+            }
+        }
+        else priming.join();
+    }
+
+    /**
+     * Returns whether the folder is currently being polled.
+     *
+     * @return true if the poll loop is running
+     */
+    protected boolean isPolling() {
+        return schedule != null && !schedule.isDone();
+    }
+
+    /**
+     * Returns whether the watermark has been primed since the first waiter registered,
+     * before which new messages cannot be told apart from the ones already in the folder.
+     *
+     * @return true if the watermark is primed
+     */
+    protected synchronized boolean isPrimed() {
+        return primed.isDone();
+    }
+
+    /**
+     * Starts the poll loop. Polls are skipped until the watermark is primed.
+     */
+    protected void start() {
+        schedule = scheduler.scheduleWithFixedDelay(this::poll, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Polls the mailbox once, dispatching the messages that arrived since the previous poll.
+     * The poller is retired once no waiter is left.
+     */
+    void poll() {
+        boolean retiring;
+        synchronized (this) {
+            if (!primed.isDone()) return;
+            retiring = !hasWaiters();
+            if (retiring) {
+                retired = true;
+                if (schedule != null) schedule.cancel(false);
+                schedule = null;
+            }
+        }
+        if (retiring) pollers.remove(Pair.of(account, folderName), this);
+        else sync();
+    }
+
+    /**
+     * Fetches the messages that arrived since the previous sync over one leased connection,
+     * and dispatches them to the registered waiters.
+     */
+    protected void sync() {
+        MailboxPool.Connection connection = null;
+        try {
+            connection = EmailUtilities.Inbox.pool.lease(account, properties, password, folderName, Folder.READ_ONLY);
+            Folder folder = connection.getFolder();
+            Message[] messages = watermark.sync(folder);
+            if (messages.length > 0) {
+                folder.fetch(messages, EmailUtilities.Inbox.envelopeProfile);
+                for (Message message : messages) dispatch(message);
+            }
+            connection.release();
+        } catch (MessagingException | RuntimeException exception) {
+            if (connection != null) connection.invalidate();
+            log.warning("Could not poll " + this + ": " + exception.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Moves the watermark to the current head of the mailbox without dispatching anything.
+     */
+    protected void prime() {
+        MailboxPool.Connection connection = null;
+        try {
+            connection = EmailUtilities.Inbox.pool.lease(account, properties, password, folderName, Folder.READ_ONLY);
+            watermark.reset();
+            watermark.sync(connection.getFolder());
+            connection.release();
+        } catch (MessagingException | RuntimeException exception) {
+            if (connection != null) connection.invalidate();
+            log.warning("Could not sync " + this + ": " + exception.getLocalizedMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return account.userName() + "@" + account.host() + "/" + folderName;
+    }
+}
@@ -0,0 +1,297 @@
+package utils.email;
+
+import context.ContextStore;
+import jakarta.mail.*;
+import utils.Printer;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * A pool of authenticated mail store connections and their opened folders.
+ * <p>
+ * Connections are pooled per account (protocol, host, port and user name) so that repeated inbox polls
+ * reuse an already authenticated {@link Store} instead of redoing the TLS handshake and login every time.
+ * A connection is leased exclusively by one caller and returned to the pool once the caller is done with it.
+ * Idle connections are revalidated with a cheap liveness check before being handed out again, and are discarded
+ * when they have been idle for too long or when the pool for the account is already full. A pooled connection is
+ * only handed out to callers leasing it with the same session properties and password it was created with,
+ * so changed settings or credentials take effect on the next lease.
+ * <p>
+ * POP3 offers no way to refresh an open maildrop, and local folders (see {@link LocalMailStore}) show their mailbox
+ * as it was when they were opened, so both are reopened on every read-only lease in order to observe newly arrived
+ * messages. IMAP folders stay open between leases.
+ */
+@SuppressWarnings({"unused", "UnusedReturnValue"})
+public class MailboxPool {
+
+    private static final Printer log = new Printer(MailboxPool.class);
+
+    /**
+     * The pools whose idle connections are closed when the JVM shuts down, held weakly so that unused pools can
+     * still be collected.
+     */
+    private static final Set<MailboxPool> pools = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            List<MailboxPool> openPools;
+            synchronized (pools) {
+                openPools = List.copyOf(pools);
+            }
+            openPools.forEach(MailboxPool::closeAll);
+        }));
+    }
+
+    /**
+     * The maximum number of idle connections kept per account.
+     */
+    private final int maxIdleConnections = Integer.parseInt(ContextStore.get("email-pool-max-idle", "4"));
+
+    /**
+     * The time (in milliseconds) after which an idle connection is revalidated before being reused.
+     */
+    private final long validationInterval = Long.parseLong(ContextStore.get("email-pool-validation-interval", "5000"));
+
+    /**
+     * The time (in milliseconds) after which an idle connection is discarded instead of being reused.
+     */
+    private final long idleTimeout = Long.parseLong(ContextStore.get("email-pool-idle-timeout", "300000"));
+
+    private final Map<Key, Deque<Connection>> idleConnections = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new mailbox pool, closing its idle connections when the JVM shuts down.
+     */
+    public MailboxPool() {
+        pools.add(this);
+    }
+
+    /**
+     * A record identifying a mail account connections are pooled for.
+     *
+     * @param protocol the store protocol (e.g. "pop3", "imap")
+     * @param host     the hostname of the mail server
+     * @param port     the port of the mail server
+     * @param userName the user name the connection is authenticated with
+     */
+    public record Key(String protocol, String host, String port, String userName) {}
+
+    /**
+     * Leases a connection to the given folder, reusing a pooled one if available.
+     *
+     * @param key        the account to connect to
+     * @param properties the session properties of the connection
+     * @param password   the password the connection is authenticated with
+     * @param folderName the name of the folder to open
+     * @param mode       the folder open mode, {@link Folder#READ_ONLY} or {@link Folder#READ_WRITE}
+     * @return a connection with the requested folder opened in the requested mode
+     * @throws MessagingException if a connection could not be established
+     */
+    public Connection lease(Key key, Properties properties, String password, String folderName, int mode) throws MessagingException {
+        Deque<Connection> pool = idleConnections.computeIfAbsent(key, k -> new ConcurrentLinkedDeque<>());
+        byte[] credentials = fingerprintOf(properties, password);
+        Connection connection;
+        while ((connection = pool.pollFirst()) != null) {
+            // Connections created with other settings or credentials are closed rather than reused
+            if (Arrays.equals(connection.credentials, credentials) && connection.isReusable()) {
+                try {
+                    connection.prepare(folderName, mode);
+                    return connection;
+                } catch (MessagingException | RuntimeException exception) {
+                    // The pooled connection went stale, so the next one is tried
+                    log.warning("Could not reuse the mail connection: " + exception.getLocalizedMessage());
+                }
+            }
+            connection.discard();
+        }
+        log.info("Connecting please wait....");
+        Store store = Session.getInstance(properties).getStore(key.protocol());
+        store.connect(key.userName(), password);
+        connection = new Connection(key, store, credentials);
+        try {
+            connection.prepare(folderName, mode);
+        } catch (MessagingException | RuntimeException exception) {
+            connection.discard();
+            throw exception;
+        }
+        log.info("Connected to mail via " + key.host());
+        return connection;
+    }
+
+    /**
+     * Returns a leased connection to the pool, or closes it if the pool for its account is full.
+     *
+     * @param connection the connection to return
+     */
+    public void release(Connection connection) {
+        Deque<Connection> pool = idleConnections.computeIfAbsent(connection.key, k -> new ConcurrentLinkedDeque<>());
+        connection.lastUsed = System.currentTimeMillis();
+        if (pool.size() < maxIdleConnections) pool.offerFirst(connection);
+        else connection.discard();
+    }
+
+    /**
+     * Closes and evicts every idle connection of the given account.
+     *
+     * @param key the account whose connections should be evicted
+     */
+    public void evict(Key key) {
+        Deque<Connection> pool = idleConnections.remove(key);
+        if (pool != null) pool.forEach(Connection::discard);
+    }
+
+    /**
+     * Closes and evicts every idle connection in the pool.
+     */
+    public void closeAll() {
+        idleConnections.keySet().forEach(this::evict);
+    }
+
+    /**
+     * Returns a digest of the session properties and password a connection is created with,
+     * telling whether a pooled connection was created with the same ones.
+     */
+    private static byte[] fingerprintOf(Properties properties, String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(new TreeMap<>(properties).toString().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(password).getBytes(StandardCharsets.UTF_8));
+            return digest.digest();
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    /**
+     * An authenticated store connection together with the folder it currently has open.
+     */
+    public class Connection {
+        private final Key key;
+        private final Store store;
+        private final byte[] credentials;
+        private Folder folder;
+        private long lastUsed = System.currentTimeMillis();
+        private long lastValidated = System.currentTimeMillis();
+
+        Connection(Key key, Store store, byte[] credentials) {
+            this.key = key;
+            this.store = store;
+            this.credentials = credentials;
+        }
+
+        public Store getStore() {
+            return store;
+        }
+
+        public Folder getFolder() {
+            return folder;
+        }
+
+        public Key getKey() {
+            return key;
+        }
+
+        /**
+         * Returns this connection to the pool it was leased from.
+         */
+        public void release() {
+            MailboxPool.this.release(this);
+        }
+
+        /**
+         * Closes this connection without returning it to the pool, used when the connection is known to be broken.
+         */
+        public void invalidate() {
+            discard();
+        }
+
+        /**
+         * Commits pending flag changes (such as deletions) of the open folder to the server.
+         * IMAP folders are expunged in place, while POP3 folders can only commit deletions when they are closed
+         * and are therefore reopened on the next lease.
+         *
+         * @throws MessagingException if the changes could not be committed
+         */
+        public void commit() throws MessagingException {
+            if (folder == null || !folder.isOpen()) return;
+            if (isPop3()) folder.close(true);
+            else folder.expunge();
+        }
+
+        /**
+         * Commits pending deletions part way through a bulk operation, without closing the folder.
+         * IMAP folders are expunged in place, while POP3 folders can only commit deletions when they are closed,
+         * so their deletions are left pending until {@link #commit()}.
+         *
+         * @return true if the deleted messages were expunged, renumbering the remaining ones
+         * @throws MessagingException if the folder could not be expunged
+         */
+        public boolean checkpoint() throws MessagingException {
+            if (folder == null || !folder.isOpen() || isPop3()) return false;
+            folder.expunge();
+            return true;
+        }
+
+        /**
+         * Checks whether this idle connection can be handed out again. The liveness of the store is only checked
+         * once the validation interval has elapsed, keeping back-to-back leases free of extra round trips.
+         *
+         * @return true if the connection is still usable
+         */
+        private boolean isReusable() {
+            long now = System.currentTimeMillis();
+            if (now - lastUsed > idleTimeout) return false;
+            if (now - lastValidated > validationInterval) {
+                if (!store.isConnected()) return false;
+                lastValidated = now;
+            }
+            return true;
+        }
+
+        /**
+         * Makes sure the requested folder is open in the requested mode, reopening it only when necessary.
+         */
+        private void prepare(String folderName, int mode) throws MessagingException {
+            boolean sameFolder = folder != null && folder.getFullName().equalsIgnoreCase(folderName);
+            if (sameFolder && folder.isOpen() && folder.getMode() == mode && !(isSnapshot() && mode == Folder.READ_ONLY))
+                return;
+            if (folder != null && folder.isOpen()) folder.close(false);
+            if (!sameFolder) folder = store.getFolder(folderName);
+            folder.open(mode);
+        }
+
+        private boolean isPop3() {
+            return key.protocol().startsWith("pop3");
+        }
+
+        /**
+         * Checks whether the open folder only shows the messages that were there when it was opened.
+         */
+        private boolean isSnapshot() {
+            return isPop3() || folder instanceof LocalMailStore.LocalFolder;
+        }
+
+        private void discard() {
+            try {
+                if (folder != null && folder.isOpen()) folder.close(false);
+                store.close();
+            } catch (MessagingException exception) {
+                log.warning("Could not close the mail connection: " + exception.getLocalizedMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package utils.email;
+
+import collections.Pair;
+import context.ContextStore;
+import utils.Printer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the folders of any number of accounts for new messages over a small, fixed pool of scheduler threads,
+ * so that watching more accounts and folders costs neither more threads nor more connections per host.
+ * <p>
+ * Watched folders take turns in a single round-robin queue. Every "email-watcher-threads" worker (2 by default)
+ * repeatedly takes the next folder off the queue, polls it if it has waiters and its "email-poll-interval"
+ * (1000 milliseconds by default) has elapsed, and puts it back at the end of the queue, so that no folder is polled
+ * twice before every other due folder has had its turn. At most "email-watcher-host-connections" folders
+ * (2 by default) are polled on the same host at a time; a folder whose host is busy keeps its place for the
+ * next round, while the worker moves on to folders of other hosts. Folders without waiters are never polled.
+ * <p>
+ * Each watched folder is a {@link MessageDispatcher}, and inboxes watched by a watcher register their waits and
+ * subscriptions with it (see {@link EmailUtilities.Inbox#awaitMessages} and {@link EmailUtilities.Inbox#subscribe}).
+ * A folder is shared by every inbox of the same account and folder, and is watched until the last of them is
+ * unwatched. Watched inboxes are only referenced weakly, so an inbox nobody uses anymore is not retained by
+ * the watcher, and its folder is dropped once it has no waiters left.
+ */
+@SuppressWarnings("unused")
+public class MailboxWatcher implements AutoCloseable {
+
+    private static final Printer log = new Printer(MailboxWatcher.class);
+
+    private static MailboxWatcher defaultWatcher;
+
+    private final long pollInterval;
+    private final int hostConnections;
+    private final ScheduledExecutorService scheduler;
+    private final Map<Pair<MailboxPool.Key, String>, WatchedFolder> folders = new ConcurrentHashMap<>();
+    private final Queue<WatchedFolder> queue = new ConcurrentLinkedQueue<>();
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the watcher shared by every inbox that does not bring its own, creating it on first use.
+     *
+     * @return the shared watcher
+     */
+    public static synchronized MailboxWatcher getDefault() {
+        if (defaultWatcher == null) defaultWatcher = new MailboxWatcher();
+        return defaultWatcher;
+    }
+
+    /**
+     * Constructs a watcher configured by the "email-watcher-threads", "email-poll-interval" and
+     * "email-watcher-host-connections" properties.
+     */
+    public MailboxWatcher() {
+        this(
+                Integer.parseInt(ContextStore.get("email-watcher-threads", "2")),
+                Long.parseLong(ContextStore.get("email-poll-interval", "1000")),
+                Integer.parseInt(ContextStore.get("email-watcher-host-connections", "2"))
+        );
+    }
+
+    /**
+     * Constructs a watcher.
+     *
+     * @param threads         the number of scheduler threads polling the watched folders
+     * @param pollInterval    the minimum time between two polls of the same folder, in milliseconds
+     * @param hostConnections the maximum number of folders polled on the same host at a time
+     */
+    public MailboxWatcher(int threads, long pollInterval, int hostConnections) {
+        this.pollInterval = pollInterval;
+        this.hostConnections = Math.max(1, hostConnections);
+        this.scheduler = Executors.newScheduledThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "email-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Workers look for due folders a few times per interval, so a folder is polled soon after it is due
+        long tick = Math.max(1, pollInterval / 4);
+        for (int worker = 0; worker < Math.max(1, threads); worker++)
+            scheduler.scheduleWithFixedDelay(this::work, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Watches the folder of the given inbox, and makes the inbox wait for new messages through this watcher.
+     *
+     * @param inbox the inbox whose folder to watch
+     * @return the watched folder
+     */
+    public WatchedFolder watch(EmailUtilities.Inbox inbox) {
+        inbox.setWatcher(this);
+        WatchedFolder watched = folders.compute(Pair.of(inbox.getPoolKey(), inbox.getFolderName()), (key, folder) -> {
+            if (folder == null) {
+                folder = new WatchedFolder(inbox, key.beta());
+                queue.offer(folder);
+            }
+            folder.inboxes.add(inbox);
+            return folder;
+        });
+        watched.setCredentials(inbox.getConnectionProperties(), inbox.getPassword());
+        return watched;
+    }
+
+    /**
+     * Watches the folders of every given inbox.
+     *
+     * @param inboxes the inboxes whose folders to watch
+     * @return the watched folders
+     */
+    public List<WatchedFolder> watchAll(List<EmailUtilities.Inbox> inboxes) {
+        return inboxes.stream().map(this::watch).toList();
+    }
+
+    /**
+     * Stops watching the folder of the given inbox, cancelling the pending waits and subscriptions of that inbox.
+     * The folder is still watched for the other inboxes of the same account and folder, if any.
+     *
+     * @param inbox the inbox whose folder to stop watching
+     */
+    public void unwatch(EmailUtilities.Inbox inbox) {
+        inbox.setWatcher(null);
+        Pair<MailboxPool.Key, String> key = Pair.of(inbox.getPoolKey(), inbox.getFolderName());
+        WatchedFolder folder = folders.get(key);
+        if (folder == null) return;
+        folder.inboxes.remove(inbox);
+        folder.waiters.stream()
+                .filter(waiter -> waiter.getInbox() == inbox)
+                .forEach(waiter -> waiter.getFuture().cancel(false));
+        dropIfUnwatched(folder);
+    }
+
+    /**
+     * Returns the watched folders.
+     *
+     * @return the watched folders
+     */
+    public List<WatchedFolder> getFolders() {
+        return List.copyOf(folders.values());
+    }
+
+    /**
+     * Stops the scheduler threads, and makes every watched inbox poll on its own again.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        for (WatchedFolder folder : folders.values()) {
+            List<EmailUtilities.Inbox> watching;
+            synchronized (folder.inboxes) {
+                watching = List.copyOf(folder.inboxes);
+            }
+            watching.forEach(this::unwatch);
+        }
+        folders.clear();
+        queue.clear();
+    }
+
+    /**
+     * Stops watching a folder once no inbox watches it and no waiter is left.
+     *
+     * @return true if the folder is no longer watched
+     */
+    private boolean dropIfUnwatched(WatchedFolder folder) {
+        Pair<MailboxPool.Key, String> key = Pair.of(folder.getAccount(), folder.getFolderName());
+        folders.computeIfPresent(key, (k, watched) -> watched == folder && watched.inboxes.isEmpty() && !watched.hasWaiters() ? null : watched);
+        if (folders.get(key) == folder) return false;
+        queue.remove(folder);
+        return true;
+    }
+
+    /**
+     * Polls the due folders once around the queue, taking turns with the other workers.
+     */
+    private void work() {
+        for (int turns = queue.size(); turns > 0; turns--) {
+            WatchedFolder folder = queue.poll();
+            if (folder == null) return;
+            try {
+                if (!folder.isDue()) continue;
+                Semaphore permits = permitsOf(folder);
+                if (!permits.tryAcquire()) continue; // Another folder of the host is being polled, retried next round
+                try {
+                    folder.poll();
+                } finally {
+                    permits.release();
+                }
+            } catch (RuntimeException exception) {
+                log.warning("Could not poll " + folder + ": " + exception.getLocalizedMessage());
+            } finally {
+                // Folders whose inboxes were all unwatched or collected leave the queue
+                if (!dropIfUnwatched(folder)) queue.offer(folder);
+            }
+        }
+    }
+
+    private Semaphore permitsOf(WatchedFolder folder) {
+        return hostPermits.computeIfAbsent(folder.getAccount().host(), host -> new Semaphore(hostConnections));
+    }
+
+    /**
+     * A folder of an account watched by this watcher, dispatching its new messages to the registered waiters.
+     * It syncs like a {@link MailboxPoller}, but is polled by the watcher's workers instead of a loop of its own.
+     */
+    public class WatchedFolder extends MailboxPoller {
+
+        private final Set<EmailUtilities.Inbox> inboxes = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+        private volatile long nextPoll;
+        private volatile long pollCount;
+
+        WatchedFolder(EmailUtilities.Inbox inbox, String folderName) {
+            super(inbox.getPoolKey(), folderName, inbox.getConnectionProperties(), inbox.getPassword());
+        }
+
+        /**
+         * Returns the number of times this folder was polled.
+         *
+         * @return the poll count
+         */
+        public long getPollCount() {
+            return pollCount;
+        }
+
+        private boolean isDue() {
+            return hasWaiters() && System.currentTimeMillis() >= nextPoll;
+        }
+
+        /**
+         * Returns whether the folder is being watched for waiters, in which case its watermark is already primed.
+         *
+         * @return true if the folder has waiters
+         */
+        @Override
+        protected boolean isPolling() {
+            return hasWaiters();
+        }
+
+        /**
+         * Schedules the first poll once the first waiter registers. The workers poll the folder from then on.
+         */
+        @Override
+        protected void start() {
+            nextPoll = System.currentTimeMillis() + pollInterval;
+        }
+
+        /**
+         * Moves the watermark to the current head of the folder, within the connections allowed on its host,
+         * so that messages arriving while nobody was waiting are not mistaken for new ones.
+         */
+        @Override
+        protected void prime() {
+            Semaphore permits = permitsOf(this);
+            permits.acquireUninterruptibly();
+            try {
+                super.prime();
+            } finally {
+                permits.release();
+            }
+        }
+
+        /**
+         * Polls the folder once, dispatching the messages that arrived since the previous poll.
+         * Only one worker polls the folder at a time, as it is off the queue while being polled.
+         */
+        @Override
+        void poll() {
+            if (!isPrimed()) return;
+            nextPoll = System.currentTimeMillis() + pollInterval;
+            pollCount++;
+            sync();
+        }
+    }
+}
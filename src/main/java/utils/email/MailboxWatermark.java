@@ -0,0 +1,140 @@
+package utils.email;
+
+import com.sun.mail.pop3.POP3Folder;
+import jakarta.mail.FetchProfile;
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.UIDFolder;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tracks how far a folder has been synchronized, so that each sync only returns the messages that arrived since.
+ * <p>
+ * IMAP folders are tracked by UIDVALIDITY and the highest UID seen, making a sync of an unchanged mailbox
+ * a single {@code UID FETCH} round trip. POP3 folders are tracked by the set of UIDL values seen, which are
+ * retrieved with a single {@code UIDL} command. Other folders are tracked by message count.
+ */
+public class MailboxWatermark {
+
+    private static final FetchProfile uidProfile = new FetchProfile();
+
+    static {
+        uidProfile.add(UIDFolder.FetchProfileItem.UID);
+    }
+
+    private long uidValidity = -1;
+    private long lastUid = 0;
+    private final Set<String> seenUids = new HashSet<>();
+    private int messageCount = 0;
+
+    /**
+     * The messages that arrived in a folder since the previous sync, together with the watermark position
+     * past them, which is only taken once the messages have been processed (see {@link #commit(Pending)}).
+     *
+     * @param messages     the new messages, in mailbox order
+     * @param uidValidity  the UIDVALIDITY of an IMAP folder
+     * @param lastUid      the highest UID of an IMAP folder seen once committed
+     * @param currentUids  the UIDL values of every message of a POP3 folder, or null for other folders
+     * @param messageCount the message count of other folders
+     */
+    public record Pending(Message[] messages, long uidValidity, long lastUid, Set<String> currentUids, int messageCount) {}
+
+    /**
+     * Returns the messages that arrived in the given folder since the previous sync, and advances the watermark.
+     * The first sync returns every message in the folder.
+     *
+     * @param folder the open folder to synchronize
+     * @return the new messages, in mailbox order
+     * @throws MessagingException if the messages could not be retrieved
+     */
+    public synchronized Message[] sync(Folder folder) throws MessagingException {
+        Pending pending = peek(folder);
+        commit(pending);
+        return pending.messages();
+    }
+
+    /**
+     * Returns the messages that arrived in the given folder since the previous sync, without advancing the watermark,
+     * so that messages whose processing fails are returned again by the next sync.
+     * The first sync returns every message in the folder.
+     *
+     * @param folder the open folder to synchronize
+     * @return the new messages, to be committed once they are processed
+     * @throws MessagingException if the messages could not be retrieved
+     */
+    public synchronized Pending peek(Folder folder) throws MessagingException {
+        if (folder instanceof UIDFolder uidFolder) return peekByUid(folder, uidFolder);
+        else if (folder instanceof POP3Folder pop3Folder) return peekByUidl(pop3Folder);
+        else return peekByCount(folder);
+    }
+
+    /**
+     * Advances the watermark past processed messages.
+     *
+     * @param pending the messages returned by {@link #peek(Folder)}
+     */
+    public synchronized void commit(Pending pending) {
+        if (pending.currentUids() != null) {
+            // Forget deleted messages, so the set stays bounded by the size of the maildrop
+            seenUids.retainAll(pending.currentUids());
+            seenUids.addAll(pending.currentUids());
+        }
+        else if (pending.uidValidity() != -1) {
+            lastUid = pending.uidValidity() == uidValidity ? Math.max(lastUid, pending.lastUid()) : pending.lastUid();
+            uidValidity = pending.uidValidity();
+        }
+        else messageCount = pending.messageCount();
+    }
+
+    /**
+     * Resets the watermark, so that the next sync returns every message in the folder again.
+     */
+    public synchronized void reset() {
+        uidValidity = -1;
+        lastUid = 0;
+        seenUids.clear();
+        messageCount = 0;
+    }
+
+    private Pending peekByUid(Folder folder, UIDFolder uidFolder) throws MessagingException {
+        long validity = uidFolder.getUIDValidity();
+        long fromUid = validity == uidValidity ? lastUid : 0;
+        Message[] candidates = fromUid == 0 ? folder.getMessages() : uidFolder.getMessagesByUID(fromUid + 1, UIDFolder.LASTUID);
+        folder.fetch(candidates, uidProfile);
+        List<Message> messages = new ArrayList<>(candidates.length);
+        long toUid = fromUid;
+        for (Message message : candidates) {
+            if (message == null) continue;
+            // The range "n:*" always contains the newest message, even when its UID is lower than n
+            long uid = uidFolder.getUID(message);
+            if (uid > fromUid) messages.add(message);
+            toUid = Math.max(toUid, uid);
+        }
+        return new Pending(messages.toArray(new Message[0]), validity, toUid, null, 0);
+    }
+
+    private Pending peekByUidl(POP3Folder folder) throws MessagingException {
+        Message[] candidates = folder.getMessages();
+        folder.fetch(candidates, uidProfile);
+        Set<String> currentUids = new HashSet<>(candidates.length);
+        List<Message> messages = new ArrayList<>();
+        for (Message message : candidates) {
+            String uid = folder.getUID(message);
+            currentUids.add(uid);
+            if (!seenUids.contains(uid)) messages.add(message);
+        }
+        return new Pending(messages.toArray(new Message[0]), -1, 0, currentUids, 0);
+    }
+
+    private Pending peekByCount(Folder folder) throws MessagingException {
+        int total = folder.getMessageCount();
+        int from = total < messageCount ? 0 : messageCount; // Messages were removed, start over
+        Message[] messages = total > from ? folder.getMessages(from + 1, total) : new Message[0];
+        return new Pending(messages, -1, 0, null, total);
+    }
+}
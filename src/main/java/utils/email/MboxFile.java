@@ -0,0 +1,270 @@
+package utils.email;
+
+import jakarta.mail.internet.SharedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A memory-mapped mbox file together with an index of its message boundaries.
+ * <p>
+ * The file is mapped read only in segments of up to 1 GiB, and scanned once for the "From " lines separating its
+ * messages. Messages are then read straight from the mapping through {@link SharedInputStream}s, which lets
+ * {@link jakarta.mail.internet.MimeMessage} parse their headers without copying their content.
+ * Body lines starting with "From " are expected to be quoted as "&gt;From ", as mbox writers do,
+ * and are left quoted. A file that does not start with a "From " line is read as a single message,
+ * so that a lone .eml file can be opened as well.
+ * <p>
+ * Opened files are cached by path, and mapped and indexed again only once their size or modification time changes.
+ * The cache only holds files weakly, so a mapping is released once no open folder reads from it anymore.
+ */
+@SuppressWarnings("unused")
+public class MboxFile {
+
+    private static final byte[] separator = "From ".getBytes(StandardCharsets.US_ASCII);
+    private static final long segmentSize = 1L << 30;
+    private static final Map<Path, WeakReference<MboxFile>> files = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private final long length;
+    private final FileTime lastModified;
+    private final MappedByteBuffer[] segments;
+    private final long[] starts;
+    private final long[] ends;
+
+    /**
+     * Returns the mapped and indexed mbox file at the given path, reusing a previous mapping if the file is unchanged.
+     *
+     * @param path the path of the mbox file
+     * @return the mapped mbox file
+     * @throws IOException if the file could not be read
+     */
+    public static MboxFile open(Path path) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        long length = Files.size(key);
+        FileTime lastModified = Files.getLastModifiedTime(key);
+        WeakReference<MboxFile> reference = files.get(key);
+        MboxFile file = reference == null ? null : reference.get();
+        if (file != null && file.length == length && file.lastModified.equals(lastModified)) return file;
+        file = new MboxFile(key, length, lastModified);
+        files.values().removeIf(cached -> cached.get() == null);
+        files.put(key, new WeakReference<>(file));
+        return file;
+    }
+
+    private MboxFile(Path path, long length, FileTime lastModified) throws IOException {
+        this.path = path;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.segments = new MappedByteBuffer[(int) ((length + segmentSize - 1) / segmentSize)];
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (int index = 0; index < segments.length; index++) {
+                long position = index * segmentSize;
+                segments[index] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(segmentSize, length - position));
+            }
+        }
+        long[] boundaries = boundaries();
+        int count = boundaries.length == 0 ? (length == 0 ? 0 : 1) : boundaries.length;
+        starts = new long[count];
+        ends = new long[count];
+        if (boundaries.length == 0 && count == 1) ends[0] = length;
+        for (int index = 0; index < boundaries.length; index++) {
+            starts[index] = lineEnd(boundaries[index]);
+            ends[index] = index + 1 < boundaries.length ? trimSeparator(boundaries[index + 1]) : length;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns an identifier of this version of the file, changing whenever the file is modified.
+     *
+     * @return the version of the file
+     */
+    public long getVersion() {
+        return Math.abs(31 * (31L * path.hashCode() + length) + lastModified.toMillis());
+    }
+
+    /**
+     * Checks whether this version of the file holds the messages of a previous version at the same indexes,
+     * as it does when messages were only appended to the file since.
+     *
+     * @param previous the previous version of the file
+     * @return true if the file only grew since the previous version
+     */
+    public boolean extendsFile(MboxFile previous) {
+        if (!path.equals(previous.path) || length < previous.length || size() < previous.size()) return false;
+        int last = previous.size() - 1;
+        return last < 0 || starts[last] == previous.starts[last];
+    }
+
+    /**
+     * Returns the number of messages in the file.
+     *
+     * @return the message count
+     */
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * Returns the size of a message, in bytes.
+     *
+     * @param index the zero based index of the message
+     * @return the size of the message
+     */
+    public long size(int index) {
+        return ends[index] - starts[index];
+    }
+
+    /**
+     * Opens a stream over the raw bytes of a message, without its "From " line.
+     *
+     * @param index the zero based index of the message
+     * @return a shared stream over the message
+     */
+    public InputStream newStream(int index) {
+        return new MappedStream(starts[index], ends[index]);
+    }
+
+    /**
+     * Returns the positions of the "From " lines, which start at the beginning of the file or after a line feed.
+     */
+    private long[] boundaries() {
+        if (!startsWithSeparator(0)) return new long[0];
+        long[] boundaries = new long[64];
+        int count = 0;
+        for (int segment = 0; segment < segments.length; segment++) {
+            MappedByteBuffer buffer = segments[segment];
+            long offset = segment * segmentSize;
+            boolean lineStart = segment == 0 || get(offset - 1) == '\n';
+            for (int position = 0; position < buffer.limit(); position++) {
+                if (lineStart && buffer.get(position) == 'F' && startsWithSeparator(offset + position)) {
+                    if (count == boundaries.length) boundaries = Arrays.copyOf(boundaries, count * 2);
+                    boundaries[count++] = offset + position;
+                }
+                lineStart = buffer.get(position) == '\n';
+            }
+        }
+        return Arrays.copyOf(boundaries, count);
+    }
+
+    private boolean startsWithSeparator(long position) {
+        if (position + separator.length > length) return false;
+        for (int index = 0; index < separator.length; index++)
+            if (get(position + index) != separator[index]) return false;
+        return true;
+    }
+
+    /**
+     * Returns the position following the line starting at the given position.
+     */
+    private long lineEnd(long position) {
+        while (position < length && get(position) != '\n') position++;
+        return Math.min(position + 1, length);
+    }
+
+    /**
+     * Returns the end of the message preceding a "From " line, dropping the blank line written before it.
+     */
+    private long trimSeparator(long boundary) {
+        long end = boundary;
+        if (end > 0 && get(end - 1) == '\n') end--;
+        if (end > 0 && get(end - 1) == '\r') end--;
+        return end;
+    }
+
+    private byte get(long position) {
+        return segments[(int) (position / segmentSize)].get((int) (position % segmentSize));
+    }
+
+    /**
+     * A stream over a range of the mapping, sharing the mapping with the streams created from it.
+     */
+    private class MappedStream extends InputStream implements SharedInputStream {
+
+        private final long start;
+        private final long end;
+        private long position;
+        private long mark;
+
+        MappedStream(long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.position = start;
+            this.mark = start;
+        }
+
+        @Override
+        public int read() {
+            return position < end ? get(position++) & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int count) {
+            if (count == 0) return 0;
+            if (position >= end) return -1;
+            int read = (int) Math.min(count, end - position);
+            int copied = 0;
+            while (copied < read) {
+                MappedByteBuffer segment = segments[(int) (position / segmentSize)];
+                int segmentPosition = (int) (position % segmentSize);
+                int chunk = Math.min(read - copied, segment.limit() - segmentPosition);
+                segment.get(segmentPosition, bytes, offset + copied, chunk);
+                copied += chunk;
+                position += chunk;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) {
+            long skipped = Math.max(0, Math.min(count, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public void mark(int readLimit) {
+            mark = position;
+        }
+
+        @Override
+        public void reset() {
+            position = mark;
+        }
+
+        @Override
+        public long getPosition() {
+            return position - start;
+        }
+
+        @Override
+        public InputStream newStream(long from, long to) {
+            return new MappedStream(start + from, to == -1 ? end : start + to);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package utils.email;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+/**
+ * An append-only log of message bodies keyed by name, kept in memory-mapped segment files.
+ * <p>
+ * Each segment ("segment-00000.log", "segment-00001.log" and so on) is mapped at its full size of
+ * "email-archive-segment-bytes" (64 MiB by default) when created, so that appending a message is a copy into the
+ * mapping rather than a write call. A segment holds records of a key length, a content length, the UTF-8 encoded key
+ * and the UTF-8 encoded content, and ends at the first record with a key length of zero. The offset of every record
+ * is kept in an index, which is rebuilt by scanning the segments when an existing archive is opened.
+ * Mappings are flushed by the operating system, or after every append if "email-archive-sync" is enabled.
+ * <p>
+ * An archive directory must only be appended to by one archive at a time.
+ */
+@SuppressWarnings("unused")
+public class MessageArchive {
+
+    private static final int headerBytes = 2 * Integer.BYTES;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final boolean sync;
+    private final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    private int position;
+
+    /**
+     * Opens the archive in the given directory, creating it if it does not exist.
+     *
+     * @param directory    the directory of the segment files
+     * @param segmentBytes the size of each segment, in bytes
+     * @param sync         whether appended messages are flushed to disk before {@link #append} returns
+     * @throws IOException if the existing segments could not be read
+     */
+    public MessageArchive(Path directory, int segmentBytes, boolean sync) throws IOException {
+        if (segmentBytes <= headerBytes) throw new IllegalArgumentException("Segment size must exceed " + headerBytes + " bytes");
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.sync = sync;
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path segment : files.filter(file -> file.getFileName().toString().matches("segment-\\d+\\.log")).sorted().toList())
+                recover(segment);
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Appends a message body under the given key, unless the key is already taken.
+     *
+     * @param key     the key of the message, which must not be empty
+     * @param content the message body
+     * @return true if the message was appended, false if the key is already taken
+     * @throws IOException if a new segment could not be created
+     */
+    public synchronized boolean append(String key, String content) throws IOException {
+        if (key == null || key.isEmpty()) throw new IllegalArgumentException("Archive keys must not be empty");
+        if (index.containsKey(key)) return false;
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] contentBytes = String.valueOf(content).getBytes(StandardCharsets.UTF_8);
+        int recordBytes = headerBytes + keyBytes.length + contentBytes.length;
+        // A terminating zero key length always has to fit after the record
+        if (segments.isEmpty() || position + recordBytes + Integer.BYTES > segments.get(segments.size() - 1).capacity())
+            roll(recordBytes + Integer.BYTES);
+        MappedByteBuffer segment = segments.get(segments.size() - 1);
+        segment.putInt(position + Integer.BYTES, contentBytes.length);
+        segment.put(position + headerBytes, keyBytes);
+        segment.put(position + headerBytes + keyBytes.length, contentBytes);
+        // The key length is written last, so an interrupted append leaves the segment terminated before the record
+        segment.putInt(position, keyBytes.length);
+        if (sync) segment.force(position, recordBytes);
+        index.put(key, new Location(segments.size() - 1, position + headerBytes + keyBytes.length, contentBytes.length));
+        position += recordBytes;
+        return true;
+    }
+
+    /**
+     * Checks whether a message is archived under the given key.
+     *
+     * @param key the key of the message
+     * @return true if the key is archived
+     */
+    public boolean contains(String key) {
+        return key != null && index.containsKey(key);
+    }
+
+    /**
+     * Reads the message body archived under the given key.
+     *
+     * @param key the key of the message
+     * @return the message body, or null if nothing is archived under the key
+     */
+    public String read(String key) {
+        Location location = key == null ? null : index.get(key);
+        if (location == null) return null;
+        byte[] content = new byte[location.length()];
+        segments.get(location.segment()).get(location.offset(), content);
+        return new String(content, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the number of archived messages.
+     *
+     * @return the message count
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Flushes every segment to disk.
+     */
+    public synchronized void flush() {
+        segments.forEach(MappedByteBuffer::force);
+    }
+
+    /**
+     * Starts a new segment large enough for the given number of bytes.
+     */
+    private void roll(int requiredBytes) throws IOException {
+        Path segment = directory.resolve(String.format("segment-%05d.log", segments.size()));
+        segments.add(map(segment, Math.max(segmentBytes, requiredBytes)));
+        position = 0;
+    }
+
+    /**
+     * Maps an existing segment and indexes its records, continuing to append to it if it is the last one.
+     */
+    private void recover(Path segment) throws IOException {
+        MappedByteBuffer buffer = map(segment, Files.size(segment));
+        int offset = 0;
+        while (offset + headerBytes <= buffer.capacity()) {
+            int keyLength = buffer.getInt(offset);
+            if (keyLength <= 0) break;
+            int contentLength = buffer.getInt(offset + Integer.BYTES);
+            if (offset + headerBytes + keyLength + contentLength > buffer.capacity()) break;
+            byte[] key = new byte[keyLength];
+            buffer.get(offset + headerBytes, key);
+            index.put(new String(key, StandardCharsets.UTF_8), new Location(segments.size(), offset + headerBytes + keyLength, contentLength));
+            offset += headerBytes + keyLength + contentLength;
+        }
+        segments.add(buffer);
+        position = offset;
+    }
+
+    private static MappedByteBuffer map(Path segment, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * The position of an archived message body.
+     */
+    private record Location(int segment, int offset, int length) {}
+}
@@ -0,0 +1,179 @@
+package utils.email;
+
+import context.ContextStore;
+
+import java.nio.charset.StandardCharsets;
+
+import static utils.email.EmailUtilities.Inbox.EmailMessage;
+
+/**
+ * A bounded set of the messages an inbox has already resolved, so that messages seen again by a later poll,
+ * by another filter list or through another account are neither stored nor counted twice. Duplicates are still
+ * resolved again when they are to be saved or printed.
+ * <p>
+ * Messages are identified by their Message-ID header, or by a hash of their envelope (sender, subject, sent date and
+ * size) if they have none, so that identifying a message never downloads its body. Only a 64-bit fingerprint of that
+ * key is kept, in an open addressing table of primitive longs that starts small and doubles as messages are recorded,
+ * up to "email-dedup-capacity" messages (100000 by default) at about 16 bytes per message. Once full, the oldest
+ * fingerprints are forgotten first. A deduplicator can be shared by several inboxes to deduplicate messages delivered
+ * to more than one account.
+ */
+@SuppressWarnings("unused")
+public class MessageDeduplicator {
+
+    private static final long offsetBasis = 0xcbf29ce484222325L;
+    private static final long prime = 0x100000001b3L;
+    private static final int initialCapacity = 64;
+
+    private final int capacity;
+    private long[] table;
+    private long[] order;
+    private int head;
+    private int size;
+
+    /**
+     * Constructs a deduplicator with the capacity configured by the "email-dedup-capacity" property.
+     */
+    public MessageDeduplicator() {
+        this(Integer.parseInt(ContextStore.get("email-dedup-capacity", "100000")));
+    }
+
+    /**
+     * Constructs a deduplicator remembering at most the given number of messages.
+     *
+     * @param capacity the maximum number of messages to remember
+     */
+    public MessageDeduplicator(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Deduplicator capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        allocate(Math.min(capacity, initialCapacity));
+    }
+
+    /**
+     * Records a message, unless it was already seen.
+     *
+     * @param message the message to record
+     * @return true if the message was not seen before
+     */
+    public synchronized boolean add(EmailMessage message) {
+        long fingerprint = fingerprintOf(message);
+        if (table[slotOf(fingerprint)] == fingerprint) return false;
+        if (size == capacity) {
+            remove(order[head]);
+            head = (head + 1) % order.length;
+            size--;
+        }
+        else if (size == order.length) grow();
+        table[slotOf(fingerprint)] = fingerprint;
+        order[(head + size) % order.length] = fingerprint;
+        size++;
+        return true;
+    }
+
+    /**
+     * Checks whether a message was already seen.
+     *
+     * @param message the message to check
+     * @return true if the message was seen before
+     */
+    public synchronized boolean contains(EmailMessage message) {
+        long fingerprint = fingerprintOf(message);
+        return table[slotOf(fingerprint)] == fingerprint;
+    }
+
+    /**
+     * Returns the number of messages remembered.
+     *
+     * @return the message count
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Forgets every message.
+     */
+    public synchronized void clear() {
+        allocate(Math.min(capacity, initialCapacity));
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Returns the fingerprint identifying a message: a hash of its Message-ID if it has one,
+     * of its sender, subject, sent date and size otherwise. Zero is reserved for empty slots.
+     *
+     * @param message the message
+     * @return the non-zero fingerprint of the message
+     */
+    static long fingerprintOf(EmailMessage message) {
+        String key = message.getMessageId() != null ?
+                "id:" + message.getMessageId().trim() :
+                String.join("\n", "envelope:" + message.getFrom(), message.getSubject(), message.getSentDate(), sizeOf(message));
+        long hash = offsetBasis;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) hash = (hash ^ (b & 0xff)) * prime;
+        hash ^= hash >>> 33; // FNV-1a leaves the low bits, used for the slot, poorly mixed
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Returns the size of a message as reported by the server along with its envelope, or an empty string if unknown.
+     * The received date is left out, as it differs between the accounts a message is delivered to.
+     */
+    private static String sizeOf(EmailMessage message) {
+        int size = message.getSize();
+        return size < 0 ? "" : String.valueOf(size);
+    }
+
+    /**
+     * Allocates empty tables for the given number of messages.
+     */
+    private void allocate(int messages) {
+        table = new long[Integer.highestOneBit(messages * 2 - 1) << 1]; // Kept at most half full
+        order = new long[messages];
+    }
+
+    /**
+     * Doubles the number of messages the tables hold, up to the capacity, keeping the recorded fingerprints in order.
+     */
+    private void grow() {
+        long[] fingerprints = new long[size];
+        for (int index = 0; index < size; index++) fingerprints[index] = order[(head + index) % order.length];
+        allocate((int) Math.min(capacity, order.length * 2L));
+        System.arraycopy(fingerprints, 0, order, 0, size);
+        head = 0;
+        for (long fingerprint : fingerprints) table[slotOf(fingerprint)] = fingerprint;
+    }
+
+    /**
+     * Returns the slot holding the given fingerprint, or the empty slot it would be inserted at.
+     */
+    private int slotOf(long fingerprint) {
+        int mask = table.length - 1;
+        int slot = (int) fingerprint & mask;
+        while (table[slot] != 0 && table[slot] != fingerprint) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /**
+     * Removes a fingerprint from the table, shifting the entries probed past it back to keep their probe chains intact.
+     */
+    private void remove(long fingerprint) {
+        int mask = table.length - 1;
+        int slot = slotOf(fingerprint);
+        if (table[slot] == 0) return;
+        for (int next = (slot + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+            int home = (int) table[next] & mask;
+            // Moves the entry at next into the gap unless its home lies cyclically within (slot, next]
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                table[slot] = table[next];
+                slot = next;
+            }
+        }
+        table[slot] = 0;
+    }
+}
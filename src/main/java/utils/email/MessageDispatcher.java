@@ -0,0 +1,78 @@
+package utils.email;
+
+import jakarta.mail.Message;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import static utils.email.EmailUtilities.Inbox;
+import static utils.email.EmailUtilities.Inbox.EmailMessage;
+
+/**
+ * Base class of the components that watch a mailbox for new messages and hand them to registered
+ * {@link MessageWaiter}s. Every new message is read once, matched against each waiter's filters and
+ * resolved at most once per inbox, regardless of how many waiters are interested in it. Messages the inbox
+ * has already resolved (see {@link MessageDeduplicator}) are not counted again, and are only resolved again
+ * to be saved or printed.
+ */
+public abstract class MessageDispatcher {
+
+    protected final List<MessageWaiter> waiters = new CopyOnWriteArrayList<>();
+
+    /**
+     * Registers a waiter to be handed the matching messages that arrive from now on.
+     * The waiter is removed automatically once it completes or times out.
+     *
+     * @param waiter the waiter to register
+     */
+    public void register(MessageWaiter waiter) {
+        waiters.add(waiter);
+        waiter.getFuture().whenComplete((messages, exception) -> waiters.remove(waiter));
+    }
+
+    /**
+     * Removes a waiter.
+     *
+     * @param waiter the waiter to remove
+     */
+    public void unregister(MessageWaiter waiter) {
+        waiters.remove(waiter);
+    }
+
+    /**
+     * Returns whether any waiter is currently registered.
+     *
+     * @return true if there are waiters
+     */
+    public boolean hasWaiters() {
+        return !waiters.isEmpty();
+    }
+
+    /**
+     * Resolves a newly arrived message if any waiter is interested in it, and hands it to the matching waiters.
+     * The message is resolved once per inbox the matching waiters belong to, with the print and save options
+     * of those waiters combined.
+     *
+     * @param message the new message
+     */
+    protected void dispatch(Message message) {
+        if (waiters.isEmpty()) return;
+        EmailMessage candidate = EmailMessage.from(message);
+        Map<Inbox, List<MessageWaiter>> matching = waiters.stream()
+                .filter(waiter -> waiter.matches(candidate))
+                .collect(Collectors.groupingBy(MessageWaiter::getInbox));
+        matching.forEach((inbox, inboxWaiters) -> {
+            boolean print = inboxWaiters.stream().anyMatch(MessageWaiter::isPrint);
+            boolean save = inboxWaiters.stream().anyMatch(MessageWaiter::isSave);
+            boolean saveAttachments = inboxWaiters.stream().anyMatch(MessageWaiter::isSaveAttachments);
+            // Duplicates are only resolved again to be saved or printed, and are not handed to the waiters
+            if (!print && !save && !saveAttachments && inbox.isDuplicate(candidate)) return;
+            EmailMessage emailMessage = inbox.resolveMessage(candidate, message.getMessageNumber(), print, save, saveAttachments);
+            if (emailMessage == null) return;
+            Inbox.awaitAttachments(List.of(emailMessage)); // Written before the polled connection is released
+            inboxWaiters.forEach(waiter -> waiter.offer(emailMessage));
+        });
+    }
+}
@@ -0,0 +1,237 @@
+package utils.email;
+
+import collections.Pair;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static utils.email.EmailUtilities.Inbox.EmailField;
+import static utils.email.EmailUtilities.Inbox.EmailMessage;
+
+/**
+ * An in-memory index over the messages of a {@link MessageStore}, maintained as messages are added and evicted.
+ * <p>
+ * Every text field (sender, subject, content and sent date) is indexed by the lower case trigrams it contains,
+ * so that the candidates of a {@link EmailUtilities.Inbox#emailMatch} filter are found by intersecting a few
+ * posting sets instead of scanning every stored body. Sender and subject are additionally kept in sorted maps
+ * for exact and prefix lookups, and messages are kept sorted by their sent date for range queries.
+ * <p>
+ * Reads never lock, while additions and removals are serialized. A message becomes visible to queries
+ * only after all of its postings are in place, and stops being visible before they are removed.
+ */
+@SuppressWarnings("unused")
+public class MessageIndex {
+
+    private static final int gramLength = 3;
+
+    private final Map<Long, EmailMessage> messages = new ConcurrentHashMap<>();
+    private final Map<EmailField, Map<String, Set<Long>>> grams = new ConcurrentHashMap<>();
+    private final Map<EmailField, NavigableMap<String, Set<Long>>> values = new ConcurrentHashMap<>();
+    private final NavigableMap<Long, Set<Long>> sentDates = new ConcurrentSkipListMap<>();
+
+    /**
+     * Indexes a message under the given id.
+     *
+     * @param id      the id of the message, increasing in insertion order
+     * @param message the message to index
+     */
+    public synchronized void add(long id, EmailMessage message) {
+        for (EmailField field : List.of(EmailField.SENDER, EmailField.SUBJECT, EmailField.CONTENT, EmailField.DATE)) {
+            String value = valueOf(message, field);
+            Map<String, Set<Long>> fieldGrams = grams.computeIfAbsent(field, key -> new ConcurrentHashMap<>());
+            for (String gram : gramsOf(value)) fieldGrams.computeIfAbsent(gram, key -> ConcurrentHashMap.newKeySet()).add(id);
+        }
+        for (EmailField field : List.of(EmailField.SENDER, EmailField.SUBJECT))
+            values.computeIfAbsent(field, key -> new ConcurrentSkipListMap<>())
+                    .computeIfAbsent(valueOf(message, field), key -> ConcurrentHashMap.newKeySet())
+                    .add(id);
+        Long sentDate = parseDate(message.getSentDate());
+        if (sentDate != null) sentDates.computeIfAbsent(sentDate, key -> ConcurrentHashMap.newKeySet()).add(id);
+        messages.put(id, message);
+    }
+
+    /**
+     * Removes a message from the index.
+     *
+     * @param id      the id the message was indexed under
+     * @param message the message to remove
+     */
+    public synchronized void remove(long id, EmailMessage message) {
+        if (messages.remove(id) == null) return;
+        for (EmailField field : List.of(EmailField.SENDER, EmailField.SUBJECT, EmailField.CONTENT, EmailField.DATE)) {
+            Map<String, Set<Long>> fieldGrams = grams.get(field);
+            for (String gram : gramsOf(valueOf(message, field))) removePosting(fieldGrams, gram, id);
+        }
+        for (EmailField field : List.of(EmailField.SENDER, EmailField.SUBJECT))
+            removePosting(values.get(field), valueOf(message, field), id);
+        Long sentDate = parseDate(message.getSentDate());
+        if (sentDate != null) removePosting(sentDates, sentDate, id);
+    }
+
+    /**
+     * Removes every message from the index.
+     */
+    public synchronized void clear() {
+        messages.clear();
+        grams.clear();
+        values.clear();
+        sentDates.clear();
+    }
+
+    /**
+     * Returns the messages matching all the given filters, as {@link EmailUtilities.Inbox#emailMatch} does,
+     * in insertion order. Candidates are narrowed down by the trigram postings of each filter value,
+     * and then verified against the filters.
+     *
+     * @param filterPairs a list of pairs consisting of email fields and corresponding filter strings
+     * @return the matching messages
+     */
+    public List<EmailMessage> find(List<Pair<EmailField, String>> filterPairs) {
+        Set<Long> candidates = null;
+        for (Pair<EmailField, String> filterPair : filterPairs) {
+            if (filterPair.alpha() == null || !grams.containsKey(filterPair.alpha())) continue;
+            Set<Long> postings = lookup(grams.get(filterPair.alpha()), filterPair.beta());
+            if (postings == null) continue;
+            candidates = candidates == null ? new HashSet<>(postings) : candidates;
+            candidates.retainAll(postings);
+            if (candidates.isEmpty()) return List.of();
+        }
+        Collection<Long> ids = candidates == null ? messages.keySet() : candidates;
+        EmailFilter filter = EmailFilter.compile(filterPairs);
+        return ids.stream()
+                .sorted()
+                .map(messages::get)
+                .filter(message -> message != null && filter.test(message))
+                .toList();
+    }
+
+    /**
+     * Returns the messages whose sender or subject equals the given value, ignoring case, in insertion order.
+     *
+     * @param field the field to look up, either {@link EmailField#SENDER} or {@link EmailField#SUBJECT}
+     * @param value the value to look up
+     * @return the matching messages
+     */
+    public List<EmailMessage> findExact(EmailField field, String value) {
+        NavigableMap<String, Set<Long>> fieldValues = sortedValuesOf(field);
+        return resolve(fieldValues.getOrDefault(value.toLowerCase(Locale.ROOT), Set.of()));
+    }
+
+    /**
+     * Returns the messages whose sender or subject starts with the given prefix, ignoring case, in insertion order.
+     *
+     * @param field  the field to look up, either {@link EmailField#SENDER} or {@link EmailField#SUBJECT}
+     * @param prefix the prefix to look up
+     * @return the matching messages
+     */
+    public List<EmailMessage> findByPrefix(EmailField field, String prefix) {
+        String key = prefix.toLowerCase(Locale.ROOT);
+        Set<Long> ids = new HashSet<>();
+        sortedValuesOf(field).subMap(key, true, key + Character.MAX_VALUE, false).values().forEach(ids::addAll);
+        return resolve(ids);
+    }
+
+    /**
+     * Returns the messages sent within the given range, ordered by their sent date.
+     *
+     * @param from the start of the range, inclusive
+     * @param to   the end of the range, exclusive
+     * @return the messages sent within the range
+     */
+    public List<EmailMessage> findSentBetween(Date from, Date to) {
+        List<EmailMessage> matches = new ArrayList<>();
+        for (Set<Long> ids : sentDates.subMap(from.getTime(), true, to.getTime(), false).values())
+            for (Long id : ids) {
+                EmailMessage message = messages.get(id);
+                if (message != null) matches.add(message);
+            }
+        return matches;
+    }
+
+    public int size() {
+        return messages.size();
+    }
+
+    private NavigableMap<String, Set<Long>> sortedValuesOf(EmailField field) {
+        if (field != EmailField.SENDER && field != EmailField.SUBJECT)
+            throw new IllegalArgumentException("Only sender and subject are indexed by value, not " + field);
+        return values.getOrDefault(field, new ConcurrentSkipListMap<>());
+    }
+
+    private List<EmailMessage> resolve(Collection<Long> ids) {
+        return ids.stream()
+                .sorted(Comparator.naturalOrder())
+                .map(messages::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    /**
+     * Returns the ids of the messages whose field contains every trigram of the value,
+     * or null if the value is too short to be looked up by trigrams.
+     */
+    private static Set<Long> lookup(Map<String, Set<Long>> fieldGrams, String value) {
+        if (value == null || value.length() < gramLength) return null;
+        List<Set<Long>> postings = new ArrayList<>();
+        for (String gram : gramsOf(value.toLowerCase(Locale.ROOT))) {
+            Set<Long> ids = fieldGrams.get(gram);
+            if (ids == null) return Set.of();
+            postings.add(ids);
+        }
+        postings.sort(Comparator.comparingInt(Set::size));
+        Set<Long> ids = new HashSet<>(postings.get(0));
+        for (int index = 1; index < postings.size() && !ids.isEmpty(); index++) ids.retainAll(postings.get(index));
+        return ids;
+    }
+
+    private static String valueOf(EmailMessage message, EmailField field) {
+        String value = switch (field) {
+            case SENDER -> message.getFrom();
+            case SUBJECT -> message.getSubject();
+            case CONTENT -> message.getMessageContent();
+            case DATE -> message.getSentDate();
+            default -> null;
+        };
+        return value == null ? "" : value.toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<String> gramsOf(String value) {
+        Set<String> grams = new HashSet<>();
+        for (int index = 0; index + gramLength <= value.length(); index++)
+            grams.add(value.substring(index, index + gramLength));
+        return grams;
+    }
+
+    private static <K> void removePosting(Map<K, Set<Long>> postings, K key, long id) {
+        if (postings == null) return;
+        postings.computeIfPresent(key, (k, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    /**
+     * Parses a sent date in the format of {@link Date#toString()}, as stored by {@link EmailMessage}.
+     */
+    private static Long parseDate(String sentDate) {
+        if (sentDate == null || sentDate.equals("null")) return null;
+        try {
+            return new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US).parse(sentDate).getTime();
+        } catch (ParseException exception) {
+            return null;
+        }
+    }
+}
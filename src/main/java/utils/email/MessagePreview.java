@@ -0,0 +1,92 @@
+package utils.email;
+
+import com.sun.mail.pop3.POP3Message;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+/**
+ * Reads the beginning of a message body without downloading the rest of it, so that content filters can be
+ * evaluated against a preview of each candidate and only the matching messages are downloaded in full.
+ * <p>
+ * POP3 messages are previewed with a {@code TOP} command, and other MIME messages by reading the head of their
+ * raw body stream, which IMAP stores fetch in {@code BODY.PEEK[TEXT]<offset.size>} chunks of "mail.imap.fetchsize"
+ * bytes. The body is cut at the last line break within the preview size, so that base64 and quoted-printable
+ * encoded bodies still decode, and the preview is decoded the same way as a full body.
+ */
+@SuppressWarnings("unused")
+public class MessagePreview {
+
+    /**
+     * The average number of body bytes assumed per line when converting a preview size to a {@code TOP} line count.
+     */
+    private static final int bytesPerLine = 40;
+
+    /**
+     * Returns the decoded text of the first bytes of a message body.
+     *
+     * @param message the message to preview
+     * @param bytes   the number of body bytes to read
+     * @return the previewed content, or null if the body is not larger than the preview or cannot be previewed,
+     * in which case the full content has to be read instead
+     */
+    public static String of(Message message, int bytes) {
+        try {
+            int size = message.getSize();
+            if (size >= 0 && size <= bytes) return null;
+            byte[] head;
+            if (message instanceof POP3Message pop3Message) {
+                try (InputStream top = pop3Message.top(bytes / bytesPerLine + 1)) {
+                    head = truncate(top.readAllBytes(), bytes);
+                }
+            }
+            else if (message instanceof MimeMessage mimeMessage) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream(bytes + 1024);
+                for (String headerLine : Collections.list(mimeMessage.getAllHeaderLines()))
+                    outputStream.write((headerLine + "\r\n").getBytes(StandardCharsets.UTF_8));
+                outputStream.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+                try (InputStream body = mimeMessage.getRawInputStream()) {
+                    outputStream.write(body.readNBytes(bytes + 1)); // One byte more tells a cut body from a complete one
+                }
+                head = truncate(outputStream.toByteArray(), bytes);
+            }
+            else return null;
+            return EmailUtilities.Inbox.getContent(new MimeMessage(null, new ByteArrayInputStream(head)));
+        } catch (MessagingException | IOException | RuntimeException exception) {
+            return null;
+        }
+    }
+
+    /**
+     * Cuts a message down to its headers and the complete lines among the first bytes of its body.
+     */
+    private static byte[] truncate(byte[] message, int bytes) {
+        int bodyStart = bodyStartOf(message);
+        int end = Math.min(message.length, bodyStart + bytes);
+        if (end == message.length) return message;
+        int lineEnd = end;
+        while (lineEnd > bodyStart && message[lineEnd - 1] != '\n') lineEnd--;
+        byte[] head = new byte[lineEnd > bodyStart ? lineEnd : end];
+        System.arraycopy(message, 0, head, 0, head.length);
+        return head;
+    }
+
+    /**
+     * Returns the offset of the body of a raw message, just past the blank line ending its headers.
+     */
+    private static int bodyStartOf(byte[] message) {
+        for (int index = 0; index + 1 < message.length; index++) {
+            if (message[index] != '\n') continue;
+            if (message[index + 1] == '\n') return index + 2;
+            if (message[index + 1] == '\r' && index + 2 < message.length && message[index + 2] == '\n') return index + 3;
+        }
+        return message.length;
+    }
+}
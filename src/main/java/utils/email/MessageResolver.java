@@ -0,0 +1,172 @@
+package utils.email;
+
+import collections.Pair;
+import context.ContextStore;
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.UIDFolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static utils.email.EmailUtilities.Inbox;
+import static utils.email.EmailUtilities.Inbox.EmailMessage;
+
+/**
+ * Resolves a batch of messages concurrently, downloading, decoding and saving them on several workers at once.
+ * <p>
+ * Every worker leases its own folder connection, and the number of workers connected to a host at any time
+ * is capped by "email-resolution-concurrency" (4 by default), shared by every resolver of that host configured
+ * with the same concurrency, so that resolvers with different settings do not cap each other.
+ * Workers run on a fixed pool of daemon threads, shared by every resolver and sized by "email-resolution-concurrency"
+ * as configured when the class is loaded, since virtual threads are not available on the Java 17 runtime this library
+ * targets and an unbounded pool would let concurrent loads of different hosts spawn threads without limit.
+ * The resolved messages are returned in the order of the candidates, regardless of the order they completed in.
+ */
+@SuppressWarnings("unused")
+public class MessageResolver {
+
+    private static final ExecutorService executor = createExecutor();
+    private static final Map<Pair<String, Integer>, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    private final Inbox inbox;
+    private final int concurrency;
+
+    /**
+     * Constructs a resolver for the given inbox, with the concurrency configured by "email-resolution-concurrency".
+     *
+     * @param inbox the inbox to resolve messages for
+     */
+    public MessageResolver(Inbox inbox) {
+        this(inbox, Integer.parseInt(ContextStore.get("email-resolution-concurrency", "4")));
+    }
+
+    /**
+     * Constructs a resolver for the given inbox.
+     *
+     * @param inbox       the inbox to resolve messages for
+     * @param concurrency the maximum number of workers per host
+     */
+    public MessageResolver(Inbox inbox, int concurrency) {
+        this.inbox = inbox;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Downloads, decodes and optionally saves the given candidates concurrently.
+     * Each worker re-reads its candidates from its own connection to the folder they were found in.
+     *
+     * @param folder          the open folder the candidates were read from
+     * @param candidates      the messages to resolve
+     * @param save            whether to save the resolved message content
+     * @param saveAttachments whether to save the resolved message attachments
+     * @return the resolved messages, in the order of the candidates
+     * @throws MessagingException if a message could not be resolved
+     */
+    public List<EmailMessage> resolve(
+            Folder folder,
+            List<EmailMessage> candidates,
+            boolean save,
+            boolean saveAttachments) throws MessagingException {
+        EmailMessage[] resolved = new EmailMessage[candidates.size()];
+        AtomicInteger next = new AtomicInteger();
+        Semaphore permits = hostPermits.computeIfAbsent(
+                Pair.of(inbox.getPoolKey().host(), concurrency),
+                key -> new Semaphore(key.beta())
+        );
+        int workerCount = Math.min(concurrency, candidates.size());
+        List<Future<Void>> workers = new ArrayList<>(workerCount);
+        for (int worker = 0; worker < workerCount; worker++)
+            workers.add(executor.submit(() -> {
+                permits.acquire();
+                try {
+                    work(folder, candidates, resolved, next, save, saveAttachments);
+                } finally {
+                    permits.release();
+                }
+                return null;
+            }));
+        try {
+            for (Future<Void> worker : workers) worker.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            workers.forEach(worker -> worker.cancel(true));
+            throw new MessagingException("Interrupted while resolving messages", exception);
+        } catch (ExecutionException exception) {
+            workers.forEach(worker -> worker.cancel(true));
+            if (exception.getCause() instanceof MessagingException messagingException) throw messagingException;
+            throw new RuntimeException(exception.getCause());
+        }
+        List<EmailMessage> messages = new ArrayList<>(resolved.length);
+        for (int index = 0; index < resolved.length; index++) {
+            // Every candidate is claimed by a worker, so a gap means a worker ended without reporting its failure
+            if (resolved[index] == null) throw new MessagingException("Candidate " + index + " could not be resolved");
+            messages.add(resolved[index]);
+        }
+        return Collections.unmodifiableList(messages);
+    }
+
+    /**
+     * Resolves candidates on a dedicated connection until none is left.
+     */
+    private void work(
+            Folder source,
+            List<EmailMessage> candidates,
+            EmailMessage[] resolved,
+            AtomicInteger next,
+            boolean save,
+            boolean saveAttachments) throws MessagingException {
+        MailboxPool.Connection connection = inbox.openFolder(source.getFullName(), Folder.READ_ONLY);
+        try {
+            Folder folder = connection.getFolder();
+            List<EmailMessage> downloaded = new ArrayList<>();
+            for (int index = next.getAndIncrement(); index < candidates.size(); index = next.getAndIncrement()) {
+                EmailMessage candidate = candidates.get(index);
+                Message message = locate(source, candidate.getSource(), folder);
+                EmailMessage emailMessage = message == null ? candidate : EmailMessage.from(message);
+                resolved[index] = inbox.downloadMessage(emailMessage, save, saveAttachments);
+                downloaded.add(resolved[index]);
+            }
+            Inbox.awaitAttachments(downloaded);
+            connection.release();
+        } catch (MessagingException | RuntimeException exception) {
+            connection.invalidate();
+            throw exception;
+        }
+    }
+
+    /**
+     * Finds the given message of the source folder in another connection to the same folder,
+     * by UID where the folder supports it and by message number otherwise.
+     *
+     * @return the message, or null if it is no longer in the folder
+     */
+    private static Message locate(Folder source, Message message, Folder target) throws MessagingException {
+        if (source instanceof UIDFolder sourceFolder && target instanceof UIDFolder targetFolder)
+            return targetFolder.getMessageByUID(sourceFolder.getUID(message));
+        int messageNumber = message.getMessageNumber();
+        return messageNumber > 0 && messageNumber <= target.getMessageCount() ? target.getMessage(messageNumber) : null;
+    }
+
+    /**
+     * Creates the fixed pool of daemon threads the workers of every resolver run on.
+     */
+    private static ExecutorService createExecutor() {
+        int threads = Math.max(1, Integer.parseInt(ContextStore.get("email-resolution-concurrency", "4")));
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "email-resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
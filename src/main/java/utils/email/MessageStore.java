@@ -0,0 +1,149 @@
+package utils.email;
+
+import collections.Pair;
+import context.ContextStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static utils.email.EmailUtilities.Inbox.EmailField;
+import static utils.email.EmailUtilities.Inbox.EmailMessage;
+
+/**
+ * A bounded, thread-safe store of the messages resolved by an inbox.
+ * <p>
+ * Messages are only ever appended; reads never lock and observe a weakly consistent view, so they can run
+ * alongside any number of concurrent appends without throwing {@link java.util.ConcurrentModificationException}.
+ * Once the store holds more than its capacity ("email-message-store-capacity", 10000 by default),
+ * the oldest messages are evicted.
+ * <p>
+ * Stored messages are indexed as they are added (see {@link MessageIndex}), so that looking them up by their
+ * fields does not rescan every stored message.
+ */
+@SuppressWarnings("unused")
+public class MessageStore implements Iterable<EmailMessage> {
+
+    private final int capacity;
+    private final ConcurrentLinkedQueue<Entry> messages = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+    private final MessageIndex index = new MessageIndex();
+
+    /**
+     * Constructs a store with the capacity configured by the "email-message-store-capacity" property.
+     */
+    public MessageStore() {
+        this(Integer.parseInt(ContextStore.get("email-message-store-capacity", "10000")));
+    }
+
+    /**
+     * Constructs a store holding at most the given number of messages.
+     *
+     * @param capacity the maximum number of messages to keep
+     */
+    public MessageStore(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Message store capacity must be positive: " + capacity);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Appends a message, evicting the oldest one if the store is over capacity.
+     *
+     * @param message the message to append
+     */
+    public void add(EmailMessage message) {
+        Entry entry = new Entry(sequence.incrementAndGet(), message);
+        index.add(entry.id(), message);
+        messages.add(entry);
+        if (size.incrementAndGet() > capacity) evict();
+    }
+
+    /**
+     * Returns the stored messages matching all the given filters, oldest first.
+     *
+     * @param filterPairs a list of pairs consisting of email fields and corresponding filter strings
+     * @return the matching messages
+     */
+    public List<EmailMessage> find(List<Pair<EmailField, String>> filterPairs) {
+        return index.find(filterPairs);
+    }
+
+    /**
+     * Returns the stored messages matching the given compiled filter, oldest first.
+     *
+     * @param filter the filter to match the messages against
+     * @return the matching messages
+     */
+    public List<EmailMessage> find(EmailFilter filter) {
+        return stream().filter(filter).toList();
+    }
+
+    public MessageIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the number of messages in the store.
+     *
+     * @return the message count
+     */
+    public int size() {
+        return Math.min(size.get(), capacity);
+    }
+
+    public boolean isEmpty() {
+        return messages.isEmpty();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns an unmodifiable copy of the messages currently in the store, oldest first.
+     *
+     * @return the stored messages
+     */
+    public List<EmailMessage> snapshot() {
+        List<EmailMessage> snapshot = new ArrayList<>(size());
+        for (Entry entry : messages) snapshot.add(entry.message());
+        return Collections.unmodifiableList(snapshot);
+    }
+
+    /**
+     * Returns a weakly consistent stream over the stored messages, oldest first.
+     *
+     * @return the stream of messages
+     */
+    public Stream<EmailMessage> stream() {
+        return messages.stream().map(Entry::message);
+    }
+
+    @Override
+    public Iterator<EmailMessage> iterator() {
+        return stream().iterator();
+    }
+
+    /**
+     * Removes every message from the store.
+     */
+    public void clear() {
+        while (evict()) ;
+    }
+
+    private boolean evict() {
+        Entry entry = messages.poll();
+        if (entry == null) return false;
+        size.decrementAndGet();
+        index.remove(entry.id(), entry.message());
+        return true;
+    }
+
+    private record Entry(long id, EmailMessage message) {}
+}
@@ -0,0 +1,59 @@
+package utils.email;
+
+import collections.Pair;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import static utils.email.EmailUtilities.Inbox.EmailField;
+import static utils.email.EmailUtilities.Inbox.EmailMessage;
+
+/**
+ * A standing registration for the messages matching a set of filters, handing every newly arrived match to a consumer
+ * until it is cancelled, rather than completing once an expected number of messages has arrived.
+ */
+@SuppressWarnings("unused")
+public class MessageSubscription extends MessageWaiter {
+
+    private final Consumer<EmailMessage> consumer;
+
+    /**
+     * Constructs a subscription for the messages matching the given filters.
+     *
+     * @param inbox           the inbox the matched messages are resolved into
+     * @param save            boolean flag indicating whether to save the matched emails
+     * @param saveAttachments boolean flag indicating whether to save the matched emails' attachments
+     * @param filterPairs     a list of pairs consisting of email fields and corresponding filter strings
+     * @param consumer        the consumer of the matched messages
+     */
+    public MessageSubscription(
+            EmailUtilities.Inbox inbox,
+            boolean save,
+            boolean saveAttachments,
+            List<Pair<EmailField, String>> filterPairs,
+            Consumer<EmailMessage> consumer) {
+        super(inbox, Integer.MAX_VALUE, Integer.MAX_VALUE, false, save, saveAttachments, filterPairs);
+        this.consumer = consumer;
+    }
+
+    /**
+     * Hands a resolved, matching message to the consumer.
+     *
+     * @param emailMessage the matched message
+     */
+    @Override
+    public void offer(EmailMessage emailMessage) {
+        if (!getFuture().isDone()) consumer.accept(emailMessage);
+    }
+
+    /**
+     * Cancels the subscription, unregistering it from the dispatcher it was registered with.
+     */
+    public void cancel() {
+        getFuture().cancel(false);
+    }
+
+    public boolean isCancelled() {
+        return getFuture().isDone();
+    }
+}
@@ -0,0 +1,124 @@
+package utils.email;
+
+import collections.Pair;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static utils.email.EmailUtilities.Inbox.EmailField;
+import static utils.email.EmailUtilities.Inbox.EmailMessage;
+
+/**
+ * A registration of a caller waiting for a number of messages matching its filters to arrive.
+ * The waiter's future completes with the matched messages once the expected count is reached,
+ * or exceptionally with a {@link java.util.concurrent.TimeoutException} once its deadline has passed.
+ * A message handed to a waiter more than once, for instance both by the initial scan and by a poll, is counted once.
+ */
+@SuppressWarnings("unused")
+public class MessageWaiter {
+
+    private final EmailUtilities.Inbox inbox;
+    private final List<Pair<EmailField, String>> filterPairs;
+    private final EmailFilter filter;
+    private final boolean print;
+    private final boolean save;
+    private final boolean saveAttachments;
+    private final int expectedMessageCount;
+    private final Set<EmailMessage> matched = ConcurrentHashMap.newKeySet();
+    private final List<EmailMessage> messages = new CopyOnWriteArrayList<>();
+    private final CompletableFuture<List<EmailMessage>> future = new CompletableFuture<>();
+
+    /**
+     * Constructs a waiter for the given number of messages matching the given filters.
+     *
+     * @param inbox                the inbox the matched messages are resolved into
+     * @param timeout              the maximum time to wait for the expected message count to be reached, in seconds
+     * @param expectedMessageCount the number of matching messages to wait for
+     * @param print                boolean flag indicating whether to print the matched emails
+     * @param save                 boolean flag indicating whether to save the matched emails
+     * @param saveAttachments      boolean flag indicating whether to save the matched emails' attachments
+     * @param filterPairs          a list of pairs consisting of email fields and corresponding filter strings
+     */
+    public MessageWaiter(
+            EmailUtilities.Inbox inbox,
+            int timeout,
+            int expectedMessageCount,
+            boolean print,
+            boolean save,
+            boolean saveAttachments,
+            List<Pair<EmailField, String>> filterPairs) {
+        this.inbox = inbox;
+        this.filterPairs = filterPairs;
+        this.filter = EmailFilter.compile(filterPairs);
+        this.print = print;
+        this.save = save;
+        this.saveAttachments = saveAttachments;
+        this.expectedMessageCount = expectedMessageCount;
+        if (expectedMessageCount <= 0) future.complete(List.of());
+        else future.orTimeout(timeout, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Checks whether the given message matches this waiter's filters.
+     *
+     * @param emailMessage the message to check
+     * @return true if the message matches all filters
+     */
+    public boolean matches(EmailMessage emailMessage) {
+        return filter.test(emailMessage);
+    }
+
+    /**
+     * Hands a resolved, matching message to this waiter, completing it if the expected count has been reached.
+     *
+     * @param emailMessage the matched message
+     */
+    public void offer(EmailMessage emailMessage) {
+        if (future.isDone() || !matched.add(emailMessage)) return;
+        messages.add(emailMessage);
+        if (matched.size() >= expectedMessageCount) future.complete(List.copyOf(messages));
+    }
+
+    /**
+     * Counts messages matched elsewhere since this waiter registered, such as by the scan following its registration,
+     * towards the expected count, skipping the ones already handed to this waiter. Credited messages are part of
+     * the messages the waiter completes with.
+     *
+     * @param emailMessages the messages matched elsewhere
+     */
+    public void credit(Collection<EmailMessage> emailMessages) {
+        if (future.isDone()) return;
+        for (EmailMessage emailMessage : emailMessages)
+            if (matched.add(emailMessage)) messages.add(emailMessage);
+        if (matched.size() >= expectedMessageCount) future.complete(List.copyOf(messages));
+    }
+
+    public CompletableFuture<List<EmailMessage>> getFuture() {
+        return future;
+    }
+
+    public EmailUtilities.Inbox getInbox() {
+        return inbox;
+    }
+
+    public List<Pair<EmailField, String>> getFilterPairs() {
+        return filterPairs;
+    }
+
+    public boolean isPrint() {
+        return print;
+    }
+
+    public boolean isSave() {
+        return save;
+    }
+
+    public boolean isSaveAttachments() {
+        return saveAttachments;
+    }
+}
@@ -0,0 +1,226 @@
+package utils.reflection;
+
+import utils.StringUtilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * A reusable reader and writer of a field, generated once so that repeated reads and writes skip the access checks
+ * of {@link Field#get} and {@link Field#set}.
+ * <p>
+ * Field accessors read and write the field through {@link MethodHandle}s, and also expose its {@link VarHandle}.
+ * The handles are held as constants by hidden classes defined from the {@link FieldGetter} and {@link FieldSetter}
+ * templates, so that the JIT can fold them into plain field reads and writes.
+ * Property accessors read and write through the public "getX"/"isX" and "setX" methods of the class,
+ * spun into {@link Function} and {@link BiConsumer} instances by {@link LambdaMetafactory}, so that calls compile
+ * down to a direct invocation of the method. A property accessor falls back to the field handles when the class
+ * has no such public method, or when the class is not visible from the class loader of this class, since a spun
+ * lambda would otherwise keep a foreign class loader reachable.
+ * <p>
+ * Accessors are created and cached by {@link ClassMetadata#getAccessor} and {@link ClassMetadata#getPropertyAccessor}.
+ *
+ * @param <T> the type declaring (or inheriting) the field
+ * @param <V> the type of the field
+ */
+@SuppressWarnings({"unused", "unchecked"})
+public final class Accessor<T, V> {
+
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    private final Field field;
+    private final VarHandle varHandle;
+    private final Function<T, V> getter;
+    private final BiConsumer<T, V> setter;
+
+    /**
+     * Generates an accessor of a field.
+     *
+     * @param type     the class the field is accessed on
+     * @param field    the field, declared by the class or one of its superclasses
+     * @param property true to access the field through the public getter and setter methods of the class, if any
+     */
+    Accessor(Class<T> type, Field field, boolean property) {
+        this.field = field;
+        MethodHandles.Lookup fieldLookup;
+        try {
+            fieldLookup = MethodHandles.privateLookupIn(field.getDeclaringClass(), lookup);
+        }
+        catch (IllegalAccessException exception) {
+            throw new RuntimeException(exception);
+        }
+        boolean isStatic = Modifier.isStatic(field.getModifiers());
+        MethodType getterType = MethodType.methodType(Object.class, Object.class);
+        MethodType setterType = MethodType.methodType(void.class, Object.class, Object.class);
+
+        try {
+            this.varHandle = fieldLookup.unreflectVarHandle(field);
+            MethodHandle getterHandle = fieldLookup.unreflectGetter(field);
+            if (isStatic) getterHandle = MethodHandles.dropArguments(getterHandle, 0, Object.class);
+            MethodHandle getterMethod = property && !isStatic ? lambdaTarget(type, getterName(field), field.getType()) : null;
+            this.getter = getterMethod != null ?
+                    (Function<T, V>) spin(Function.class, "apply", getterMethod) :
+                    getterOf(getterHandle.asType(getterType));
+        }
+        catch (IllegalAccessException exception) {
+            throw new RuntimeException(exception);
+        }
+
+        MethodHandle setterHandle;
+        try {
+            setterHandle = fieldLookup.unreflectSetter(field);
+            if (isStatic) setterHandle = MethodHandles.dropArguments(setterHandle, 0, Object.class);
+            setterHandle = setterHandle.asType(setterType);
+        }
+        catch (IllegalAccessException exception) {
+            setterHandle = null; // Static final fields can be read, but not written
+        }
+        MethodHandle setterMethod = property && !isStatic ?
+                lambdaTarget(type, "set" + StringUtilities.firstLetterCapped(field.getName()), void.class, field.getType()) :
+                null;
+        this.setter = setterMethod != null ?
+                (BiConsumer<T, V>) spin(BiConsumer.class, "accept", setterMethod) :
+                setterOf(setterHandle);
+    }
+
+    /**
+     * Reads the field of the given object.
+     *
+     * @param target the object to read the field of, or null for a static field
+     * @return the value of the field
+     */
+    public V get(T target) {
+        return getter.apply(target);
+    }
+
+    /**
+     * Writes the field of the given object.
+     *
+     * @param target the object to write the field of, or null for a static field
+     * @param value  the value to write
+     * @throws RuntimeException if the field is static final
+     */
+    public void set(T target, V value) {
+        setter.accept(target, value);
+    }
+
+    /**
+     * Returns the reader of the field as a function, to be kept and called directly by hot loops.
+     *
+     * @return the reader of the field
+     */
+    public Function<T, V> getter() {
+        return getter;
+    }
+
+    /**
+     * Returns the writer of the field as a consumer, to be kept and called directly by hot loops.
+     *
+     * @return the writer of the field
+     */
+    public BiConsumer<T, V> setter() {
+        return setter;
+    }
+
+    /**
+     * Returns the variable handle of the field, for atomic and ordered access modes.
+     *
+     * @return the variable handle of the field
+     */
+    public VarHandle getVarHandle() {
+        return varHandle;
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    public String getName() {
+        return field.getName();
+    }
+
+    private static <T, V> Function<T, V> getterOf(MethodHandle handle) {
+        return (Function<T, V>) define(FieldGetter.class, handle);
+    }
+
+    private BiConsumer<T, V> setterOf(MethodHandle handle) {
+        if (handle == null) return (target, value) -> {
+            throw new RuntimeException(new IllegalAccessException("Field " + field.getName() + " is static final"));
+        };
+        return (BiConsumer<T, V>) define(FieldSetter.class, handle);
+    }
+
+    /**
+     * Defines a hidden class from the given template, holding the given handle as its class data, and returns
+     * an instance of it. The hidden class is not kept reachable by the class loader, so it is unloaded along with
+     * the accessor.
+     */
+    private static Object define(Class<?> template, MethodHandle handle) {
+        String resource = template.getSimpleName() + ".class";
+        try (InputStream stream = Accessor.class.getResourceAsStream(resource)) {
+            if (stream == null) throw new IOException("Could not locate the " + resource + " template");
+            MethodHandles.Lookup hidden = lookup.defineHiddenClassWithClassData(stream.readAllBytes(), handle, true);
+            return hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke();
+        }
+        catch (Throwable throwable) {
+            throw rethrow(throwable);
+        }
+    }
+
+    private static String getterName(Field field) {
+        String prefix = field.getType() == boolean.class ? "is" : "get";
+        return prefix + StringUtilities.firstLetterCapped(field.getName());
+    }
+
+    /**
+     * Returns the handle of a public instance method that a lambda spun by this class can call directly,
+     * or null if there is no such method, or if the class is not visible from the class loader of this class.
+     */
+    private static MethodHandle lambdaTarget(Class<?> type, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            if (Class.forName(type.getName(), false, Accessor.class.getClassLoader()) != type) return null;
+            return lookup.findVirtual(type, name, MethodType.methodType(returnType, parameterTypes));
+        }
+        catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | LinkageError exception) {
+            return null;
+        }
+    }
+
+    /**
+     * Spins an instance of a functional interface implemented by a direct call to the given method.
+     */
+    private static Object spin(Class<?> functionalInterface, String methodName, MethodHandle target) {
+        MethodType instantiatedType = target.type().wrap();
+        if (target.type().returnType() == void.class) instantiatedType = instantiatedType.changeReturnType(void.class);
+        try {
+            CallSite site = LambdaMetafactory.metafactory(
+                    lookup,
+                    methodName,
+                    MethodType.methodType(functionalInterface),
+                    instantiatedType.erase(),
+                    target,
+                    instantiatedType
+            );
+            return site.getTarget().invoke();
+        }
+        catch (Throwable throwable) {
+            throw rethrow(throwable);
+        }
+    }
+
+    static RuntimeException rethrow(Throwable throwable) {
+        if (throwable instanceof RuntimeException runtimeException) return runtimeException;
+        if (throwable instanceof Error error) throw error;
+        return new RuntimeException(throwable);
+    }
+}
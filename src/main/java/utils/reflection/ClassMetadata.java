@@ -0,0 +1,183 @@
+package utils.reflection;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The reflective metadata of a class: its declared fields and methods, opened for access once,
+ * and its fields and methods indexed by name, including the ones inherited from its superclasses.
+ * <p>
+ * Metadata is computed once per class and kept in a {@link ClassValue}, so looking it up is a single
+ * lock-free read that is safe under concurrency. The metadata is attached to the class itself,
+ * so it never keeps a class (or its class loader) from being unloaded.
+ */
+@SuppressWarnings("unused")
+public final class ClassMetadata {
+
+    private static final ClassValue<ClassMetadata> registry = new ClassValue<>() {
+        @Override
+        protected ClassMetadata computeValue(Class<?> type) {
+            return new ClassMetadata(type);
+        }
+    };
+
+    private final Class<?> type;
+    private final List<Field> declaredFields;
+    private final List<Method> declaredMethods;
+    private final String[] declaredFieldNames;
+    private final Map<String, Method> declaredMethodsByName;
+    private final Map<String, Field> fields;
+    private final Map<String, Method> methods;
+    private final Map<String, Accessor<?, ?>> accessors = new ConcurrentHashMap<>();
+    private final Map<String, Accessor<?, ?>> propertyAccessors = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the metadata of the given class, computing it on first use.
+     *
+     * @param type the class
+     * @return the metadata of the class
+     */
+    public static ClassMetadata of(Class<?> type) {
+        return registry.get(type);
+    }
+
+    private ClassMetadata(Class<?> type) {
+        this.type = type;
+        Field[] declaredFields = type.getDeclaredFields();
+        Method[] declaredMethods = type.getDeclaredMethods();
+        for (Field field : declaredFields) field.trySetAccessible();
+        for (Method method : declaredMethods) method.trySetAccessible();
+        this.declaredFields = List.of(declaredFields);
+        this.declaredMethods = List.of(declaredMethods);
+        this.declaredFieldNames = Arrays.stream(declaredFields)
+                .map(Field::getName)
+                .filter(name -> !name.equals("this$0")) // Excludes synthetic fields like inner class references
+                .toArray(String[]::new);
+
+        Map<String, Method> declaredMethodsByName = new HashMap<>();
+        for (Method method : declaredMethods) declaredMethodsByName.put(method.getName(), method);
+        this.declaredMethodsByName = Collections.unmodifiableMap(declaredMethodsByName);
+
+        // Declared members shadow inherited ones, and the first declared method of a name wins, as in a linear scan
+        Map<String, Field> fields = new LinkedHashMap<>();
+        Map<String, Method> methods = new LinkedHashMap<>();
+        for (Field field : declaredFields) fields.putIfAbsent(field.getName(), field);
+        for (Method method : declaredMethods) methods.putIfAbsent(method.getName(), method);
+        if (type.getSuperclass() != null) {
+            ClassMetadata superclass = of(type.getSuperclass());
+            superclass.fields.forEach(fields::putIfAbsent);
+            superclass.methods.forEach(methods::putIfAbsent);
+        }
+        this.fields = Collections.unmodifiableMap(fields);
+        this.methods = Collections.unmodifiableMap(methods);
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * Returns the fields declared by the class, opened for access where the module system allows it.
+     *
+     * @return the declared fields
+     */
+    public List<Field> getDeclaredFields() {
+        return declaredFields;
+    }
+
+    /**
+     * Returns the methods declared by the class, opened for access where the module system allows it.
+     *
+     * @return the declared methods
+     */
+    public List<Method> getDeclaredMethods() {
+        return declaredMethods;
+    }
+
+    /**
+     * Returns the names of the fields declared by the class, excluding synthetic fields such as "this$0".
+     *
+     * @return a new array of the declared field names
+     */
+    public String[] getDeclaredFieldNames() {
+        return declaredFieldNames.clone();
+    }
+
+    /**
+     * Returns the methods declared by the class by name, the last declared overload of each name winning.
+     *
+     * @return the declared methods by name
+     */
+    public Map<String, Method> getDeclaredMethodsByName() {
+        return declaredMethodsByName;
+    }
+
+    /**
+     * Returns the field of the given name, declared by the class or inherited from a superclass.
+     *
+     * @param name the name of the field
+     * @return the field, or null if the class has no such field
+     */
+    public Field getField(String name) {
+        return fields.get(name);
+    }
+
+    /**
+     * Returns the first method of the given name, declared by the class or inherited from a superclass.
+     *
+     * @param name the name of the method
+     * @return the method, or null if the class has no such method
+     */
+    public Method getMethod(String name) {
+        return methods.get(name);
+    }
+
+    /**
+     * Returns every field of the class by name, including the ones inherited from its superclasses.
+     *
+     * @return the fields by name
+     */
+    public Map<String, Field> getFields() {
+        return fields;
+    }
+
+    /**
+     * Returns the accessor of the field of the given name, generating it on first use.
+     *
+     * @param name the name of the field, declared by the class or inherited from a superclass
+     * @return the accessor of the field
+     * @throws RuntimeException wrapping a {@link NoSuchFieldException} if the class has no such field
+     */
+    @SuppressWarnings("unchecked")
+    public <T, V> Accessor<T, V> getAccessor(String name) {
+        return (Accessor<T, V>) accessors.computeIfAbsent(name, key -> new Accessor<>(type, fieldOf(key), false));
+    }
+
+    /**
+     * Returns the accessor of the property of the given name, reading and writing it through the public getter and
+     * setter methods of the class where there are any, generating it on first use.
+     *
+     * @param name the name of the field backing the property, declared by the class or inherited from a superclass
+     * @return the accessor of the property
+     * @throws RuntimeException wrapping a {@link NoSuchFieldException} if the class has no such field
+     */
+    @SuppressWarnings("unchecked")
+    public <T, V> Accessor<T, V> getPropertyAccessor(String name) {
+        return (Accessor<T, V>) propertyAccessors.computeIfAbsent(name, key -> new Accessor<>(type, fieldOf(key), true));
+    }
+
+    private Field fieldOf(String name) {
+        Field field = fields.get(name);
+        if (field == null) throw new RuntimeException(
+                new NoSuchFieldException("No field named " + name + " could be located in class " + type.getName())
+        );
+        return field;
+    }
+}
@@ -0,0 +1,35 @@
+package utils.reflection;
+
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.function.Function;
+
+/**
+ * The template of the hidden classes {@link Accessor} defines to read a field. Each hidden class holds the getter
+ * handle of its field, passed as class data, in a static final field, which the JIT trusts to be constant and folds
+ * into a plain field read. This class itself is never loaded as is.
+ */
+final class FieldGetter implements Function<Object, Object> {
+
+    private static final MethodHandle handle;
+
+    static {
+        try {
+            handle = MethodHandles.classData(MethodHandles.lookup(), ConstantDescs.DEFAULT_NAME, MethodHandle.class);
+        }
+        catch (IllegalAccessException exception) {
+            throw new ExceptionInInitializerError(exception);
+        }
+    }
+
+    @Override
+    public Object apply(Object target) {
+        try {
+            return handle.invokeExact(target);
+        }
+        catch (Throwable throwable) {
+            throw Accessor.rethrow(throwable);
+        }
+    }
+}
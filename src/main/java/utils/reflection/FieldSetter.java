@@ -0,0 +1,35 @@
+package utils.reflection;
+
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.function.BiConsumer;
+
+/**
+ * The template of the hidden classes {@link Accessor} defines to write a field. Each hidden class holds the setter
+ * handle of its field, passed as class data, in a static final field, which the JIT trusts to be constant and folds
+ * into a plain field write. This class itself is never loaded as is.
+ */
+final class FieldSetter implements BiConsumer<Object, Object> {
+
+    private static final MethodHandle handle;
+
+    static {
+        try {
+            handle = MethodHandles.classData(MethodHandles.lookup(), ConstantDescs.DEFAULT_NAME, MethodHandle.class);
+        }
+        catch (IllegalAccessException exception) {
+            throw new ExceptionInInitializerError(exception);
+        }
+    }
+
+    @Override
+    public void accept(Object target, Object value) {
+        try {
+            handle.invokeExact(target, value);
+        }
+        catch (Throwable throwable) {
+            throw Accessor.rethrow(throwable);
+        }
+    }
+}
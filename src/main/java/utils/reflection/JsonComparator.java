@@ -0,0 +1,313 @@
+package utils.reflection;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import context.ContextStore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares two JSON trees in a single pass, collecting every difference between them instead of stopping at the first.
+ * <p>
+ * The fields of every expected object are compared against the same fields of the actual object, skipping the fields
+ * named in the exceptions at any depth, so fields only present in the actual object are ignored. Arrays are compared
+ * by index over the elements of the expected array, and an empty expected array requires an empty actual one.
+ * Numbers are compared by value. Differences are located by their JSON pointer (RFC 6901), and at most
+ * "json-diff-limit" differences (100 by default) are collected, after which the comparison stops.
+ * <p>
+ * Comparators ignoring array order compare arrays as multisets instead, for arrays whose order is not deterministic,
+ * such as rows returned by a database. Every element is reduced to a canonical structural hash, independent of
+ * the order of object fields and array elements and of the fields named in the exceptions, and the elements of the
+ * actual array are bucketed by hash, so that each expected element is matched with an equal actual element in
+ * constant expected time, and arrays are matched in linear expected time. Elements match if they are equal apart
+ * from their excepted fields. Unlike the ordered comparison, this equality is symmetric, since the hash of an actual
+ * element cannot leave out the fields the expected elements lack: matching objects must hold the same fields and
+ * nested arrays the same number of elements, so fields only present in the actual elements have to be named in
+ * the exceptions to be ignored. Since an element without a match has no counterpart to be compared with field by field,
+ * unmatched expected elements are reported as {@link Kind#MISSING}, and unmatched actual ones as
+ * {@link Kind#UNEXPECTED}, at their indexes in their own arrays.
+ */
+@SuppressWarnings("unused")
+public class JsonComparator {
+
+    /**
+     * The kind of a difference between two JSON trees.
+     */
+    public enum Kind {
+        /**
+         * The values differ.
+         */
+        VALUE,
+        /**
+         * The values are of different JSON types, such as an object and an array.
+         */
+        TYPE,
+        /**
+         * The expected value is absent from the actual tree.
+         */
+        MISSING,
+        /**
+         * The actual array is shorter than the expected one, or the expected one is empty and the actual one is not.
+         */
+        SIZE,
+        /**
+         * The actual array holds an element matching no expected element, when ignoring array order.
+         */
+        UNEXPECTED
+    }
+
+    /**
+     * A difference between two JSON trees.
+     *
+     * @param path     the JSON pointer of the difference, the empty string for the root
+     * @param expected the expected value
+     * @param actual   the actual value, or null if it is missing
+     * @param kind     the kind of the difference
+     */
+    public record Difference(String path, JsonElement expected, JsonElement actual, Kind kind) {
+        @Override
+        public String toString() {
+            return (path.isEmpty() ? "/" : path) + " (" + kind + "): expected <" + expected + "> but was <" + actual + ">";
+        }
+    }
+
+    private final int limit;
+    private final boolean ignoreArrayOrder;
+    private final Set<String> exceptions;
+
+    /**
+     * Constructs a comparator collecting at most "json-diff-limit" differences.
+     *
+     * @param exceptions the names of the fields to skip, at any depth
+     */
+    public JsonComparator(String... exceptions) {
+        this(false, exceptions);
+    }
+
+    /**
+     * Constructs a comparator collecting at most "json-diff-limit" differences.
+     *
+     * @param ignoreArrayOrder true to compare arrays as multisets, regardless of the order of their elements
+     * @param exceptions       the names of the fields to skip, at any depth
+     */
+    public JsonComparator(boolean ignoreArrayOrder, String... exceptions) {
+        this(Integer.parseInt(ContextStore.get("json-diff-limit", "100")), ignoreArrayOrder, exceptions);
+    }
+
+    /**
+     * Constructs a comparator.
+     *
+     * @param limit      the maximum number of differences to collect
+     * @param exceptions the names of the fields to skip, at any depth
+     */
+    public JsonComparator(int limit, String... exceptions) {
+        this(limit, false, exceptions);
+    }
+
+    /**
+     * Constructs a comparator.
+     *
+     * @param limit            the maximum number of differences to collect
+     * @param ignoreArrayOrder true to compare arrays as multisets, regardless of the order of their elements
+     * @param exceptions       the names of the fields to skip, at any depth
+     */
+    public JsonComparator(int limit, boolean ignoreArrayOrder, String... exceptions) {
+        this.limit = Math.max(1, limit);
+        this.ignoreArrayOrder = ignoreArrayOrder;
+        this.exceptions = new HashSet<>(Arrays.asList(exceptions));
+    }
+
+    /**
+     * Compares two JSON trees.
+     *
+     * @param expected the expected tree
+     * @param actual   the actual tree
+     * @return the differences found, in document order of the expected tree, at most as many as the limit
+     */
+    public List<Difference> compare(JsonElement expected, JsonElement actual) {
+        List<Difference> differences = new ArrayList<>();
+        compare("", expected, actual, differences);
+        return differences;
+    }
+
+    private void compare(String path, JsonElement expected, JsonElement actual, List<Difference> differences) {
+        if (differences.size() >= limit) return;
+        if (actual == null) differences.add(new Difference(path, expected, null, Kind.MISSING));
+        else if (expected.isJsonObject()) {
+            if (!actual.isJsonObject()) differences.add(new Difference(path, expected, actual, Kind.TYPE));
+            else compareObjects(path, expected.getAsJsonObject(), actual.getAsJsonObject(), differences);
+        }
+        else if (expected.isJsonArray()) {
+            if (!actual.isJsonArray()) differences.add(new Difference(path, expected, actual, Kind.TYPE));
+            else compareArrays(path, expected.getAsJsonArray(), actual.getAsJsonArray(), differences);
+        }
+        else if (!expected.equals(actual)) {
+            boolean sameType = expected.isJsonNull() == actual.isJsonNull() && actual.isJsonPrimitive() == expected.isJsonPrimitive();
+            differences.add(new Difference(path, expected, actual, sameType ? Kind.VALUE : Kind.TYPE));
+        }
+    }
+
+    private void compareObjects(String path, JsonObject expected, JsonObject actual, List<Difference> differences) {
+        for (String fieldName : expected.keySet()) {
+            if (exceptions.contains(fieldName)) continue;
+            if (differences.size() >= limit) return;
+            compare(path + "/" + escape(fieldName), expected.get(fieldName), actual.get(fieldName), differences);
+        }
+    }
+
+    private void compareArrays(String path, JsonArray expected, JsonArray actual, List<Difference> differences) {
+        if (ignoreArrayOrder) {
+            matchArrays(path, expected, actual, differences);
+            return;
+        }
+        if (expected.size() == 0 ? actual.size() != 0 : actual.size() < expected.size())
+            differences.add(new Difference(path, expected, actual, Kind.SIZE));
+        for (int index = 0; index < Math.min(expected.size(), actual.size()); index++) {
+            if (differences.size() >= limit) return;
+            compare(path + "/" + index, expected.get(index), actual.get(index), differences);
+        }
+    }
+
+    /**
+     * Matches the elements of two arrays regardless of their order, reporting the unmatched elements on both sides.
+     *
+     * @param differences the list to report the unmatched elements to, or null to only count them
+     * @return the number of unmatched elements
+     */
+    private int matchArrays(String path, JsonArray expected, JsonArray actual, List<Difference> differences) {
+        // An open addressing table of the hashes of the actual elements, each slot heading a chain of the indexes
+        // of the elements sharing its hash, linked through next; emptied chains keep their slot with a head of -1
+        int capacity = Integer.highestOneBit(Math.max(2, actual.size()) * 2 - 1) << 1;
+        int mask = capacity - 1;
+        long[] slotHashes = new long[capacity];
+        int[] heads = new int[capacity];
+        Arrays.fill(heads, -2); // An unused slot
+        int[] next = new int[actual.size()];
+        for (int index = actual.size() - 1; index >= 0; index--) {
+            int slot = slotOf(hashOf(actual.get(index)), slotHashes, heads, mask);
+            next[index] = heads[slot] == -2 ? -1 : heads[slot];
+            heads[slot] = index;
+        }
+        boolean[] matched = new boolean[actual.size()];
+        int unmatched = 0;
+        for (int index = 0; index < expected.size(); index++) {
+            JsonElement element = expected.get(index);
+            int slot = slotOf(hashOf(element), slotHashes, heads, mask);
+            int candidate = heads[slot] == -2 ? -1 : heads[slot];
+            int previous = -1;
+            while (candidate >= 0 && !structurallyEqual(element, actual.get(candidate))) {
+                previous = candidate;
+                candidate = next[candidate];
+            }
+            if (candidate < 0) {
+                unmatched++;
+                if (differences == null) return unmatched;
+                if (differences.size() < limit) differences.add(new Difference(path + "/" + index, element, null, Kind.MISSING));
+                continue;
+            }
+            matched[candidate] = true;
+            // Unlinks the matched element, so that it is not matched twice
+            if (previous >= 0) next[previous] = next[candidate];
+            else heads[slot] = next[candidate];
+        }
+        for (int index = 0; index < actual.size(); index++) {
+            if (matched[index]) continue;
+            unmatched++;
+            if (differences == null) return unmatched;
+            if (differences.size() < limit) differences.add(new Difference(path + "/" + index, null, actual.get(index), Kind.UNEXPECTED));
+        }
+        return unmatched;
+    }
+
+    /**
+     * Returns the slot of a hash in an open addressing table, claiming an unused slot for it if it is not there yet.
+     */
+    private static int slotOf(long hash, long[] slotHashes, int[] heads, int mask) {
+        int slot = (int) (hash ^ hash >>> 32) & mask;
+        while (heads[slot] != -2 && slotHashes[slot] != hash) slot = (slot + 1) & mask;
+        slotHashes[slot] = hash;
+        return slot;
+    }
+
+    /**
+     * Returns whether two elements are equal apart from their excepted fields, ignoring array order.
+     */
+    private boolean structurallyEqual(JsonElement expected, JsonElement actual) {
+        if (expected.isJsonObject()) {
+            if (!actual.isJsonObject()) return false;
+            JsonObject expectedObject = expected.getAsJsonObject();
+            JsonObject actualObject = actual.getAsJsonObject();
+            int fieldCount = 0;
+            for (Map.Entry<String, JsonElement> field : expectedObject.entrySet()) {
+                if (exceptions.contains(field.getKey())) continue;
+                fieldCount++;
+                JsonElement actualValue = actualObject.get(field.getKey());
+                if (actualValue == null || !structurallyEqual(field.getValue(), actualValue)) return false;
+            }
+            for (String fieldName : actualObject.keySet()) if (!exceptions.contains(fieldName)) fieldCount--;
+            return fieldCount == 0;
+        }
+        if (expected.isJsonArray()) {
+            if (!actual.isJsonArray() || expected.getAsJsonArray().size() != actual.getAsJsonArray().size()) return false;
+            return matchArrays("", expected.getAsJsonArray(), actual.getAsJsonArray(), null) == 0;
+        }
+        return expected.equals(actual);
+    }
+
+    /**
+     * Returns the canonical structural hash of an element, consistent with {@link #structurallyEqual}:
+     * object fields and array elements are combined by addition, so that their order does not matter,
+     * and excepted fields are left out.
+     */
+    private long hashOf(JsonElement element) {
+        if (element.isJsonPrimitive()) {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isNumber()) {
+                double value = primitive.getAsDouble();
+                return mix(Double.doubleToLongBits(value == 0 ? 0 : value)); // Numbers are equal by value
+            }
+            return mix(primitive.isBoolean() ? (primitive.getAsBoolean() ? 1 : 2) : primitive.getAsString().hashCode() + 3L);
+        }
+        if (element.isJsonNull()) return mix(-1);
+        long hash;
+        if (element.isJsonObject()) {
+            hash = mix(-2);
+            for (Map.Entry<String, JsonElement> field : element.getAsJsonObject().entrySet())
+                if (!exceptions.contains(field.getKey()))
+                    hash += mix(field.getKey().hashCode() * 31L + hashOf(field.getValue()));
+        }
+        else {
+            JsonArray array = element.getAsJsonArray();
+            hash = mix(-3 - array.size());
+            for (JsonElement arrayElement : array) hash += mix(hashOf(arrayElement));
+        }
+        return hash;
+    }
+
+    /**
+     * Spreads the bits of a value (the finalizer of MurmurHash3), so that sums of mixed values rarely collide.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * Escapes a field name as a JSON pointer reference token.
+     */
+    private static String escape(String fieldName) {
+        if (fieldName.indexOf('~') < 0 && fieldName.indexOf('/') < 0) return fieldName;
+        return fieldName.replace("~", "~0").replace("/", "~1");
+    }
+}
@@ -0,0 +1,201 @@
+package utils.reflection;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.gson.JsonPrimitive;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.Collections;
+
+/**
+ * Compares two object graphs field by field, reading the fields through cached {@link Accessor}s rather than
+ * serializing both objects to JSON first.
+ * <p>
+ * The comparison follows the JSON based comparison it replaces: the fields of the expected object are compared
+ * against the fields of the same name of the actual object, recursively, skipping the fields named in the exceptions
+ * at any depth. The actual object may be of another class, such as another DTO with the same fields, and only fails
+ * to match if it lacks a field of the expected one. Fields are the non-static, non-transient fields of the class and its superclasses, as serialized by
+ * {@link utils.mapping.MappingUtilities.Json#mapper}, named by their {@link JsonProperty} annotation if any,
+ * and skipped if annotated with {@link JsonIgnore}. Arrays and collections are compared by index over the elements
+ * of the expected one, maps by the keys of the expected one, and numbers by value regardless of their boxed types.
+ * <p>
+ * Identical references match without being walked, and leaves (strings, numbers, booleans, characters, enums and
+ * classes whose fields are not open to reflection, such as JDK value types) are compared with {@link Object#equals}.
+ * A pair of objects already compared is not compared again, so cyclic graphs terminate.
+ */
+@SuppressWarnings("unused")
+public final class ObjectComparator {
+
+    /**
+     * A compared field of a class, with the name it is reported and excepted by.
+     */
+    private record Property(String name, Accessor<Object, Object> accessor) {}
+
+    private static final ClassValue<Property[]> properties = new ClassValue<>() {
+        @Override
+        protected Property[] computeValue(Class<?> type) {
+            ClassMetadata metadata = ClassMetadata.of(type);
+            return metadata.getFields().values().stream()
+                    .filter(field -> !Modifier.isStatic(field.getModifiers()))
+                    .filter(field -> !Modifier.isTransient(field.getModifiers()))
+                    .filter(field -> !field.isSynthetic())
+                    .filter(field -> isOpen(field.getDeclaringClass()))
+                    .filter(field -> !field.isAnnotationPresent(JsonIgnore.class))
+                    .map(field -> new Property(nameOf(field), metadata.getAccessor(field.getName())))
+                    .toArray(Property[]::new);
+        }
+    };
+
+    private static final ClassValue<Map<String, Property>> propertiesByName = new ClassValue<>() {
+        @Override
+        protected Map<String, Property> computeValue(Class<?> type) {
+            Map<String, Property> byName = new HashMap<>();
+            for (Property property : properties.get(type)) byName.putIfAbsent(property.name(), property);
+            return byName;
+        }
+    };
+
+    private final Set<String> exceptions;
+    private final Map<Object, Set<Object>> compared = new IdentityHashMap<>();
+
+    private ObjectComparator(String... exceptions) {
+        this.exceptions = new HashSet<>(Arrays.asList(exceptions));
+    }
+
+    /**
+     * Compares two objects, and throws an AssertionError at the first field that does not match.
+     *
+     * @param expected   the expected object
+     * @param actual     the actual object
+     * @param exceptions the names of the fields to skip, at any depth
+     * @throws AssertionError if the objects do not match
+     */
+    public static void compare(Object expected, Object actual, String... exceptions) {
+        String name = expected == null ? "root" : expected.getClass().getSimpleName();
+        new ObjectComparator(exceptions).compare(name, expected, actual);
+    }
+
+    /**
+     * Compares two objects, returning whether they match.
+     *
+     * @param expected   the expected object
+     * @param actual     the actual object
+     * @param exceptions the names of the fields to skip, at any depth
+     * @return true if the objects match, false otherwise
+     */
+    public static boolean matches(Object expected, Object actual, String... exceptions) {
+        try {
+            compare(expected, actual, exceptions);
+            return true;
+        }
+        catch (AssertionError error) {
+            return false;
+        }
+    }
+
+    private void compare(String name, Object expected, Object actual) {
+        if (expected == actual) return;
+        if (expected == null || actual == null) throw mismatch(name, expected, actual);
+        Class<?> type = expected.getClass();
+        if (isLeaf(type)) {
+            if (!leafEquals(expected, actual)) throw mismatch(name, expected, actual);
+            return;
+        }
+        if (!compared.computeIfAbsent(expected, key -> Collections.newSetFromMap(new IdentityHashMap<>())).add(actual))
+            return; // The pair is already being compared further up the graph, or was compared before
+
+        if (type.isArray()) compareArrays(name, expected, actual);
+        else if (expected instanceof Collection<?> collection) compareCollections(name, collection, actual);
+        else if (expected instanceof Map<?, ?> map) compareMaps(name, map, actual);
+        else compareFields(name, type, expected, actual);
+    }
+
+    private void compareArrays(String name, Object expected, Object actual) {
+        if (!actual.getClass().isArray()) throw mismatch(name, expected, actual);
+        int expectedLength = Array.getLength(expected);
+        int actualLength = Array.getLength(actual);
+        compareSizes(name, expectedLength, actualLength);
+        for (int index = 0; index < expectedLength; index++)
+            compare(name, Array.get(expected, index), Array.get(actual, index));
+    }
+
+    private void compareCollections(String name, Collection<?> expected, Object actual) {
+        if (!(actual instanceof Collection<?> actualCollection)) throw mismatch(name, expected, actual);
+        compareSizes(name, expected.size(), actualCollection.size());
+        Iterator<?> actualElements = actualCollection.iterator();
+        for (Object element : expected) compare(name, element, actualElements.next());
+    }
+
+    private void compareMaps(String name, Map<?, ?> expected, Object actual) {
+        if (!(actual instanceof Map<?, ?> actualMap)) throw mismatch(name, expected, actual);
+        for (Map.Entry<?, ?> entry : expected.entrySet()) {
+            String key = String.valueOf(entry.getKey());
+            if (exceptions.contains(key)) continue;
+            if (!actualMap.containsKey(entry.getKey())) throw mismatch(key, entry.getValue(), null);
+            compare(key, entry.getValue(), actualMap.get(entry.getKey()));
+        }
+    }
+
+    private void compareFields(String name, Class<?> type, Object expected, Object actual) {
+        Map<String, Property> actualProperties = actual.getClass() == type ? null : propertiesByName.get(actual.getClass());
+        for (Property property : properties.get(type)) {
+            if (exceptions.contains(property.name())) continue;
+            Property actualProperty = actualProperties == null ? property : actualProperties.get(property.name());
+            if (actualProperty == null) throw mismatch(property.name(), property.accessor().get(expected), null);
+            compare(property.name(), property.accessor().get(expected), actualProperty.accessor().get(actual));
+        }
+    }
+
+    /**
+     * Requires an actual array or collection to hold at least the elements of the expected one,
+     * and to be empty if the expected one is.
+     */
+    private static void compareSizes(String name, int expectedSize, int actualSize) {
+        if (expectedSize == 0 ? actualSize != 0 : actualSize < expectedSize)
+            throw new AssertionError("Sizes of the '" + name + "' fields do not match! expected:<" + expectedSize + "> but was:<" + actualSize + ">");
+    }
+
+    private static boolean isLeaf(Class<?> type) {
+        return type == String.class ||
+                type == Boolean.class ||
+                type == Character.class ||
+                Number.class.isAssignableFrom(type) ||
+                type.isEnum() ||
+                type.getSuperclass() != null && type.getSuperclass().isEnum() ||
+                !type.isArray() && !Collection.class.isAssignableFrom(type) && !Map.class.isAssignableFrom(type) &&
+                        !isOpen(type);
+    }
+
+    private static boolean isOpen(Class<?> type) {
+        return type.getModule().isOpen(type.getPackageName(), ObjectComparator.class.getModule());
+    }
+
+    private static boolean leafEquals(Object expected, Object actual) {
+        if (expected.equals(actual)) return true;
+        // Numbers of different boxed types match by value, as they would once serialized
+        return expected instanceof Number expectedNumber && actual instanceof Number actualNumber &&
+                new JsonPrimitive(expectedNumber).equals(new JsonPrimitive(actualNumber));
+    }
+
+    /**
+     * Returns the error reporting a field whose values do not match, for the caller to throw.
+     */
+    private static AssertionError mismatch(String name, Object expected, Object actual) {
+        return new AssertionError("Values of the '" + name + "' fields do not match! expected:<" + expected + "> but was:<" + actual + ">");
+    }
+
+    private static String nameOf(Field field) {
+        JsonProperty property = field.getAnnotation(JsonProperty.class);
+        return property != null && !property.value().isEmpty() ? property.value() : field.getName();
+    }
+}
@@ -1,12 +1,9 @@
 package utils.reflection;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import org.junit.Assert;
 import utils.mapping.MappingUtilities;
 import utils.Printer;
 import utils.StringUtilities;
@@ -14,12 +11,10 @@ import utils.StringUtilities;
 import java.lang.reflect.*;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 public class ReflectionUtilities {
 
     static Printer log = new Printer(ReflectionUtilities.class);
-    static ObjectMapper mapper = MappingUtilities.Json.mapper;
 
     /**
      * Iteratively invokes a specified method or conditional function until a condition is met
@@ -47,7 +42,6 @@ public class ReflectionUtilities {
         try {
             do {
                 Method method = getMethod(methodName, parent);
-                method.setAccessible(true);
                 condition = Boolean.parseBoolean(String.valueOf(method.invoke(parent, args)));
                 if (condition) break;
                 TimeUnit.SECONDS.sleep(interval);
@@ -177,6 +171,8 @@ public class ReflectionUtilities {
     /**
      * Compares two objects and throws an AssertionError if they are not equal.
      * This method is useful for testing purposes.
+     * <p>
+     * The object graphs are walked directly, without serializing them to JSON (see {@link ObjectComparator}).
      *
      * @param expected   the expected object
      * @param actual     the actual object
@@ -184,19 +180,12 @@ public class ReflectionUtilities {
      * @throws AssertionError if the objects are not equal
      */
     public static <T> void compareObjects(T expected, T actual, String... exceptions) {
-        try {
-            String expectedString = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(expected);
-            String actualString = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(actual);
-            JsonObject expectedJson = JsonParser.parseString(expectedString).getAsJsonObject();
-            JsonObject actualJson = JsonParser.parseString(actualString).getAsJsonObject();
-            compareJson(expectedJson, actualJson, exceptions);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
-        }
+        ObjectComparator.compare(expected, actual, exceptions);
     }
 
     /**
      * Compares two JSON objects and throws an assertion error if they do not match.
+     * The error lists every difference found, up to "json-diff-limit" differences (see {@link JsonComparator}).
      *
      * @param expectedJson The expected JSON object.
      * @param actualJson   The actual JSON object.
@@ -204,51 +193,14 @@ public class ReflectionUtilities {
      * @throws AssertionError if the JSON objects do not match.
      */
     public static void compareJson(JsonObject expectedJson, JsonObject actualJson, String... exceptions) {
-        Set<String> keySet = expectedJson.keySet().stream().filter(key -> !Arrays.asList(exceptions).contains(key))
-                .collect(Collectors.toSet());
-        for (String fieldName : keySet) {
-            boolean skip = Arrays.asList(exceptions).contains(fieldName);
-            boolean isNull = expectedJson.get(fieldName) == null;
-            boolean valueNull = expectedJson.get(fieldName).toString().equals("null");
-            boolean arrayIsEmpty = expectedJson.get(fieldName).toString().equals("[]");
-            boolean isObject = expectedJson.get(fieldName).isJsonObject();
-            boolean isArray = expectedJson.get(fieldName).isJsonArray();
-            boolean isPrimitive = expectedJson.get(fieldName).isJsonPrimitive();
-            if (!skip) {
-                if (!isNull && !valueNull && !arrayIsEmpty) {
-                    if (isObject) {
-                        compareJson(
-                                expectedJson.get(fieldName).getAsJsonObject(),
-                                actualJson.get(fieldName).getAsJsonObject(),
-                                exceptions
-                        );
-                    } else if (isArray) {
-                        compareJsonArray(
-                                expectedJson.get(fieldName).getAsJsonArray(),
-                                actualJson.get(fieldName).getAsJsonArray(),
-                                exceptions
-                        );
-                    } else if (isPrimitive)
-                        Assert.assertEquals("Values of the '" + fieldName + "' fields do not match!",
-                                expectedJson.get(fieldName),
-                                actualJson.get(fieldName)
-                        );
-                    else
-                        throw new RuntimeException("Could not determine field (" + expectedJson.get(fieldName) + ") type!");
-                    log.success("Match: " + fieldName + " -> " + actualJson.get(fieldName));
-                } else {
-                    Assert.assertEquals("Values of the '" + fieldName + "' fields do not match!",
-                            expectedJson.get(fieldName),
-                            actualJson.get(fieldName)
-                    );
-                    log.success("Match: " + fieldName + " -> " + actualJson.get(fieldName));
-                }
-            }
-        }
+        assertNoDifferences("Json objects do not match!", getJsonDifferences(expectedJson, actualJson, exceptions));
     }
 
     /**
      * Compares two JSON arrays and throws an Assertion Error if they are not identical.
+     * The error lists every difference found, up to "json-diff-limit" differences (see {@link JsonComparator}).
+     * An empty expected array matches any actual array, as it always has with this method, while empty arrays
+     * nested within the expected array require empty actual arrays.
      *
      * @param expectedJson the expected JSON array
      * @param actualJson   the actual JSON array to be compared with the expected JSON array
@@ -257,31 +209,84 @@ public class ReflectionUtilities {
      */
     public static void compareJsonArray(JsonArray expectedJson, JsonArray actualJson, String... exceptions) {
         log.info("Comparing json arrays...");
-        for (int index = 0; index <= expectedJson.size() - 1; index++) {
-            if (expectedJson.get(index).isJsonObject()) {
-                compareJson(
-                        expectedJson.get(index).getAsJsonObject(),
-                        actualJson.get(index).getAsJsonObject(),
-                        exceptions
-                );
-            } else if (expectedJson.get(index).isJsonArray()) {
-                compareJsonArray(
-                        expectedJson.get(index).getAsJsonArray(),
-                        actualJson.get(index).getAsJsonArray(),
-                        exceptions
-                );
-            } else
-                Assert.assertEquals("Array elements do not match!",
-                        expectedJson.get(index),
-                        actualJson.get(index)
-                );
-        }
+        if (!expectedJson.isEmpty())
+            assertNoDifferences("Json arrays do not match!", getJsonDifferences(expectedJson, actualJson, exceptions));
         log.success("Json arrays are identical!");
     }
 
+    /**
+     * Compares two JSON arrays as multisets, regardless of the order of their elements, and throws an Assertion Error
+     * listing the elements of either array that match no element of the other.
+     * Elements are matched by their canonical structural hashes in linear expected time (see {@link JsonComparator}),
+     * so large arrays returned in a nondeterministic order do not have to be sorted first.
+     * Unlike {@link #compareJsonArray}, matching objects must hold the same fields: fields only present in the actual
+     * elements are not ignored, unless they are named in the exceptions.
+     *
+     * @param expectedJson the expected JSON array
+     * @param actualJson   the actual JSON array to be compared with the expected JSON array
+     * @param exceptions   optional list of JSON object keys to be excluded from the comparison
+     * @throws AssertionError if the arrays do not hold the same elements
+     */
+    public static void compareJsonArrayIgnoringOrder(JsonArray expectedJson, JsonArray actualJson, String... exceptions) {
+        log.info("Comparing json arrays ignoring order...");
+        assertNoDifferences("Json arrays do not match!", getJsonDifferences(expectedJson, actualJson, true, exceptions));
+        log.success("Json arrays hold the same elements!");
+    }
+
+    /**
+     * Compares two JSON trees without asserting, and returns every difference between them, up to "json-diff-limit"
+     * differences. Each difference holds the JSON pointer of the value, the expected and actual values,
+     * and the kind of the difference.
+     * <p>
+     * Example usage:
+     * <pre>{@code
+     *     for (JsonComparator.Difference difference : getJsonDifferences(expectedJson, actualJson, "id"))
+     *         log.warning(difference.path() + " -> " + difference.actual());
+     * }</pre>
+     *
+     * @param expectedJson the expected JSON tree
+     * @param actualJson   the actual JSON tree
+     * @param exceptions   optional field names to exclude from comparison, at any depth
+     * @return the differences found, empty if the trees match
+     */
+    public static List<JsonComparator.Difference> getJsonDifferences(
+            JsonElement expectedJson,
+            JsonElement actualJson,
+            String... exceptions) {
+        return getJsonDifferences(expectedJson, actualJson, false, exceptions);
+    }
+
+    /**
+     * Compares two JSON trees without asserting, and returns every difference between them, up to "json-diff-limit"
+     * differences.
+     *
+     * @param expectedJson     the expected JSON tree
+     * @param actualJson       the actual JSON tree
+     * @param ignoreArrayOrder true to compare arrays as multisets, reporting the unmatched elements on either side,
+     *                         in which case matching objects must hold the same fields apart from the exceptions
+     * @param exceptions       optional field names to exclude from comparison, at any depth
+     * @return the differences found, empty if the trees match
+     */
+    public static List<JsonComparator.Difference> getJsonDifferences(
+            JsonElement expectedJson,
+            JsonElement actualJson,
+            boolean ignoreArrayOrder,
+            String... exceptions) {
+        return new JsonComparator(ignoreArrayOrder, exceptions).compare(expectedJson, actualJson);
+    }
+
+    private static void assertNoDifferences(String message, List<JsonComparator.Difference> differences) {
+        if (differences.isEmpty()) return;
+        StringBuilder report = new StringBuilder(message);
+        for (JsonComparator.Difference difference : differences) report.append("\n ").append(difference);
+        throw new AssertionError(report.toString());
+    }
+
     /**
      * Compares two objects and returns a boolean indicating whether they match.
      * This method is useful for testing purposes.
+     * <p>
+     * The object graphs are walked directly, without serializing them to JSON (see {@link ObjectComparator}).
      *
      * @param expected   the expected object
      * @param actual     the actual object
@@ -290,12 +295,8 @@ public class ReflectionUtilities {
      */
     public static boolean objectsMatch(Object expected, Object actual, String... exceptions) {
         try {
-            String expectedString = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(expected);
-            String actualString = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(actual);
-            JsonObject expectedJson = JsonParser.parseString(expectedString).getAsJsonObject();
-            JsonObject actualJson = JsonParser.parseString(actualString).getAsJsonObject();
-            compareJson(expectedJson, actualJson, exceptions);
-        } catch (AssertionError | JsonProcessingException error) {
+            ObjectComparator.compare(expected, actual, exceptions);
+        } catch (AssertionError error) {
             log.warning(error.getMessage());
             return false;
         }
@@ -310,16 +311,12 @@ public class ReflectionUtilities {
      * @return a Map of method names to Method objects
      */
     public static Map<String, Method> getMethods(Object object) {
-        Map<String, Method> methodMap = new HashMap<>();
-        for (Method method : object.getClass().getDeclaredMethods()) {
-            method.setAccessible(true);
-            methodMap.put(method.getName(), method);
-        }
-        return methodMap;
+        return new HashMap<>(ClassMetadata.of(object.getClass()).getDeclaredMethodsByName());
     }
 
     /**
-     * Returns a Method that represents the method with the specified name in the given object's class.
+     * Returns a Method that represents the method with the specified name in the given object's class,
+     * or in one of its superclasses if the class does not declare it.
      *
      * @param methodName the name of the method to retrieve
      * @param object     the object whose class contains the method to retrieve
@@ -327,10 +324,8 @@ public class ReflectionUtilities {
      * @throws NoSuchMethodException if no method with the specified name could be located in the given object's class
      */
     public static <T> Method getMethod(String methodName, Class<T> object) throws NoSuchMethodException {
-        for (Method method : object.getDeclaredMethods()) {
-            method.setAccessible(true);
-            if (method.getName().equals(methodName)) return method;
-        }
+        Method method = ClassMetadata.of(object).getMethod(methodName);
+        if (method != null) return method;
         throw new NoSuchMethodException(
                 "No method named " + methodName + " could be located in class called" + object.getName()
         );
@@ -346,10 +341,8 @@ public class ReflectionUtilities {
      */
     public static <T> Object getFieldValue(String fieldName, Class<T> inputClass) {
         try {
-            Field field = inputClass.getDeclaredField(fieldName);
-            field.setAccessible(true);
-            return field.get(inputClass);
-        } catch (IllegalAccessException | NoSuchFieldException exception) {
+            return fieldOf(inputClass, fieldName).get(inputClass);
+        } catch (IllegalAccessException exception) {
             throw new RuntimeException(exception);
         }
     }
@@ -364,10 +357,8 @@ public class ReflectionUtilities {
      */
     public static Object getField(String fieldName, Object inputObject) {
         try {
-            Field field = inputObject.getClass().getDeclaredField(fieldName);
-            field.setAccessible(true);
-            return field.get(inputObject);
-        } catch (IllegalAccessException | NoSuchFieldException exception) {
+            return fieldOf(inputObject.getClass(), fieldName).get(inputObject);
+        } catch (IllegalAccessException exception) {
             throw new RuntimeException(exception);
         }
     }
@@ -382,14 +373,61 @@ public class ReflectionUtilities {
      */
     public static void setField(Object object, String fieldName, Object fieldValue) {
         try {
-            Field field = object.getClass().getDeclaredField(fieldName);
-            field.setAccessible(true);
-            field.set(object, fieldValue);
-        } catch (IllegalAccessException | NoSuchFieldException exception) {
+            fieldOf(object.getClass(), fieldName).set(object, fieldValue);
+        } catch (IllegalAccessException exception) {
             throw new RuntimeException(exception);
         }
     }
 
+    /**
+     * Returns the field of the given name, declared by the given class or inherited from one of its superclasses.
+     *
+     * @param type      the class to look the field up in
+     * @param fieldName the name of the field
+     * @return the field, opened for access
+     * @throws RuntimeException wrapping a {@link NoSuchFieldException} if the class has no such field
+     */
+    private static Field fieldOf(Class<?> type, String fieldName) {
+        Field field = ClassMetadata.of(type).getField(fieldName);
+        if (field == null) throw new RuntimeException(
+                new NoSuchFieldException("No field named " + fieldName + " could be located in class " + type.getName())
+        );
+        return field;
+    }
+
+    /**
+     * Returns a reusable accessor of a field, reading and writing it through method handles rather than through
+     * {@link Field#get} and {@link Field#set}. Prefer it to {@link #getField(String, Object)} and
+     * {@link #setField(Object, String, Object)} when the same field is accessed repeatedly.
+     * <p>
+     * Example usage:
+     * <pre>{@code
+     *     Accessor<Pet, String> name = ReflectionUtilities.getAccessor(Pet.class, "name");
+     *     for (Pet pet : pets) name.set(pet, name.get(pet).trim());
+     * }</pre>
+     *
+     * @param type      the class to access the field on
+     * @param fieldName the name of the field, declared by the class or inherited from one of its superclasses
+     * @return the accessor of the field, cached per class and field
+     * @throws RuntimeException wrapping a {@link NoSuchFieldException} if the class has no such field
+     */
+    public static <T, V> Accessor<T, V> getAccessor(Class<T> type, String fieldName) {
+        return ClassMetadata.of(type).getAccessor(fieldName);
+    }
+
+    /**
+     * Returns a reusable accessor of a property, reading and writing it through lambdas that call the public getter
+     * and setter methods of the class directly, or through the handles of its backing field if there are none.
+     *
+     * @param type         the class to access the property on
+     * @param propertyName the name of the field backing the property
+     * @return the accessor of the property, cached per class and property
+     * @throws RuntimeException wrapping a {@link NoSuchFieldException} if the class has no such field
+     */
+    public static <T, V> Accessor<T, V> getPropertyAccessor(Class<T> type, String propertyName) {
+        return ClassMetadata.of(type).getPropertyAccessor(propertyName);
+    }
+
     /**
      * This method retrieves all the fields and their values in a given input class.
      *
@@ -400,10 +438,8 @@ public class ReflectionUtilities {
     public static <T> Map<String, Object> getFields(Class<T> inputClass) {
         Map<String, Object> fieldMap = new HashMap<>();
         try {
-            for (Field field : inputClass.getDeclaredFields()) {
-                field.setAccessible(true);
+            for (Field field : ClassMetadata.of(inputClass).getDeclaredFields())
                 fieldMap.put(field.getName(), field.get(inputClass));
-            }
         } catch (IllegalAccessException exception) {
             throw new RuntimeException(exception);
         }
@@ -420,10 +456,8 @@ public class ReflectionUtilities {
     public static Map<String, Object> getFields(Object inputObject) {
         Map<String, Object> fieldMap = new HashMap<>();
         try {
-            for (Field field : inputObject.getClass().getDeclaredFields()) {
-                field.setAccessible(true);
+            for (Field field : ClassMetadata.of(inputObject.getClass()).getDeclaredFields())
                 fieldMap.put(field.getName(), field.get(inputObject));
-            }
         } catch (IllegalAccessException exception) {
             throw new RuntimeException(exception);
         }
@@ -436,11 +470,10 @@ public class ReflectionUtilities {
      * @param object the object whose fields are to be printed
      */
     public static void printObjectFields(Object object) {
-        List<Field> fields = List.of(object.getClass().getDeclaredFields());
+        List<Field> fields = ClassMetadata.of(object.getClass()).getDeclaredFields();
         StringBuilder output = new StringBuilder();
         try {
             for (Field field : fields) {
-                field.setAccessible(true);
                 String fieldName = StringUtilities.firstLetterCapped(field.getName());
                 output.append("\n").append(fieldName).append(" : ").append(field.get(object));
             }
@@ -456,7 +489,7 @@ public class ReflectionUtilities {
      * @param object the object whose getter methods are to be printed
      */
     public static void printModelGetterValues(Object object) {
-        Method[] methods = object.getClass().getDeclaredMethods();
+        List<Method> methods = ClassMetadata.of(object.getClass()).getDeclaredMethods();
         StringBuilder output = new StringBuilder();
         try {
             for (Method method : methods)
@@ -510,10 +543,9 @@ public class ReflectionUtilities {
      * @throws ClassNotFoundException If the provided class name cannot be found.
      */
     public static <T> JsonObject getJsonObject(Class<T> clazz, JsonObject json, String... exceptions) throws NoSuchFieldException, ClassNotFoundException {
-        List<Field> fields = List.of(clazz.getDeclaredFields());
+        List<Field> fields = ClassMetadata.of(clazz).getDeclaredFields();
 
         for (Field field : fields) {
-            field.setAccessible(true);
             if (Arrays.stream(exceptions).noneMatch(exception -> exception.equals(field.getName()))) {
                 boolean isMember = field.getType().isMemberClass();
                 boolean isList = fieldIsOfType(field, "List");
@@ -541,10 +573,9 @@ public class ReflectionUtilities {
      * @throws ClassNotFoundException If the provided class name cannot be found.
      */
     public static <T> JsonObject getJsonFromObject(T object, JsonObject json, String... exceptions) throws NoSuchFieldException, ClassNotFoundException, IllegalAccessException {
-        List<Field> fields = List.of(object.getClass().getDeclaredFields());
+        List<Field> fields = ClassMetadata.of(object.getClass()).getDeclaredFields();
 
         for (Field field : fields) {
-            field.setAccessible(true);
             if (Arrays.stream(exceptions).noneMatch(exception -> exception.equals(field.getName()))) {
                 boolean isMember = field.getType().isMemberClass();
                 boolean isList = fieldIsOfType(field, "List");
@@ -667,10 +698,7 @@ public class ReflectionUtilities {
      * @throws NullPointerException if {@code clazz} is null
      */
     public static String[] getAllFieldNames(Class<?> clazz) {
-        return Arrays.stream(clazz.getDeclaredFields())
-                .map(Field::getName)
-                .filter(name -> !name.equals("this$0")) // Excludes synthetic fields like inner class references
-                .toArray(String[]::new);
+        return ClassMetadata.of(clazz).getDeclaredFieldNames();
     }
 
 }
@@ -1,23 +1,73 @@
 import collections.Pair;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import context.ContextStore;
 import enums.ZoneIds;
+import jakarta.mail.Folder;
+import jakarta.mail.Session;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.search.SearchTerm;
+import jakarta.mail.search.SubjectTerm;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import utils.*;
 import utils.arrays.ArrayUtilities;
+import utils.email.AttachmentDescriptor;
+import utils.email.AttachmentStore;
+import utils.email.EmailFilter;
+import utils.email.EmailSearch;
 import utils.email.EmailUtilities;
+import utils.email.EmailAcquisition;
+import utils.email.InboxDirectory;
+import utils.email.MessageArchive;
+import utils.email.MessageDeduplicator;
+import utils.email.MessagePreview;
+import utils.email.MessageSubscription;
+import utils.email.MessageWaiter;
+import utils.email.MailSender;
+import utils.email.MailboxPool;
+import utils.email.MailboxPoller;
+import utils.email.MailboxWatermark;
+import utils.email.MailboxWatcher;
+import utils.email.MessageStore;
 import utils.mapping.MappingUtilities;
+import utils.reflection.Accessor;
+import utils.reflection.JsonComparator;
 import utils.reflection.ReflectionUtilities;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import static utils.arrays.ArrayUtilities.*;
+import static utils.email.AttachmentDescriptor.Status.DUPLICATE;
+import static utils.email.AttachmentDescriptor.Status.SAVED;
+import static utils.email.AttachmentDescriptor.Status.SKIPPED;
+import static utils.email.EmailUtilities.Inbox.EmailField.ATTACHMENTS;
 import static utils.email.EmailUtilities.Inbox.EmailField.CONTENT;
+import static utils.email.EmailUtilities.Inbox.EmailField.SENDER;
 import static utils.email.EmailUtilities.Inbox.EmailField.SUBJECT;
 import static utils.StringUtilities.contextCheck;
 
@@ -195,6 +245,990 @@ public class AppTest {
         printer.success("Sending and receiving emails tests are successful!");
     }
 
+    @Test
+    public void idleAcquisitionTest() throws Exception {
+        MailStandIn.reset();
+        EmailUtilities.Inbox inbox = new EmailUtilities.Inbox("localhost", "0", "idle-user", "password", "none", "standin");
+        inbox.setIdle(true);
+        EmailUtilities.Inbox otherInbox = new EmailUtilities.Inbox("localhost", "0", "idle-user", "password", "none", "standin");
+        otherInbox.setIdle(true);
+        CompletableFuture<List<EmailUtilities.Inbox.EmailMessage>> otherWait =
+                otherInbox.awaitMessages(10, 1, false, false, false, List.of(Pair.of(SUBJECT, "Test subject of another idle wait")));
+
+        String emailSubject = "Test subject of idle acquisition";
+        CompletableFuture.delayedExecutor(500, TimeUnit.MILLISECONDS).execute(() -> MailStandIn.deliver(
+                "INBOX",
+                MailStandIn.message("sender@test.com", emailSubject, "username:xyz")
+        ));
+
+        // The mailbox is scanned once before the email is delivered, so only the IDLE listener can pick it up
+        inbox.load(10, 1, false, false, false, List.of(Pair.of(SUBJECT, emailSubject)));
+        Assert.assertEquals("Unexpected number of emails found!", 1, inbox.getMessages().size());
+        Assert.assertEquals(
+                "Inboxes of the same account did not share an IDLE listener!",
+                1,
+                Thread.getAllStackTraces().keySet().stream().filter(thread -> thread.getName().equals("email-idle-idle-user")).count()
+        );
+
+        // The listener stops once the last inbox waiting on it is done, rather than holding its thread and connection
+        otherInbox.stopIdling();
+        Assert.assertTrue("Cancelled wait did not complete!", otherWait.isCancelled());
+        TimeUnit.MILLISECONDS.sleep(500);
+        Assert.assertTrue(
+                "IDLE listener outlived its waiters!",
+                Thread.getAllStackTraces().keySet().stream().noneMatch(thread -> thread.getName().equals("email-idle-idle-user"))
+        );
+        printer.success("The idleAcquisitionTest() test pass!");
+    }
+
+    @Test
+    public void searchTermFilterTest() {
+        MailStandIn.reset();
+        MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", "Test filter banana", "username:xyz"));
+        MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", "Test filter apple", "username:xyz"));
+        MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", "Test filter orange", "test"));
+        // Matched by the case-insensitive server search only
+        MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", "TEST FILTER kiwi", "username:xyz"));
+
+        Pair<SearchTerm, List<Pair<EmailUtilities.Inbox.EmailField, String>>> query = EmailSearch.compile(
+                List.of(Pair.of(SUBJECT, "Test filter"), Pair.of(ATTACHMENTS, "report.pdf"))
+        );
+        Assert.assertTrue("Subject filter was not compiled to a search term!", query.alpha() instanceof SubjectTerm);
+        Assert.assertEquals("Unexpected residual filters!", List.of(Pair.of(ATTACHMENTS, "report.pdf")), query.beta());
+
+        EmailUtilities.Inbox inbox = new EmailUtilities.Inbox("localhost", "0", "search-user", "password", "none", "standin");
+        inbox.load(false, false, false, List.of(Pair.of(SUBJECT, "Test filter"), Pair.of(CONTENT, "username:xyz")));
+
+        Assert.assertEquals("Unexpected number of emails found!", 2, inbox.getMessages().size());
+        Assert.assertNotNull("Message was not found!", inbox.getMessageBy(SUBJECT, "Test filter apple"));
+        printer.success("The searchTermFilterTest() test pass!");
+    }
+
+    @Test
+    public void incrementalSyncTest() {
+        MailStandIn.reset();
+        String emailSubject = "Test subject of incremental sync";
+        MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", emailSubject, "username:xyz"));
+
+        EmailUtilities.Inbox inbox = new EmailUtilities.Inbox("localhost", "0", "sync-user", "password", "none", "standin");
+        List<Pair<EmailUtilities.Inbox.EmailField, String>> filterPairs = List.of(Pair.of(SUBJECT, emailSubject));
+        inbox.load(false, false, false, filterPairs);
+        inbox.load(false, false, false, filterPairs);
+        Assert.assertEquals("Already synced emails were resolved again!", 1, inbox.getMessages().size());
+
+        MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", emailSubject, "username:abc"));
+        inbox.load(false, false, false, filterPairs);
+        Assert.assertEquals("Newly arrived email was not resolved!", 2, inbox.getMessages().size());
+        printer.success("The incrementalSyncTest() test pass!");
+    }
+
+    @Test
+    public void pendingWatermarkTest() throws MessagingException {
+        MailStandIn.reset();
+        MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", "Test subject of pending watermark", "username:xyz"));
+        Folder folder = new MailStandIn.StandInStore(Session.getInstance(new Properties()), null).getFolder("INBOX");
+        folder.open(Folder.READ_ONLY);
+        MailboxWatermark watermark = new MailboxWatermark();
+
+        watermark.peek(folder);
+        MailboxWatermark.Pending pending = watermark.peek(folder);
+        Assert.assertEquals("Uncommitted emails were not returned again!", 1, pending.messages().length);
+        watermark.commit(pending);
+        Assert.assertEquals("Committed emails were returned again!", 0, watermark.peek(folder).messages().length);
+
+        MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", "Test subject of pending watermark", "username:abc"));
+        Assert.assertEquals("Newly arrived email was not returned!", 1, watermark.sync(folder).length);
+        Assert.assertEquals("Synced email was returned again!", 0, watermark.sync(folder).length);
+        folder.close(false);
+        printer.success("The pendingWatermarkTest() test pass!");
+    }
+
+    @Test
+    public void lazyEmailContentTest() {
+        EmailUtilities.Inbox.EmailMessage emailMessage = EmailUtilities.Inbox.EmailMessage.from(
+                MailStandIn.message("sender@test.com", "Test subject of lazy content", "username:xyz")
+        );
+        boolean match = EmailUtilities.Inbox.emailMatch(emailMessage, List.of(Pair.of(SUBJECT, "lazy content")));
+
+        Assert.assertTrue("Email did not match the subject filter!", match);
+        Assert.assertNull(
+                "Email content was decoded for a subject filter!",
+                ReflectionUtilities.getField("messageContent", emailMessage)
+        );
+        Assert.assertEquals("Unexpected content!", "username:xyz", emailMessage.getMessageContent());
+        printer.success("The lazyEmailContentTest() test pass!");
+    }
+
+    @Test
+    public void sharedPollerTest() throws Exception {
+        MailStandIn.reset();
+        EmailUtilities.Inbox inbox = new EmailUtilities.Inbox("localhost", "0", "poll-user", "password", "none", "standin");
+
+        List<CompletableFuture<List<EmailUtilities.Inbox.EmailMessage>>> acquisitions = new ArrayList<>();
+        for (int index = 0; index < 20; index++)
+            acquisitions.add(inbox.awaitMessages(10, 1, false, false, false, List.of(Pair.of(SUBJECT, "Shared poll #" + index + ";"))));
+        for (int index = 0; index < 20; index++)
+            MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", "Shared poll #" + index + ";", "username:xyz"));
+
+        CompletableFuture.allOf(acquisitions.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        for (int index = 0; index < 20; index++)
+            Assert.assertEquals(
+                    "Waiter received an unexpected email!",
+                    "Shared poll #" + index + ";",
+                    acquisitions.get(index).get().get(0).getSubject()
+            );
+        Assert.assertEquals("Unexpected number of emails found!", 20, inbox.getMessages().size());
+
+        MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", "Shared poll early;", "username:xyz"));
+        List<EmailUtilities.Inbox.EmailMessage> early = inbox.awaitMessages(10, 1, false, false, false, List.of(Pair.of(SUBJECT, "Shared poll early;")))
+                .get(10, TimeUnit.SECONDS);
+        Assert.assertEquals("Email found by the initial scan was not returned!", "Shared poll early;", early.get(0).getSubject());
+        CompletableFuture<List<EmailUtilities.Inbox.EmailMessage>> again =
+                inbox.awaitMessages(10, 1, false, false, false, List.of(Pair.of(SUBJECT, "Shared poll early;")));
+        Assert.assertFalse("Email counted by an earlier wait completed a new one!", again.isDone());
+        again.cancel(false);
+
+        // Without waiters the poller retires on its next poll, and a late registrant is handed to its replacement
+        MailboxPool.Key account = new MailboxPool.Key("standin", "localhost", "0", "poll-user");
+        MailboxPoller retired = MailboxPoller.of(account, "INBOX", new Properties(), "password");
+        TimeUnit.MILLISECONDS.sleep(2500);
+        MailboxPoller replacement = MailboxPoller.of(account, "INBOX", new Properties(), "password");
+        Assert.assertNotSame("Idle poller was not retired!", retired, replacement);
+        MessageWaiter late = new MessageWaiter(inbox, 10, 1, false, false, false, List.of(Pair.of(SUBJECT, "Late poll;")));
+        retired.register(late);
+        Assert.assertTrue("Waiter was not handed to the replacing poller!", replacement.hasWaiters());
+        Assert.assertFalse("Retired poller took a waiter!", retired.hasWaiters());
+        late.getFuture().cancel(false);
+        printer.success("The sharedPollerTest() test pass!");
+    }
+
+    @Test
+    public void messageStoreStressTest() throws Exception {
+        MailStandIn.reset();
+        for (int index = 0; index < 8; index++)
+            MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", "Store stress #" + index + ";", "username:xyz"));
+        List<EmailUtilities.Inbox> inboxes = new ArrayList<>();
+        for (int index = 0; index < 8; index++)
+            inboxes.add(new EmailUtilities.Inbox("localhost", "0", "store-user-" + index, "password", "none", "standin"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> loads = new ArrayList<>();
+        for (int index = 0; index < 8; index++) {
+            EmailUtilities.Inbox inbox = inboxes.get(index);
+            String subject = "Store stress #" + index + ";";
+            loads.add(executor.submit(() -> inbox.load(false, false, false, List.of(Pair.of(SUBJECT, subject)))));
+        }
+        for (Future<?> load : loads) load.get(10, TimeUnit.SECONDS);
+        for (int index = 0; index < 8; index++) {
+            List<EmailUtilities.Inbox.EmailMessage> messages = inboxes.get(index).getMessages();
+            Assert.assertEquals("Inboxes clobbered each other's messages!", 1, messages.size());
+            Assert.assertEquals("Unexpected email found!", "Store stress #" + index + ";", messages.get(0).getSubject());
+        }
+
+        EmailUtilities.Inbox.EmailMessage emailMessage = inboxes.get(0).getMessages().get(0);
+        MessageStore store = new MessageStore(1000);
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int writer = 0; writer < 4; writer++)
+            tasks.add(executor.submit(() -> {
+                for (int index = 0; index < 5000; index++) store.add(emailMessage);
+            }));
+        for (int reader = 0; reader < 4; reader++)
+            tasks.add(executor.submit(() -> {
+                for (int index = 0; index < 500; index++)
+                    Assert.assertTrue(store.stream().allMatch(message -> message.getSubject() != null));
+            }));
+        for (Future<?> task : tasks) task.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        Assert.assertEquals("Message store exceeded its capacity!", 1000, store.size());
+        Assert.assertEquals("Unexpected number of stored emails!", 1000, store.snapshot().size());
+        printer.success("The messageStoreStressTest() test pass!");
+    }
+
+    @Test
+    public void indexedMessageLookupTest() {
+        EmailUtilities.Inbox inbox = new EmailUtilities.Inbox("localhost", "0", "index-user", "password", "none", "standin");
+        MessageStore store = new MessageStore(500);
+        for (int index = 0; index < 1000; index++)
+            store.add(EmailUtilities.Inbox.EmailMessage.from(MailStandIn.message(
+                    "sender" + index + "@test.com",
+                    "Indexed subject #" + index + ";",
+                    "Verification code: " + (100000 + index)
+            )));
+        for (int index = 0; index < 5; index++)
+            inbox.getMessageStore().add(EmailUtilities.Inbox.EmailMessage.from(MailStandIn.message(
+                    "sender" + index + "@test.com",
+                    "Indexed subject #" + index + ";",
+                    "Verification code: " + (100000 + index)
+            )));
+
+        Assert.assertEquals("Evicted emails are still indexed!", 0, store.find(List.of(Pair.of(SUBJECT, "#499;"))).size());
+        Assert.assertEquals("Unexpected email found!", "Indexed subject #500;", store.find(List.of(Pair.of(SUBJECT, "#500;"))).get(0).getSubject());
+        Assert.assertEquals("Unexpected number of emails found!", 1, store.find(List.of(Pair.of(CONTENT, "code: 100999"))).size());
+        Assert.assertEquals("Unexpected number of emails found!", 500, store.find(List.of(Pair.of(SUBJECT, "Indexed"))).size());
+        Assert.assertEquals("Unexpected number of emails found!", 1, store.getIndex().findExact(SUBJECT, "indexed SUBJECT #777;").size());
+        Assert.assertEquals("Unexpected number of emails found!", 100, store.getIndex().findByPrefix(SUBJECT, "Indexed subject #9").size());
+        Assert.assertEquals(
+                "Unexpected number of emails found!",
+                500,
+                store.getIndex().findSentBetween(new Date(System.currentTimeMillis() - 60000), new Date(System.currentTimeMillis() + 60000)).size()
+        );
+        Assert.assertEquals(
+                "Unexpected email found!",
+                "sender3@test.com",
+                inbox.getMessageBy(List.of(Pair.of(SUBJECT, "subject #3;"), Pair.of(CONTENT, "100003"))).getFrom()
+        );
+        printer.success("The indexedMessageLookupTest() test pass!");
+    }
+
+    @Test
+    public void emailFilterTest() {
+        EmailUtilities.Inbox.EmailMessage message = EmailUtilities.Inbox.EmailMessage.from(MailStandIn.message(
+                "sender@test.com",
+                "Filter subject",
+                "The ushers sent verification code 123456"
+        ));
+        EmailUtilities.Inbox.EmailMessage blankMessage = EmailUtilities.Inbox.EmailMessage.from(MailStandIn.message(
+                "sender@test.com",
+                "Blank subject",
+                ""
+        ));
+
+        Assert.assertTrue("Legacy filter did not match!", EmailFilter.compile(List.of(Pair.of(SUBJECT, "FILTER SUBJECT"), Pair.of(CONTENT, "ushers"))).test(message));
+        Assert.assertFalse("Legacy filter matched!", EmailFilter.compile(List.of(Pair.of(SUBJECT, "FILTER"))).test(message));
+        Assert.assertTrue(
+                "Multi-pattern filter did not match!",
+                EmailFilter.of(
+                        EmailFilter.Condition.contains(CONTENT, "she", "hers"),
+                        EmailFilter.Condition.contains(CONTENT, "missing", "sent"),
+                        EmailFilter.Condition.containsIgnoreCase(CONTENT, "VERIFICATION"),
+                        EmailFilter.Condition.matches(CONTENT, "\\d{6}$"),
+                        EmailFilter.Condition.containsIgnoreCase(SENDER, "@TEST.")
+                ).test(message)
+        );
+        Assert.assertFalse(
+                "Multi-pattern filter matched!",
+                EmailFilter.of(
+                        EmailFilter.Condition.contains(CONTENT, "she"),
+                        EmailFilter.Condition.contains(CONTENT, "Verification")
+                ).test(message)
+        );
+        String[] codes = new String[40];
+        for (int index = 0; index < codes.length; index++) codes[index] = "CODE " + (123417 + index);
+        Assert.assertTrue(
+                "Automaton filter did not match!",
+                EmailFilter.of(
+                        EmailFilter.Condition.containsIgnoreCase(CONTENT, codes),
+                        EmailFilter.Condition.contains(CONTENT, "ushers")
+                ).test(message)
+        );
+        Assert.assertFalse("Automaton filter matched!", EmailFilter.of(EmailFilter.Condition.contains(CONTENT, codes)).test(message));
+        Assert.assertFalse("Regex filter matched!", EmailFilter.of(EmailFilter.Condition.matches(SUBJECT, "^subject")).test(message));
+        Assert.assertFalse("Attachment filter matched!", EmailUtilities.Inbox.emailMatch(message, List.of(Pair.of(ATTACHMENTS, "report.pdf"))));
+        Assert.assertTrue("Empty content filter did not match!", EmailUtilities.Inbox.emailMatch(blankMessage, List.of(Pair.of(CONTENT, ""))));
+        printer.success("The emailFilterTest() test pass!");
+    }
+
+    @Test
+    public void parallelResolutionTest() {
+        MailStandIn.reset();
+        for (int index = 0; index < 16; index++)
+            MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", "Parallel #" + index + ";", "username:xyz"));
+        MailStandIn.setLatency(50);
+
+        EmailUtilities.Inbox sequentialInbox = new EmailUtilities.Inbox("localhost", "0", "sequential-user", "password", "none", "standin");
+        sequentialInbox.load(false, false, false, List.of(Pair.of(SUBJECT, "Parallel")));
+        int sequentialDownloads = MailStandIn.peakDownloads();
+
+        MailStandIn.resetPeakDownloads();
+        EmailUtilities.Inbox parallelInbox = new EmailUtilities.Inbox("localhost", "0", "parallel-user", "password", "none", "standin");
+        parallelInbox.setParallelResolution(true);
+        parallelInbox.load(false, false, false, List.of(Pair.of(SUBJECT, "Parallel")));
+        int parallelDownloads = MailStandIn.peakDownloads();
+        MailStandIn.setLatency(0);
+
+        List<String> sequentialSubjects = sequentialInbox.getMessages().stream().map(EmailUtilities.Inbox.EmailMessage::getSubject).toList();
+        List<String> parallelSubjects = parallelInbox.getMessages().stream().map(EmailUtilities.Inbox.EmailMessage::getSubject).toList();
+        Assert.assertEquals("Unexpected number of emails found!", 16, parallelSubjects.size());
+        Assert.assertEquals("Parallel resolution changed the order of the emails!", sequentialSubjects, parallelSubjects);
+        Assert.assertEquals("Unexpected content!", "username:xyz", parallelInbox.getMessages().get(0).getMessageContent());
+        Assert.assertEquals("Sequential resolution downloaded emails concurrently!", 1, sequentialDownloads);
+        Assert.assertTrue("Parallel resolution did not download emails concurrently!", parallelDownloads > 1);
+        Assert.assertTrue("Parallel resolution exceeded its concurrency!", parallelDownloads <= 4);
+        printer.success("The parallelResolutionTest() test pass!");
+    }
+
+    @Test
+    public void batchedClearInboxTest() {
+        MailStandIn.reset();
+        for (int index = 0; index < 30; index++)
+            MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", (index % 3 == 0 ? "Keep" : "Drop") + " #" + index + ";", "username:xyz"));
+        EmailUtilities.Inbox inbox = new EmailUtilities.Inbox("localhost", "0", "clear-user", "password", "none", "standin");
+
+        inbox.clearInbox(List.of(Pair.of(SUBJECT, "Drop")));
+        Assert.assertEquals("Unexpected number of emails left!", 10, MailStandIn.size("INBOX"));
+
+        for (int index = 0; index < 1200; index++)
+            MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", "Bulk #" + index + ";", "username:xyz"));
+        inbox.clearInboxInBatches(250);
+        Assert.assertEquals("Inbox was not cleared!", 0, MailStandIn.size("INBOX"));
+        printer.success("The batchedClearInboxTest() test pass!");
+    }
+
+    @Test
+    public void attachmentPersistenceTest() throws IOException {
+        MailStandIn.reset();
+        Map<String, byte[]> attachments = new LinkedHashMap<>();
+        attachments.put("report.txt", "a".repeat(400).getBytes());
+        attachments.put("copy.txt", "a".repeat(400).getBytes());
+        attachments.put("large.bin", new byte[2000]);
+        attachments.put("second.txt", "b".repeat(400).getBytes());
+        attachments.put("third.txt", "c".repeat(800).getBytes());
+        MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", "Attachments;", "username:xyz", attachments));
+
+        Path directory = Files.createTempDirectory("attachments");
+        EmailUtilities.Inbox inbox = new EmailUtilities.Inbox("localhost", "0", "attachment-user", "password", "none", "standin");
+        inbox.setAttachmentStore(new AttachmentStore(directory, 1000, 1500, 256));
+        inbox.setAsyncAttachments(true);
+        inbox.load(false, false, true, List.of(Pair.of(SUBJECT, "Attachments;")));
+        Assert.assertTrue(
+                "Attachments were still being written once the connection was released!",
+                inbox.getMessages().get(0).getAttachmentDescriptorsAsync().isDone()
+        );
+
+        List<AttachmentDescriptor> descriptors = inbox.getMessages().get(0).getAttachmentDescriptors();
+        Assert.assertEquals(
+                "Unexpected attachment statuses!",
+                List.of(SAVED, DUPLICATE, SKIPPED, SAVED, SKIPPED),
+                descriptors.stream().map(AttachmentDescriptor::status).toList()
+        );
+        Assert.assertEquals("Duplicate was not linked to the saved attachment!", descriptors.get(0).path(), descriptors.get(1).path());
+        Assert.assertEquals("Unexpected attachment content!", "b".repeat(400), Files.readString(descriptors.get(3).path()));
+        try (Stream<Path> files = Files.list(directory)) {
+            Assert.assertEquals("Unexpected files saved!", 2, files.count());
+        }
+        printer.success("The attachmentPersistenceTest() test pass!");
+    }
+
+    @Test
+    public void localMailboxTest() throws Exception {
+        Path directory = Files.createTempDirectory("mailboxes");
+        Path mbox = directory.resolve("inbox.mbox");
+        try (java.io.OutputStream outputStream = Files.newOutputStream(mbox)) {
+            for (int index = 0; index < 1000; index++) {
+                String content = index == 500 ? "Quoted line:\n>From the archive\nusername:xyz" : "Local content #" + index + ";";
+                outputStream.write(("From sender@test.com Thu Jan  1 00:00:00 2026\n").getBytes());
+                MailStandIn.message("sender" + index + "@test.com", "Local mbox #" + index + ";", content).writeTo(outputStream);
+                outputStream.write("\n\n".getBytes());
+            }
+        }
+        Path maildir = directory.resolve("maildir");
+        Files.createDirectories(maildir.resolve("new"));
+        Files.createDirectories(maildir.resolve("cur"));
+        Files.createDirectories(maildir.resolve("tmp"));
+        try (java.io.OutputStream outputStream = Files.newOutputStream(maildir.resolve("cur").resolve("1.M1.test:2,S"))) {
+            MailStandIn.message("sender@test.com", "Local maildir seen;", "username:xyz").writeTo(outputStream);
+        }
+        try (java.io.OutputStream outputStream = Files.newOutputStream(maildir.resolve("new").resolve("2.M2.test"))) {
+            MailStandIn.message("sender@test.com", "Local maildir new;", "username:xyz").writeTo(outputStream);
+        }
+        Path emlDirectory = directory.resolve("eml");
+        Files.createDirectories(emlDirectory);
+        try (java.io.OutputStream outputStream = Files.newOutputStream(emlDirectory.resolve("message.eml"))) {
+            MailStandIn.message("sender@test.com", "Local eml;", "username:xyz").writeTo(outputStream);
+        }
+
+        EmailUtilities.Inbox mboxInbox = new EmailUtilities.Inbox(mbox.toString(), "0", "mbox-user", "", "none", "local");
+        mboxInbox.load(false, false, false, List.of(Pair.of(SUBJECT, "Local mbox")));
+        Assert.assertEquals("Unexpected number of emails loaded!", 1000, mboxInbox.getMessages().size());
+        Assert.assertEquals("Unexpected email order!", "Local mbox #0;", mboxInbox.getMessages().get(999).getSubject());
+        Assert.assertTrue(
+                "Quoted From line split the email!",
+                mboxInbox.getMessageBy(SUBJECT, "Local mbox #500;").getMessageContent().contains(">From the archive")
+        );
+        Assert.assertEquals("Unexpected email content!", "Local content #42;", mboxInbox.getMessageBy(SUBJECT, "Local mbox #42;").getMessageContent().trim());
+
+        EmailUtilities.Inbox maildirInbox = new EmailUtilities.Inbox(maildir.toString(), "0", "maildir-user", "", "none", "local");
+        maildirInbox.load(false, false, false, List.of(Pair.of(CONTENT, "username:xyz")));
+        Assert.assertEquals(
+                "Unexpected maildir emails!",
+                List.of("Local maildir new;", "Local maildir seen;"),
+                maildirInbox.getMessages().stream().map(EmailUtilities.Inbox.EmailMessage::getSubject).toList()
+        );
+        try (java.io.OutputStream outputStream = Files.newOutputStream(maildir.resolve("new").resolve("3.M3.test"))) {
+            MailStandIn.message("sender@test.com", "Local maildir later;", "username:xyz").writeTo(outputStream);
+        }
+        maildirInbox.load(false, false, false, List.of(Pair.of(SUBJECT, "Local maildir later;")));
+        Assert.assertEquals(
+                "Pooled local folder missed a new email!",
+                "Local maildir later;",
+                maildirInbox.getMessageBy(SUBJECT, "Local maildir later;").getSubject()
+        );
+
+        EmailUtilities.Inbox emlInbox = new EmailUtilities.Inbox(emlDirectory.toString(), "0", "eml-user", "", "none", "local");
+        emlInbox.load(false, false, false, List.of(Pair.of(SUBJECT, "Local eml;")));
+        Assert.assertEquals("Unexpected number of emails loaded!", 1, emlInbox.getMessages().size());
+        printer.success("The localMailboxTest() test pass!");
+    }
+
+    @Test
+    public void savedEmailLookupTest() throws IOException {
+        MailStandIn.reset();
+        MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", "Saved email;", "username:xyz"));
+        Path directory = Files.createTempDirectory("inbox");
+        EmailUtilities.Inbox inbox = new EmailUtilities.Inbox("localhost", "0", "saved-user", "password", "none", "standin");
+        inbox.setInboxDirectory(new InboxDirectory(directory, 2, 0));
+
+        String acquiredPath = new EmailAcquisition(inbox).acquireEmail(5, 1, false, true, false, List.of(Pair.of(SUBJECT, "Saved email;")));
+        Path savedPath = inbox.getSavedPath(inbox.getMessageBy(SUBJECT, "Saved email;"));
+        Assert.assertEquals("Unexpected acquired path!", "file://" + savedPath.toAbsolutePath().toString().replaceAll("#", "%23"), acquiredPath);
+        Assert.assertEquals("Unexpected saved content!", "username:xyz", Files.readString(savedPath).trim());
+
+        Path first = inbox.saveMessage("message.html", "first");
+        Path second = inbox.saveMessage("message.html", "second");
+        Assert.assertEquals("Duplicate file name was not suffixed!", "message-1.html", second.getFileName().toString());
+        Assert.assertFalse("Oldest email was not rotated out!", Files.exists(savedPath));
+        Assert.assertNull("Rotated email is still indexed!", inbox.getSavedPath(inbox.getMessageBy(SUBJECT, "Saved email;")));
+        Assert.assertEquals("Unexpected saved content!", "first", Files.readString(first));
+        printer.success("The savedEmailLookupTest() test pass!");
+    }
+
+    @Test
+    public void messageArchiveTest() throws IOException {
+        Path directory = Files.createTempDirectory("archive");
+        MessageArchive archive = new MessageArchive(directory, 64, false);
+        for (int index = 0; index < 10; index++)
+            Assert.assertTrue("Message was not archived!", archive.append("message-" + index + ".html", "body ü #" + index));
+        Assert.assertFalse("Duplicate key was archived!", archive.append("message-0.html", "duplicate"));
+        Assert.assertEquals("Unexpected archived content!", "body ü #7", archive.read("message-7.html"));
+
+        MessageArchive reopened = new MessageArchive(directory, 64, false);
+        Assert.assertEquals("Archive was not recovered!", 10, reopened.size());
+        Assert.assertEquals("Unexpected recovered content!", "body ü #9", reopened.read("message-9.html"));
+        Assert.assertTrue("Message was not appended after recovery!", reopened.append("message-10.html", "body ü #10"));
+        Assert.assertEquals("Unexpected appended content!", "body ü #10", new MessageArchive(directory, 64, false).read("message-10.html"));
+
+        InboxDirectory inboxDirectory = new InboxDirectory(Files.createTempDirectory("inbox"), 0, 0, InboxDirectory.SaveMode.ARCHIVE);
+        Path saved = inboxDirectory.save("message.html", "archived");
+        Path duplicate = inboxDirectory.save("message.html", "duplicate");
+        Assert.assertEquals("Duplicate file name was not suffixed!", "message-1.html", duplicate.getFileName().toString());
+        Assert.assertFalse("Archived email was written to a file!", Files.exists(saved));
+        Assert.assertEquals("Unexpected archived content!", "duplicate", inboxDirectory.read("message-1.html"));
+        Assert.assertEquals("Unexpected exported path!", saved, inboxDirectory.pathOf("message.html"));
+        Assert.assertEquals("Unexpected exported content!", "archived", Files.readString(saved));
+        printer.success("The messageArchiveTest() test pass!");
+    }
+
+    @Test
+    public void messageDeduplicationTest() throws MessagingException, IOException {
+        MailStandIn.reset();
+        MimeMessage identified = MailStandIn.message("sender@test.com", "Deduplicated email;", "username:xyz");
+        MimeMessage anonymous = MailStandIn.message("sender@test.com", "Deduplicated email;", "username:abc");
+        anonymous.removeHeader("Message-ID");
+        for (MimeMessage message : List.of(identified, identified, anonymous, anonymous)) MailStandIn.deliver("INBOX", message);
+        EmailUtilities.Inbox inbox = new EmailUtilities.Inbox("localhost", "0", "dedup-user", "password", "none", "standin");
+
+        inbox.load(false, false, false, List.of(Pair.of(SUBJECT, "Deduplicated email;")));
+        Assert.assertEquals("Duplicate emails were resolved!", 2, inbox.getMessages().size());
+        inbox.resetWatermarks();
+        inbox.load(false, false, false, List.of(Pair.of(SUBJECT, "Deduplicated email;")));
+        inbox.load(false, false, false, List.of(Pair.of(SENDER, "sender@test.com")));
+        Assert.assertEquals("Emails were resolved again!", 2, inbox.getMessages().size());
+        CompletableFuture<List<EmailUtilities.Inbox.EmailMessage>> distinct = new EmailUtilities.Inbox("localhost", "0", "dedup-wait-user", "password", "none", "standin")
+                .awaitMessages(5, 2, false, false, false, List.of(Pair.of(SUBJECT, "Deduplicated email;")));
+        Assert.assertTrue("Distinct emails were not counted!", distinct.isDone());
+        Assert.assertEquals("Unexpected number of counted emails!", 2, distinct.join().size());
+        Assert.assertTrue(
+                "Duplicate emails were counted!",
+                new EmailUtilities.Inbox("localhost", "0", "dedup-wait-user-2", "password", "none", "standin")
+                        .awaitMessages(1, 3, false, false, false, List.of(Pair.of(SUBJECT, "Deduplicated email;")))
+                        .handle((messages, exception) -> exception instanceof TimeoutException)
+                        .join()
+        );
+        inbox.setInboxDirectory(new InboxDirectory(Files.createTempDirectory("inbox"), 0, 0));
+        Assert.assertNotNull(
+                "Duplicate email was not saved!",
+                new EmailAcquisition(inbox).acquireEmail(5, 1, false, true, false, List.of(Pair.of(SUBJECT, "Deduplicated email;"), Pair.of(CONTENT, "username:xyz")))
+        );
+        Assert.assertEquals("Saved duplicate was stored again!", 2, inbox.getMessages().size());
+
+        EmailUtilities.Inbox otherAccount = new EmailUtilities.Inbox("localhost", "0", "other-user", "password", "none", "standin");
+        otherAccount.setDeduplicator(inbox.getDeduplicator());
+        otherAccount.load(false, false, false, List.of(Pair.of(SUBJECT, "Deduplicated email;")));
+        Assert.assertTrue("Emails of another account were resolved again!", otherAccount.getMessages().isEmpty());
+
+        MessageDeduplicator deduplicator = new MessageDeduplicator(2);
+        List<EmailUtilities.Inbox.EmailMessage> messages = inbox.getMessages();
+        Assert.assertTrue("Email was not recorded!", deduplicator.add(messages.get(0)));
+        Assert.assertFalse("Duplicate email was recorded!", deduplicator.add(messages.get(0)));
+        Assert.assertTrue("Email was not recorded!", deduplicator.add(messages.get(1)));
+        Assert.assertTrue("Email was not recorded!", deduplicator.add(EmailUtilities.Inbox.EmailMessage.from(MailStandIn.message("sender@test.com", "Other email;", "username:xyz"))));
+        Assert.assertEquals("Deduplicator exceeded its capacity!", 2, deduplicator.size());
+        Assert.assertFalse("Oldest email was not forgotten!", deduplicator.contains(messages.get(0)));
+        Assert.assertTrue("Newer email was forgotten!", deduplicator.contains(messages.get(1)));
+
+        anonymous.saveChanges();
+        anonymous.removeHeader("Message-ID");
+        EmailUtilities.Inbox.EmailMessage unresolved = EmailUtilities.Inbox.EmailMessage.from(anonymous);
+        Assert.assertTrue("Email was not recorded!", deduplicator.add(unresolved));
+        Assert.assertNull("Email content was decoded to identify it!", ReflectionUtilities.getField("messageContent", unresolved));
+
+        MessageDeduplicator growing = new MessageDeduplicator(1000);
+        List<EmailUtilities.Inbox.EmailMessage> recorded = new ArrayList<>();
+        for (int index = 0; index < 300; index++)
+            recorded.add(EmailUtilities.Inbox.EmailMessage.from(MailStandIn.message("sender@test.com", "Growing email #" + index + ";", "username:xyz")));
+        for (EmailUtilities.Inbox.EmailMessage message : recorded) Assert.assertTrue("Email was not recorded!", growing.add(message));
+        Assert.assertEquals("Unexpected number of emails remembered!", 300, growing.size());
+        for (EmailUtilities.Inbox.EmailMessage message : recorded) Assert.assertTrue("Email was forgotten while growing!", growing.contains(message));
+        printer.success("The messageDeduplicationTest() test pass!");
+    }
+
+    @Test
+    public void contentPreviewTest() throws MessagingException, IOException {
+        MailStandIn.reset();
+        String filler = "newsletter ".repeat(2000);
+        MimeMessage encoded = MailStandIn.message("sender@test.com", "Preview email;", "Verification code: 345678\n" + filler);
+        encoded.setHeader("Content-Transfer-Encoding", "base64");
+        MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", "Preview email;", "Verification code: 123456\n" + filler));
+        MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", "Preview email;", filler + "Verification code: 654321"));
+        MailStandIn.deliver("INBOX", encoded);
+
+        EmailUtilities.Inbox previewInbox = new EmailUtilities.Inbox("localhost", "0", "preview-user", "password", "none", "standin");
+        previewInbox.setContentPreviewBytes(1024);
+        previewInbox.load(false, false, false, List.of(Pair.of(CONTENT, "Verification code:")));
+        Assert.assertEquals("Unexpected number of previewed emails!", 2, previewInbox.getMessages().size());
+        Assert.assertTrue(
+                "Matching email was not downloaded in full!",
+                previewInbox.getMessages().stream().allMatch(message -> message.getMessageContent().endsWith(filler))
+        );
+
+        EmailUtilities.Inbox fullInbox = new EmailUtilities.Inbox("localhost", "0", "full-user", "password", "none", "standin");
+        fullInbox.load(false, false, false, List.of(Pair.of(CONTENT, "Verification code:")));
+        Assert.assertEquals("Unexpected number of emails!", 3, fullInbox.getMessages().size());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        encoded.writeTo(outputStream);
+        String preview = MessagePreview.of(new MimeMessage(null, new ByteArrayInputStream(outputStream.toByteArray())), 1024);
+        Assert.assertNotNull("Email was not previewed!", preview);
+        Assert.assertTrue("Unexpected preview!", preview.startsWith("Verification code: 345678") && preview.length() < 1024);
+        printer.success("The contentPreviewTest() test pass!");
+    }
+
+    @Test
+    public void mailboxWatcherTest() throws IOException, InterruptedException {
+        MailStandIn.reset();
+        List<EmailUtilities.Inbox> inboxes = new ArrayList<>();
+        for (int account = 0; account < 6; account++) {
+            for (String folderName : List.of("INBOX", "Spam")) {
+                EmailUtilities.Inbox inbox = new EmailUtilities.Inbox("localhost", "0", "watched-user-" + account, "password", "none", "standin");
+                inbox.setFolderName(folderName);
+                inboxes.add(inbox);
+            }
+        }
+        try (MailboxWatcher watcher = new MailboxWatcher(2, 100, 1)) {
+            Assert.assertEquals("Unexpected number of watched folders!", 12, watcher.watchAll(inboxes).size());
+            List<CompletableFuture<List<EmailUtilities.Inbox.EmailMessage>>> futures = inboxes.stream()
+                    .map(inbox -> inbox.awaitMessages(10, 1, false, false, false, List.of(Pair.of(SUBJECT, "Watched " + inbox.getFolderName() + ";"))))
+                    .toList();
+            MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", "Watched INBOX;", "username:xyz"));
+            MailStandIn.deliver("Spam", MailStandIn.message("sender@test.com", "Watched Spam;", "username:xyz"));
+            for (int index = 0; index < inboxes.size(); index++)
+                Assert.assertEquals(
+                        "Unexpected email of " + inboxes.get(index).getFolderName() + "!",
+                        "Watched " + inboxes.get(index).getFolderName() + ";",
+                        futures.get(index).join().get(0).getSubject()
+                );
+
+            EmailUtilities.Inbox streamedInbox = inboxes.get(0);
+            streamedInbox.setInboxDirectory(new InboxDirectory(Files.createTempDirectory("inbox"), 0, 0));
+            List<EmailUtilities.Inbox.EmailMessage> streamed = new CopyOnWriteArrayList<>();
+            MessageSubscription subscription = new EmailAcquisition(streamedInbox, watcher)
+                    .streamEmails(false, List.of(Pair.of(SUBJECT, "Streamed;")), streamed::add);
+            MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", "Streamed;", "first"));
+            MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", "Streamed;", "second"));
+            for (int attempt = 0; attempt < 50 && streamed.size() < 2; attempt++) TimeUnit.MILLISECONDS.sleep(100);
+            subscription.cancel();
+            MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", "Streamed;", "third"));
+            TimeUnit.MILLISECONDS.sleep(300);
+            Assert.assertEquals("Unexpected number of streamed emails!", 2, streamed.size());
+            Assert.assertNotNull("Streamed email was not saved!", streamedInbox.getSavedPath(streamed.get(0)));
+
+            EmailUtilities.Inbox sharingInbox = new EmailUtilities.Inbox("localhost", "0", "watched-user-0", "password", "none", "standin");
+            watcher.watch(sharingInbox);
+            CompletableFuture<List<EmailUtilities.Inbox.EmailMessage>> kept =
+                    inboxes.get(0).awaitMessages(10, 1, false, false, false, List.of(Pair.of(SUBJECT, "Kept watch;")));
+            CompletableFuture<List<EmailUtilities.Inbox.EmailMessage>> dropped =
+                    sharingInbox.awaitMessages(10, 1, false, false, false, List.of(Pair.of(SUBJECT, "Dropped watch;")));
+            watcher.unwatch(sharingInbox);
+            Assert.assertTrue("Wait of the unwatched inbox was not cancelled!", dropped.isCancelled());
+            Assert.assertFalse("Wait of another inbox of the folder was cancelled!", kept.isDone());
+            MailStandIn.deliver("INBOX", MailStandIn.message("sender@test.com", "Kept watch;", "username:xyz"));
+            Assert.assertEquals("Unexpected kept email!", "Kept watch;", kept.join().get(0).getSubject());
+        }
+        Assert.assertNull("Closed watcher still watches the inbox!", inboxes.get(0).getWatcher());
+        printer.success("The mailboxWatcherTest() test pass!");
+    }
+
+    @Test
+    public void sendPipelineTest() {
+        MailStandIn.reset();
+        EmailUtilities emailUtilities = new EmailUtilities("localhost", "25", "standin-smtp");
+        List<String> receivers = new ArrayList<>();
+        for (int index = 0; index < 200; index++) receivers.add("receiver" + index + "@test.com");
+
+        MailStandIn.failNextSends(1);
+        int sentCount = emailUtilities.sendEmails("Pipeline;", "username:xyz", "text/plain", receivers, "pipeline@test.com", "password");
+        Assert.assertTrue(
+                "Asynchronous email was not sent!",
+                emailUtilities.sendEmailAsync("Pipeline;", "username:xyz", "text/plain", "receiver@test.com", "pipeline@test.com", "password", null).join()
+        );
+        Assert.assertTrue(
+                "Email was not sent!",
+                emailUtilities.sendEmail("Pipeline;", "username:xyz", "receiver@test.com", "pipeline@test.com", "password", null)
+        );
+
+        MailSender.Metrics metrics = emailUtilities.getSender("pipeline@test.com", "password").getMetrics();
+        Assert.assertEquals("Unexpected number of emails sent!", 200, sentCount);
+        Assert.assertEquals("Unexpected number of emails delivered!", 202, MailStandIn.size("INBOX"));
+        Assert.assertEquals("Dropped connection was not reconnected!", 1, metrics.reconnects());
+        Assert.assertTrue("Transports were not reused!", MailStandIn.transportConnections() <= 5);
+
+        MailStandIn.failNextSends(2);
+        Assert.assertFalse(
+                "Failed email was reported as sent!",
+                emailUtilities.sendEmailAsync("Pipeline;", "username:xyz", "text/plain", "receiver@test.com", "pipeline@test.com", "password", null).join()
+        );
+
+        MailSender sender = emailUtilities.getSender("pipeline@test.com", "password");
+        Assert.assertSame("Sender was not shared!", sender, emailUtilities.getSender("pipeline@test.com", "password"));
+        Assert.assertNotSame("Sender was reused with another password!", sender, emailUtilities.getSender("pipeline@test.com", "rotated"));
+        printer.success("The sendPipelineTest() test pass!");
+    }
+
+    static class Account {
+        private String userName = "standin";
+        private int loginCount;
+
+        private String describe() {
+            return userName + ":" + loginCount;
+        }
+    }
+
+    static class AdminAccount extends Account {
+        private final List<String> roles = new ArrayList<>(List.of("admin"));
+    }
+
+    @Test
+    public void reflectionMetadataTest() throws Exception {
+        AdminAccount account = new AdminAccount();
+        Assert.assertEquals("Inherited field was not read!", "standin", ReflectionUtilities.getField("userName", account));
+        ReflectionUtilities.setField(account, "loginCount", 3);
+        Assert.assertEquals("Inherited field was not set!", 3, ReflectionUtilities.getField("loginCount", account));
+        Assert.assertEquals(
+                "Inherited method was not located!",
+                "standin:3",
+                ReflectionUtilities.getMethod("describe", AdminAccount.class).invoke(account)
+        );
+        Assert.assertArrayEquals(
+                "Declared field names do not match!",
+                new String[]{"roles"},
+                ReflectionUtilities.getAllFieldNames(AdminAccount.class)
+        );
+        Assert.assertEquals("Declared fields do not match!", Map.of("roles", List.of("admin")), ReflectionUtilities.getFields(account));
+        try {
+            ReflectionUtilities.getField("password", account);
+            Assert.fail("Missing field did not throw!");
+        }
+        catch (RuntimeException exception) {
+            Assert.assertTrue("Unexpected cause!", exception.getCause() instanceof NoSuchFieldException);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int task = 0; task < 64; task++) {
+            int value = task;
+            futures.add(executor.submit(() -> {
+                Account copy = new AdminAccount();
+                for (int iteration = 0; iteration < 1000; iteration++) {
+                    ReflectionUtilities.setField(copy, "loginCount", value);
+                    Assert.assertEquals(value, ReflectionUtilities.getField("loginCount", copy));
+                }
+                return value;
+            }));
+        }
+        for (int task = 0; task < futures.size(); task++)
+            Assert.assertEquals("Concurrent access failed!", task, (int) futures.get(task).get(30, TimeUnit.SECONDS));
+        executor.shutdown();
+        printer.success("The reflectionMetadataTest() test pass!");
+    }
+
+    public static class Profile {
+        private static int profileCount = 0;
+        private static final String kind = "profile";
+        private int age;
+        private boolean verified;
+
+        public int getAge() {
+            return age;
+        }
+
+        public void setAge(int age) {
+            this.age = age;
+        }
+
+        public boolean isVerified() {
+            return verified;
+        }
+
+        public void setVerified(boolean verified) {
+            this.verified = verified;
+        }
+    }
+
+    @Test
+    public void accessorTest() {
+        Accessor<AdminAccount, Integer> loginCount = ReflectionUtilities.getAccessor(AdminAccount.class, "loginCount");
+        Assert.assertSame("Accessor was not cached!", loginCount, ReflectionUtilities.getAccessor(AdminAccount.class, "loginCount"));
+        AdminAccount account = new AdminAccount();
+        loginCount.set(account, 7);
+        Assert.assertEquals("Inherited field was not written!", 7, (int) loginCount.get(account));
+        Assert.assertEquals("Field handle does not match the field!", 7, ReflectionUtilities.getField("loginCount", account));
+
+        Accessor<Profile, Integer> age = ReflectionUtilities.getPropertyAccessor(Profile.class, "age");
+        Accessor<Profile, Boolean> verified = ReflectionUtilities.getPropertyAccessor(Profile.class, "verified");
+        Profile profile = new Profile();
+        age.setter().accept(profile, 42);
+        verified.set(profile, true);
+        Assert.assertEquals("Property was not written through its setter!", 42, profile.getAge());
+        Assert.assertEquals("Property was not read through its getter!", 42, (int) age.getter().apply(profile));
+        Assert.assertTrue("Boolean property was not written!", verified.get(profile));
+        Assert.assertTrue("Getter was not spun into a lambda!", age.getter().getClass().isSynthetic());
+
+        Accessor<Profile, Integer> profileCount = ReflectionUtilities.getAccessor(Profile.class, "profileCount");
+        profileCount.set(null, 3);
+        Assert.assertEquals("Static field was not written!", 3, (int) profileCount.get(null));
+        Accessor<Profile, String> kind = ReflectionUtilities.getAccessor(Profile.class, "kind");
+        Assert.assertEquals("Static final field was not read!", "profile", kind.get(null));
+        try {
+            kind.set(null, "other");
+            Assert.fail("Static final field was written!");
+        }
+        catch (RuntimeException exception) {
+            Assert.assertTrue("Unexpected cause!", exception.getCause() instanceof IllegalAccessException);
+        }
+        printer.success("The accessorTest() test pass!");
+    }
+
+    static class Owner {
+        String name;
+        long updatedAt;
+        List<Profile> profiles = new ArrayList<>();
+        Map<String, Object> tags = new LinkedHashMap<>();
+        Owner partner;
+
+        Owner(String name, long updatedAt) {
+            this.name = name;
+            this.updatedAt = updatedAt;
+        }
+    }
+
+    @Test
+    public void objectComparatorTest() {
+        Owner expected = new Owner("standin", 1L);
+        Owner actual = new Owner("standin", 2L);
+        for (Owner owner : List.of(expected, actual)) {
+            Profile profile = new Profile();
+            profile.setAge(42);
+            owner.profiles.add(profile);
+            owner.tags.put("count", 3);
+            owner.tags.put("updatedAt", owner.updatedAt);
+        }
+        actual.tags.put("count", 3L);
+        expected.partner = new Owner("partner", 0L);
+        expected.partner.partner = expected;
+        actual.partner = new Owner("partner", 0L);
+        actual.partner.partner = actual;
+
+        Assert.assertFalse("Differing fields matched!", ReflectionUtilities.objectsMatch(expected, actual));
+        Assert.assertTrue("Excepted fields were compared!", ReflectionUtilities.objectsMatch(expected, actual, "updatedAt"));
+        ReflectionUtilities.compareObjects(expected, actual, "updatedAt");
+
+        actual.profiles.get(0).setVerified(true);
+        try {
+            ReflectionUtilities.compareObjects(expected, actual, "updatedAt");
+            Assert.fail("Differing nested fields matched!");
+        }
+        catch (AssertionError error) {
+            Assert.assertTrue("Unexpected failure: " + error.getMessage(), error.getMessage().contains("'verified'"));
+        }
+        actual.profiles.get(0).setVerified(false);
+        actual.profiles.clear();
+        Assert.assertFalse("Missing elements matched!", ReflectionUtilities.objectsMatch(expected, actual, "updatedAt"));
+        Assert.assertTrue("Identical objects did not match!", ReflectionUtilities.objectsMatch(actual, actual));
+
+        OwnerView view = new OwnerView();
+        view.name = "standin";
+        Assert.assertTrue("Objects of another class did not match!", ReflectionUtilities.objectsMatch(new OwnerSummary("standin"), view));
+        Assert.assertFalse("Missing field matched!", ReflectionUtilities.objectsMatch(view, new OwnerSummary("standin")));
+
+        Map<String, Object> expectedTags = new HashMap<>();
+        expectedTags.put("missing", null);
+        try {
+            ReflectionUtilities.compareObjects(expectedTags, new HashMap<>());
+            Assert.fail("Missing null entry matched!");
+        }
+        catch (AssertionError error) {
+            Assert.assertTrue("Unexpected failure: " + error.getMessage(), error.getMessage().startsWith("Values of the 'missing' fields"));
+        }
+        printer.success("The objectComparatorTest() test pass!");
+    }
+
+    record OwnerSummary(String name) {}
+
+    static class OwnerView {
+        String name;
+        String nickname = "standin";
+    }
+
+    @Test
+    public void jsonDifferencesTest() {
+        JsonObject expected = JsonParser.parseString(
+                "{\"id\": 1, \"name\": \"doggie\", \"tags\": [{\"a/b\": 1}, {\"a/b\": 2}], \"owner\": {\"age\": 3, \"pets\": []}, \"photo\": null}"
+        ).getAsJsonObject();
+        JsonObject actual = JsonParser.parseString(
+                "{\"id\": 2, \"name\": \"doggie\", \"tags\": [{\"a/b\": 1}, {\"a/b\": 3}], \"owner\": {\"age\": 3.0, \"pets\": [1]}, \"extra\": true}"
+        ).getAsJsonObject();
+
+        List<JsonComparator.Difference> differences = ReflectionUtilities.getJsonDifferences(expected, actual);
+        Assert.assertEquals(
+                "Unexpected differences: " + differences,
+                List.of("/id", "/tags/1/a~1b", "/owner/pets", "/photo"),
+                differences.stream().map(JsonComparator.Difference::path).toList()
+        );
+        Assert.assertEquals(
+                "Unexpected kinds: " + differences,
+                List.of(JsonComparator.Kind.VALUE, JsonComparator.Kind.VALUE, JsonComparator.Kind.SIZE, JsonComparator.Kind.MISSING),
+                differences.stream().map(JsonComparator.Difference::kind).toList()
+        );
+        Assert.assertEquals("Limit was not applied!", 2, new JsonComparator(2).compare(expected, actual).size());
+        Assert.assertTrue(
+                "Excepted fields were compared!",
+                ReflectionUtilities.getJsonDifferences(expected, actual, "id", "a/b", "pets", "photo").isEmpty()
+        );
+        try {
+            ReflectionUtilities.compareJson(expected, actual, "id");
+            Assert.fail("Differing json objects matched!");
+        }
+        catch (AssertionError error) {
+            Assert.assertEquals("Unexpected report: " + error.getMessage(), 4, error.getMessage().split("\n").length);
+        }
+        ReflectionUtilities.compareJsonArray(expected.getAsJsonArray("tags"), expected.getAsJsonArray("tags"));
+        ReflectionUtilities.compareJsonArray(new JsonArray(), expected.getAsJsonArray("tags"));
+        printer.success("The jsonDifferencesTest() test pass!");
+    }
+
+    @Test
+    public void unorderedJsonArrayTest() {
+        JsonArray expected = JsonParser.parseString(
+                "[{\"id\": 1, \"tags\": [\"a\", \"b\"], \"at\": 5}, {\"id\": 2, \"tags\": []}, {\"id\": 1, \"tags\": [\"a\", \"b\"]}, 3]"
+        ).getAsJsonArray();
+        JsonArray actual = JsonParser.parseString(
+                "[3.0, {\"tags\": [\"b\", \"a\"], \"id\": 1}, {\"id\": 1, \"tags\": [\"a\", \"b\"], \"at\": 6}, {\"id\": 4, \"tags\": []}]"
+        ).getAsJsonArray();
+
+        List<JsonComparator.Difference> differences = ReflectionUtilities.getJsonDifferences(expected, actual, true, "at");
+        Assert.assertEquals(
+                "Unexpected differences: " + differences,
+                List.of("/1 (MISSING)", "/3 (UNEXPECTED)"),
+                differences.stream().map(difference -> difference.path() + " (" + difference.kind() + ")").toList()
+        );
+        Assert.assertEquals("Field was not compared!", 4, ReflectionUtilities.getJsonDifferences(expected, actual, true).size());
+
+        int size = 100000;
+        JsonArray expectedRows = new JsonArray();
+        List<JsonObject> rows = new ArrayList<>();
+        for (int index = 0; index < size; index++) {
+            JsonObject row = new JsonObject();
+            row.addProperty("id", index);
+            row.addProperty("name", "pet-" + (index % 1000));
+            row.addProperty("updatedAt", System.nanoTime());
+            JsonArray tags = new JsonArray();
+            tags.add(index % 3);
+            tags.add(index % 5);
+            row.add("tags", tags);
+            expectedRows.add(row);
+            rows.add(row.deepCopy());
+        }
+        java.util.Collections.shuffle(rows, new java.util.Random(1));
+        JsonArray actualRows = new JsonArray();
+        rows.forEach(actualRows::add);
+        long start = System.currentTimeMillis();
+        ReflectionUtilities.compareJsonArrayIgnoringOrder(expectedRows, actualRows, "updatedAt");
+        long elapsed = System.currentTimeMillis() - start;
+        Assert.assertTrue("Matching " + size + " elements took " + elapsed + "ms!", elapsed < 10000);
+        printer.info("Matched " + size + " elements in " + elapsed + "ms");
+
+        actualRows.get(size / 2).getAsJsonObject().addProperty("name", "changed");
+        differences = ReflectionUtilities.getJsonDifferences(expectedRows, actualRows, true, "updatedAt");
+        Assert.assertEquals("Changed element was not reported on both sides: " + differences, 2, differences.size());
+        printer.success("The unorderedJsonArrayTest() test pass!");
+    }
+
+    @Test
+    public void mailboxPoolTest() throws MessagingException, InterruptedException {
+        MailStandIn.reset();
+        ContextStore.put("email-pool-validation-interval", "100");
+        ContextStore.put("email-pool-idle-timeout", "400");
+        MailboxPool pool = new MailboxPool();
+        ContextStore.put("email-pool-validation-interval", "5000");
+        ContextStore.put("email-pool-idle-timeout", "300000");
+        MailboxPool.Key key = new MailboxPool.Key("standin", "localhost", "0", "pool-user");
+        Properties properties = new Properties();
+
+        MailboxPool.Connection connection = pool.lease(key, properties, "password", "INBOX", Folder.READ_ONLY);
+        connection.release();
+        MailboxPool.Connection reused = pool.lease(key, properties, "password", "INBOX", Folder.READ_ONLY);
+        Assert.assertSame("Idle connection was not reused!", connection, reused);
+
+        reused.release();
+        MailboxPool.Connection reauthenticated = pool.lease(key, properties, "new-password", "INBOX", Folder.READ_ONLY);
+        Assert.assertNotSame("Connection authenticated with an old password was reused!", reused, reauthenticated);
+        Assert.assertFalse("Connection authenticated with an old password was not closed!", reused.getStore().isConnected());
+        reused = reauthenticated;
+
+        reused.invalidate();
+        Assert.assertFalse("Invalidated connection was not closed!", reused.getStore().isConnected());
+        connection = pool.lease(key, properties, "password", "INBOX", Folder.READ_ONLY);
+        Assert.assertNotSame("Invalidated connection was reused!", reused, connection);
+
+        connection.release();
+        connection.getStore().close();
+        TimeUnit.MILLISECONDS.sleep(200);
+        MailboxPool.Connection validated = pool.lease(key, properties, "password", "INBOX", Folder.READ_ONLY);
+        Assert.assertNotSame("Dead connection passed validation!", connection, validated);
+
+        validated.release();
+        TimeUnit.MILLISECONDS.sleep(500);
+        MailboxPool.Connection fresh = pool.lease(key, properties, "password", "INBOX", Folder.READ_ONLY);
+        Assert.assertNotSame("Connection idle past the timeout was reused!", validated, fresh);
+        Assert.assertFalse("Timed out connection was not closed!", validated.getStore().isConnected());
+
+        fresh.release();
+        MailStandIn.failNextOpens(2);
+        try {
+            pool.lease(key, properties, "password", "Archive", Folder.READ_ONLY);
+            Assert.fail("Failed folder open was not reported!");
+        }
+        catch (MessagingException exception) {
+            Assert.assertFalse("Connection failing to open its folder was leaked!", fresh.getStore().isConnected());
+        }
+        connection = pool.lease(key, properties, "password", "INBOX", Folder.READ_ONLY);
+        Assert.assertTrue("Connection was not opened!", connection.getFolder().isOpen());
+        connection.invalidate();
+        pool.closeAll();
+        printer.success("The mailboxPoolTest() test pass!");
+    }
+
     @Test
     public void lastItemOfTest() {
         List<Integer> integers = List.of(1, 2, 3, 4, 5);
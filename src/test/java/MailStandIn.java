@@ -0,0 +1,432 @@
+import jakarta.activation.DataHandler;
+import jakarta.mail.*;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import jakarta.mail.util.ByteArrayDataSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process mail store and transport used as a stand-in for a mail server in tests.
+ * They are registered in META-INF/javamail.providers under the "standin" and "standin-smtp" protocols.
+ * The store keeps its mailboxes in memory and announces delivered messages to open folders like an IMAP server
+ * in IDLE would, and the transport delivers every message it sends to the "INBOX" mailbox.
+ */
+public class MailStandIn {
+
+    private static final Map<String, List<byte[]>> mailboxes = new HashMap<>();
+    private static final List<StandInFolder> openFolders = new CopyOnWriteArrayList<>();
+    private static volatile long latency = 0;
+    private static final AtomicInteger transportConnections = new AtomicInteger();
+    private static final AtomicInteger sendFailures = new AtomicInteger();
+    private static final AtomicInteger openFailures = new AtomicInteger();
+    private static final AtomicInteger activeDownloads = new AtomicInteger();
+    private static final AtomicInteger peakDownloads = new AtomicInteger();
+
+    /**
+     * Delivers a message to the given mailbox, notifying every open folder of that mailbox.
+     *
+     * @param mailbox the name of the mailbox
+     * @param message the message to deliver
+     */
+    public static void deliver(String mailbox, MimeMessage message) {
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            message.writeTo(outputStream);
+            synchronized (mailboxes) {
+                mailboxes.computeIfAbsent(mailbox, name -> new ArrayList<>()).add(outputStream.toByteArray());
+            }
+            for (StandInFolder folder : openFolders)
+                if (folder.getFullName().equalsIgnoreCase(mailbox)) folder.refresh();
+        } catch (IOException | MessagingException exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    /**
+     * Creates a plain text message.
+     *
+     * @param from    the sender address
+     * @param subject the subject
+     * @param content the text content
+     * @return the created message
+     */
+    public static MimeMessage message(String from, String subject, String content) {
+        try {
+            MimeMessage message = new MimeMessage((Session) null);
+            message.setFrom(new InternetAddress(from));
+            message.setSubject(subject);
+            message.setText(content);
+            message.setSentDate(new Date());
+            message.saveChanges();
+            return message;
+        } catch (MessagingException exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    /**
+     * Creates a multipart message with a text body and the given attachments.
+     *
+     * @param from        the sender address
+     * @param subject     the subject
+     * @param content     the text content
+     * @param attachments the attachment contents by file name
+     * @return the created message
+     */
+    public static MimeMessage message(String from, String subject, String content, Map<String, byte[]> attachments) {
+        try {
+            MimeMessage message = new MimeMessage((Session) null);
+            message.setFrom(new InternetAddress(from));
+            message.setSubject(subject);
+            MimeMultipart multipart = new MimeMultipart();
+            MimeBodyPart body = new MimeBodyPart();
+            body.setText(content);
+            multipart.addBodyPart(body);
+            for (Map.Entry<String, byte[]> attachment : attachments.entrySet()) {
+                MimeBodyPart part = new MimeBodyPart();
+                part.setDataHandler(new DataHandler(new ByteArrayDataSource(attachment.getValue(), "application/octet-stream")));
+                part.setFileName(attachment.getKey());
+                part.setDisposition(Part.ATTACHMENT);
+                multipart.addBodyPart(part);
+            }
+            message.setContent(multipart);
+            message.setSentDate(new Date());
+            message.saveChanges();
+            return message;
+        } catch (MessagingException exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    /**
+     * Returns the number of messages in the given mailbox.
+     *
+     * @param mailbox the name of the mailbox
+     * @return the message count
+     */
+    public static int size(String mailbox) {
+        synchronized (mailboxes) {
+            return mailboxes.getOrDefault(mailbox, List.of()).size();
+        }
+    }
+
+    /**
+     * Removes every message from every mailbox, and removes any simulated latency.
+     */
+    public static void reset() {
+        synchronized (mailboxes) {
+            mailboxes.clear();
+        }
+        latency = 0;
+        transportConnections.set(0);
+        sendFailures.set(0);
+        openFailures.set(0);
+        peakDownloads.set(0);
+    }
+
+    /**
+     * Makes the next sends fail as if the connection had been dropped, closing the transport they were sent over.
+     *
+     * @param count the number of sends to fail
+     */
+    public static void failNextSends(int count) {
+        sendFailures.set(count);
+    }
+
+    /**
+     * Makes the next folder opens fail as if the server had rejected them.
+     *
+     * @param count the number of opens to fail
+     */
+    public static void failNextOpens(int count) {
+        openFailures.set(count);
+    }
+
+    /**
+     * Returns the number of transport connections opened since the last reset.
+     *
+     * @return the connection count
+     */
+    public static int transportConnections() {
+        return transportConnections.get();
+    }
+
+    /**
+     * Returns the highest number of message contents that were being downloaded at the same time
+     * since the last reset.
+     *
+     * @return the peak number of concurrent downloads
+     */
+    public static int peakDownloads() {
+        return peakDownloads.get();
+    }
+
+    /**
+     * Resets the peak number of concurrent downloads, keeping the mailboxes.
+     */
+    public static void resetPeakDownloads() {
+        peakDownloads.set(0);
+    }
+
+    /**
+     * Simulates the time a server takes to transfer a message body.
+     *
+     * @param millis the delay added to every message content download, in milliseconds
+     */
+    public static void setLatency(long millis) {
+        latency = millis;
+    }
+
+    private static List<byte[]> snapshot(String mailbox) {
+        synchronized (mailboxes) {
+            return new ArrayList<>(mailboxes.getOrDefault(mailbox, List.of()));
+        }
+    }
+
+    public static class StandInStore extends Store {
+
+        public StandInStore(Session session, URLName urlName) {
+            super(session, urlName);
+        }
+
+        @Override
+        protected boolean protocolConnect(String host, int port, String user, String password) {
+            return true;
+        }
+
+        @Override
+        public Folder getDefaultFolder() {
+            return new StandInFolder(this, "");
+        }
+
+        @Override
+        public Folder getFolder(String name) {
+            return new StandInFolder(this, name);
+        }
+
+        @Override
+        public Folder getFolder(URLName url) {
+            return new StandInFolder(this, url.getFile());
+        }
+    }
+
+    /**
+     * A transport delivering every message it sends to the "INBOX" mailbox.
+     */
+    public static class StandInTransport extends Transport {
+
+        public StandInTransport(Session session, URLName urlName) {
+            super(session, urlName);
+        }
+
+        @Override
+        protected boolean protocolConnect(String host, int port, String user, String password) {
+            transportConnections.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public void sendMessage(Message message, Address[] addresses) throws MessagingException {
+            if (!isConnected()) throw new MessagingException("Not connected");
+            if (sendFailures.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+                close();
+                throw new MessagingException("Connection reset");
+            }
+            deliver("INBOX", (MimeMessage) message);
+        }
+    }
+
+    public static class StandInFolder extends Folder {
+
+        private final String name;
+        private final List<Message> messages = new ArrayList<>();
+        private boolean open;
+
+        StandInFolder(Store store, String name) {
+            super(store);
+            this.name = name;
+        }
+
+        /**
+         * Picks up messages delivered since the folder was opened and announces them to its listeners.
+         */
+        synchronized void refresh() throws MessagingException {
+            List<byte[]> mailbox = snapshot(name);
+            List<Message> added = new ArrayList<>();
+            for (int index = messages.size(); index < mailbox.size(); index++) {
+                Message message = new StandInMessage(this, mailbox.get(index), index + 1);
+                messages.add(message);
+                added.add(message);
+            }
+            if (!added.isEmpty()) notifyMessageAddedListeners(added.toArray(new Message[0]));
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getFullName() {
+            return name;
+        }
+
+        @Override
+        public Folder getParent() {
+            return null;
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public Folder[] list(String pattern) {
+            return new Folder[0];
+        }
+
+        @Override
+        public char getSeparator() {
+            return '/';
+        }
+
+        @Override
+        public int getType() {
+            return HOLDS_MESSAGES;
+        }
+
+        @Override
+        public boolean create(int type) {
+            return true;
+        }
+
+        @Override
+        public boolean hasNewMessages() {
+            return false;
+        }
+
+        @Override
+        public Folder getFolder(String name) {
+            return new StandInFolder(store, name);
+        }
+
+        @Override
+        public boolean delete(boolean recurse) {
+            return false;
+        }
+
+        @Override
+        public boolean renameTo(Folder folder) {
+            return false;
+        }
+
+        @Override
+        public synchronized void open(int mode) throws MessagingException {
+            if (open) throw new IllegalStateException("Folder is already open");
+            if (openFailures.getAndUpdate(count -> Math.max(0, count - 1)) > 0)
+                throw new MessagingException("Folder could not be opened");
+            this.mode = mode;
+            messages.clear();
+            for (byte[] bytes : snapshot(name)) messages.add(new StandInMessage(this, bytes, messages.size() + 1));
+            open = true;
+            openFolders.add(this);
+        }
+
+        @Override
+        public synchronized void close(boolean expunge) throws MessagingException {
+            if (expunge) expunge();
+            open = false;
+            openFolders.remove(this);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public Flags getPermanentFlags() {
+            return new Flags(Flags.Flag.DELETED);
+        }
+
+        @Override
+        public synchronized int getMessageCount() {
+            return messages.size();
+        }
+
+        @Override
+        public synchronized Message getMessage(int number) {
+            return messages.get(number - 1);
+        }
+
+        @Override
+        public void appendMessages(Message[] messages) throws MessagingException {
+            for (Message message : messages) deliver(name, (MimeMessage) message);
+        }
+
+        @Override
+        public synchronized Message[] expunge() {
+            List<Message> expunged = new ArrayList<>();
+            synchronized (mailboxes) {
+                List<byte[]> mailbox = mailboxes.getOrDefault(name, new ArrayList<>());
+                for (int index = messages.size() - 1; index >= 0; index--) {
+                    Message message = messages.get(index);
+                    if (isDeleted(message)) {
+                        expunged.add(0, message);
+                        messages.remove(index);
+                        if (index < mailbox.size()) mailbox.remove(index);
+                        ((StandInMessage) message).expunge();
+                    }
+                }
+            }
+            for (int index = 0; index < messages.size(); index++) ((StandInMessage) messages.get(index)).renumber(index + 1);
+            return expunged.toArray(new Message[0]);
+        }
+
+        private static boolean isDeleted(Message message) {
+            try {
+                return message.isSet(Flags.Flag.DELETED);
+            } catch (MessagingException exception) {
+                return false;
+            }
+        }
+    }
+
+    public static class StandInMessage extends MimeMessage {
+
+        StandInMessage(Folder folder, byte[] bytes, int number) throws MessagingException {
+            super(folder, new ByteArrayInputStream(bytes), number);
+        }
+
+        void renumber(int number) {
+            setMessageNumber(number);
+        }
+
+        void expunge() {
+            setExpunged(true);
+        }
+
+        @Override
+        protected InputStream getContentStream() throws MessagingException {
+            peakDownloads.accumulateAndGet(activeDownloads.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            } finally {
+                activeDownloads.decrementAndGet();
+            }
+            return super.getContentStream();
+        }
+    }
+}